@@ -0,0 +1,141 @@
+package main;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Check that translation of an instruction allocates nothing once translator is warmed up. Program
+ * made of the same block of instructions repeated many times is translated to
+ * {@link NullWriter}, and then program with twice as many blocks; what the longer program
+ * allocates more, divided by number of added instructions, is the steady-state allocation of one
+ * instruction. Fixed costs of translation (buffers, tables, symbols of the program) are the same
+ * for both programs and are not counted.
+ * <p>
+ * Block has every kind of statement whose code is made only of tokens and constants: moves,
+ * arithmetic, comparisons with flags, jumps, loops, multiplication and division of both sizes,
+ * stack and interrupts. Indexed array access is left out, its code is a new string by nature.
+ * <p>
+ * Check is done with eager flags and with lazy flags (see {@link Parser#setLazyFlags(boolean)}).
+ *
+ * <pre>
+ * java -cp bin main.AllocationCheck [-b bytesPerInstruction] [blocks]
+ * </pre>
+ *
+ * Exits with status 1 if allocation per instruction is over the limit (by default 1 byte, which
+ * leaves room for rounding of thread allocation counters).
+ *
+ * @author Nikola Trkulja
+ * @author Igor Let
+ */
+public class AllocationCheck {
+
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+
+	private static final String HEAD = ".model small\n.data\nn dw 3\nm dw 7\nb db 5\n.code\n"
+			+ "start:\nmov ax, @data\nmov ds, ax\n"
+			+ "print proc\nmov ah, 02\nint 21h\nret\nprint endp\nagain:\n";
+
+	private static final String BLOCK = "mov ax, n\nmov bx, m\nadd ax, bx\nsub bx, 5\n"
+			+ "cmp ax, bx\njl again\nxchg ax, bx\ninc cx\ndec cx\nmov al, b\nmul bl\n"
+			+ "mov bl, 3\ndiv bl\nmul bx\ndiv bx\ncmp al, 7\njae again\npush ax\npop dx\n"
+			+ "call print\nmov n, ax\nadd m, 1\nloop again\n";
+
+	private static final String TAIL = "mov ah, 4ch\nint 21h\nend start\n";
+
+	private static final int WARMUPS = 200;
+	private static final int ROUNDS = 20;
+
+	private final Translator translator;
+
+	/**
+	 * @param lazyFlags whether translator computes flags lazily
+	 */
+	public AllocationCheck(boolean lazyFlags) {
+		translator = new Translator(Parser.DEFAULT_SEED, lazyFlags, null);
+	}
+
+	/**
+	 * Make program with given number of blocks.
+	 *
+	 * @param blocks
+	 * @return
+	 */
+	static byte[] program(int blocks) {
+		StringBuilder sb = new StringBuilder(HEAD);
+		for (int i = 0; i < blocks; i++) {
+			sb.append(BLOCK);
+		}
+		return sb.append(TAIL).toString().getBytes(CHARSET);
+	}
+
+	static int instructions() {
+		int count = 0;
+		for (int i = 0; i < BLOCK.length(); i++) {
+			if (BLOCK.charAt(i) == '\n') {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Return the smallest number of bytes allocated by translation of given program.
+	 *
+	 * @param program
+	 * @return
+	 * @throws IOException
+	 */
+	private long allocated(byte[] program) throws IOException {
+		long min = Long.MAX_VALUE;
+		for (int i = 0; i < ROUNDS; i++) {
+			long allocated = Benchmark.allocatedBytes();
+			translator.translate(ByteBuffer.wrap(program), NullWriter.INSTANCE);
+			min = Math.min(min, Benchmark.allocatedBytes() - allocated);
+		}
+		return min;
+	}
+
+	/**
+	 * Return bytes allocated per instruction in steady state.
+	 *
+	 * @param blocks number of blocks of the shorter program
+	 * @return
+	 * @throws IOException
+	 */
+	public double perInstruction(int blocks) throws IOException {
+		byte[] shorter = program(blocks);
+		byte[] longer = program(2 * blocks);
+		for (int i = 0; i < WARMUPS; i++) {
+			translator.translate(ByteBuffer.wrap(shorter), NullWriter.INSTANCE);
+		}
+		long difference = allocated(longer) - allocated(shorter);
+		return (double) difference / (blocks * instructions());
+	}
+
+	public static void main(String[] args) throws Exception {
+		double limit = 1;
+		int blocks = 1000;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-b")) {
+				limit = Double.parseDouble(args[++i]);
+			} else {
+				blocks = Integer.parseInt(args[i]);
+			}
+		}
+		boolean failed = false;
+		for (boolean lazyFlags : new boolean[] { false, true }) {
+			double bytes = new AllocationCheck(lazyFlags).perInstruction(blocks);
+			System.out.printf("%s flags: %d instructions, %.3f B allocated per instruction "
+					+ "(limit %.3f B)%n", lazyFlags ? "lazy" : "eager", blocks * instructions(),
+					bytes, limit);
+			failed |= bytes > limit;
+		}
+		if (failed) {
+			System.out.println("FAIL");
+			System.exit(1);
+		}
+		System.out.println("OK");
+	}
+
+}
@@ -0,0 +1,139 @@
+package main;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Minimal benchmark harness, in the spirit of JMH (which project can not use, it has no build tool
+ * and no dependencies). Benchmark is run in warmup iterations and then in measured iterations of
+ * fixed duration, each one calling {@link #invoke()} as many times as it can. For every iteration
+ * throughput in operations per second is reported, and like JMH's <code>-prof gc</code>, bytes
+ * allocated per operation and number and time of garbage collections, so that regressions in
+ * allocation are visible as well as regressions in time.
+ *
+ * @author Nikola Trkulja
+ * @author Igor Let
+ */
+public abstract class Benchmark {
+
+	private final String name;
+	private final String unit;
+
+	/**
+	 * @param name
+	 * @param unit name of operation, for example "tokens"
+	 */
+	protected Benchmark(String name, String unit) {
+		this.name = name;
+		this.unit = unit;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Prepare input of given size. Called once before iterations, it is not measured.
+	 *
+	 * @param size
+	 * @throws Exception
+	 */
+	protected abstract void setUp(int size) throws Exception;
+
+	/**
+	 * Run benchmarked code once.
+	 *
+	 * @return number of operations done
+	 * @throws Exception
+	 */
+	protected abstract long invoke() throws Exception;
+
+	/**
+	 * Run benchmark for input of given size, print results of iterations and return summary line.
+	 *
+	 * @param size
+	 * @param warmups
+	 * @param iterations
+	 * @param millis duration of one iteration
+	 * @return
+	 * @throws Exception
+	 */
+	public String run(int size, int warmups, int iterations, long millis) throws Exception {
+		setUp(size);
+		for (int i = 0; i < warmups; i++) {
+			iteration(millis);
+		}
+		double[] throughputs = new double[iterations];
+		double sum = 0;
+		for (int i = 0; i < iterations; i++) {
+			throughputs[i] = iteration(millis);
+			sum += throughputs[i];
+		}
+		double mean = sum / iterations;
+		double variance = 0;
+		for (double throughput : throughputs) {
+			variance += (throughput - mean) * (throughput - mean);
+		}
+		double error = iterations > 1 ? Math.sqrt(variance / (iterations - 1)) : 0;
+		return String.format("%-24s %10d %14.0f +- %-10.0f %s/s", name, size, mean, error, unit);
+	}
+
+	/**
+	 * Run one iteration and return its throughput.
+	 *
+	 * @param millis
+	 * @return
+	 * @throws Exception
+	 */
+	private double iteration(long millis) throws Exception {
+		long gcCount = gcCount();
+		long gcTime = gcTime();
+		long allocated = allocatedBytes();
+		long operations = 0;
+		long start = System.nanoTime();
+		long end = start + millis * 1000000;
+		long now;
+		do {
+			operations += invoke();
+			now = System.nanoTime();
+		} while (now < end);
+		double throughput = operations * 1e9 / (now - start);
+		long bytes = allocatedBytes() - allocated;
+		System.out.printf("  %-22s %10.0f %s/s, %8.1f B/%s, gc: %d collections, %d ms%n", name,
+				throughput, unit, (double) bytes / operations, unit, gcCount() - gcCount, gcTime()
+						- gcTime);
+		return throughput;
+	}
+
+	/**
+	 * Get number of bytes allocated by current thread, or 0 if JVM does not measure it.
+	 *
+	 * @return
+	 */
+	static long allocatedBytes() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread
+					.currentThread().getId());
+		}
+		return 0;
+	}
+
+	private static long gcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(collector.getCollectionCount(), 0);
+		}
+		return count;
+	}
+
+	private static long gcTime() {
+		long time = 0;
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			time += Math.max(collector.getCollectionTime(), 0);
+		}
+		return time;
+	}
+
+}
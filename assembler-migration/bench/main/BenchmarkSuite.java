@@ -0,0 +1,77 @@
+package main;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs benchmarks of hot paths of translator: {@link ScannerThroughput},
+ * {@link ParserThroughput}, {@link MacroExpansion} and {@link CodeBufferInsertion}. Every benchmark
+ * is run for a few input sizes (number of copies of sample programs, number of labels of generated
+ * program, or number of generated lines for code buffer), which can be changed with
+ * <code>-s</code>. Must be run from project directory,
+ * because samples are read from "src/asm".
+ *
+ * <pre>
+ * java -cp bin main.BenchmarkSuite [-w warmups] [-i iterations] [-t millis] [-s size,...] [benchmark...]
+ * </pre>
+ *
+ * @author Nikola Trkulja
+ * @author Igor Let
+ */
+public class BenchmarkSuite {
+
+	public static void main(String[] args) throws Exception {
+		Map<Benchmark, int[]> benchmarks = new LinkedHashMap<Benchmark, int[]>();
+		benchmarks.put(new ScannerThroughput(), new int[] { 1, 100, 1000 });
+		benchmarks.put(new ParserThroughput(false), new int[] { 1, 100, 1000 });
+		benchmarks.put(new ParserThroughput(true), new int[] { 10, 1000, 10000 });
+		benchmarks.put(new ParserThroughput(true, true), new int[] { 10, 1000, 10000 });
+		benchmarks.put(new MacroExpansion(), new int[] { 1, 100, 10000 });
+		benchmarks.put(new CodeBufferInsertion(false), new int[] { 1000, 100000, 1000000 });
+		benchmarks.put(new CodeBufferInsertion(true), new int[] { 1000, 100000, 1000000 });
+
+		int warmups = 3;
+		int iterations = 5;
+		long millis = 1000;
+		int[] sizes = null;
+		List<String> names = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-w") && i + 1 < args.length) {
+				warmups = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-i") && i + 1 < args.length) {
+				iterations = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-t") && i + 1 < args.length) {
+				millis = Long.parseLong(args[++i]);
+			} else if (args[i].equals("-s") && i + 1 < args.length) {
+				String[] values = args[++i].split(",");
+				sizes = new int[values.length];
+				for (int j = 0; j < values.length; j++) {
+					sizes[j] = Integer.parseInt(values[j]);
+				}
+			} else {
+				names.add(args[i]);
+			}
+		}
+
+		List<String> results = new ArrayList<String>();
+		for (Map.Entry<Benchmark, int[]> entry : benchmarks.entrySet()) {
+			Benchmark benchmark = entry.getKey();
+			if (!names.isEmpty() && !names.contains(benchmark.getName())) {
+				continue;
+			}
+			for (int size : sizes != null ? sizes : entry.getValue()) {
+				results.add(benchmark.run(size, warmups, iterations, millis));
+			}
+		}
+
+		System.out.println();
+		System.out.printf("%-24s %10s %14s   %-10s %s%n", "Benchmark", "Size", "Score", "  Error",
+				"Units");
+		for (String result : results) {
+			System.out.println(result);
+		}
+	}
+
+}
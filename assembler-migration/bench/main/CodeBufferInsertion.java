@@ -0,0 +1,55 @@
+package main;
+
+/**
+ * Throughput of {@link CodeBuffer} in inserted lines per second, for output of given number of
+ * lines (body followed by procedures, like generated code), either kept in memory or streamed.
+ *
+ * @author Nikola Trkulja
+ * @author Igor Let
+ */
+public class CodeBufferInsertion extends Benchmark {
+
+	private static final String[] LINES = { "temp := ax;", "temp := temp + bx;",
+			"IF temp >= 2**16 THEN", "temp := temp MOD 2**16;", "flag_c := 1", "ELSE",
+			"flag_c := 0", "FI;", "ax := temp;", "CALL compare" };
+
+	private final boolean streaming;
+	private int size;
+
+	/**
+	 * Total length of generated code, so that it can not be optimized away.
+	 */
+	long length;
+
+	/**
+	 * @param streaming true if code is streamed to writer
+	 */
+	public CodeBufferInsertion(boolean streaming) {
+		super(streaming ? "CodeBuffer.stream" : "CodeBuffer.memory", "lines");
+		this.streaming = streaming;
+	}
+
+	@Override
+	protected void setUp(int size) {
+		this.size = size;
+	}
+
+	@Override
+	protected long invoke() {
+		CodeBuffer buffer = streaming ? new CodeBuffer(NullWriter.INSTANCE) : new CodeBuffer();
+		buffer.insertIntoDeclaration(", x := 0");
+		int procedures = size / 2;
+		for (int i = 0; i < size - procedures; i++) {
+			buffer.insert(LINES[i % LINES.length]);
+		}
+		buffer.addBegin();
+		buffer.setInProc(true);
+		for (int i = 0; i < procedures; i++) {
+			buffer.insert(LINES[i % LINES.length]);
+		}
+		buffer.close();
+		length += buffer.toString().length();
+		return size;
+	}
+
+}
@@ -0,0 +1,207 @@
+package main;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures cold start of one-shot translation: time from start of new JVM until generated ".wsl"
+ * file is written, for one small program (by default "helloworld.asm"). {@link App} prints its
+ * summary only after output is written, so time is measured until the first line of its output,
+ * and shutdown of JVM is not counted. Every run starts new JVM with the same class path, first run
+ * is not counted so that files are in operating system cache. With class data sharing archive (see
+ * {@link App}) runs with and without it are alternated.
+ * <p>
+ * Median time is compared to budget recorded in "bench/golden/coldstart.txt" (under name of the
+ * program, with suffix "-cds" for runs with archive), and benchmark fails if it is over budget by
+ * more than given margin in percent. Like budgets of {@link GoldenCheck}, budgets should be
+ * recorded with <code>-update</code> on the machine where benchmark is run, from project
+ * directory.
+ *
+ * <pre>
+ * java -cp translator.jar main.ColdStartBenchmark [-cds translator.jsa] [-n runs] [-t timeMargin] [-update] [file.asm]
+ * </pre>
+ *
+ * Exits with status 1 if any time is over budget.
+ *
+ * @author Nikola Trkulja
+ * @author Igor Let
+ */
+public class ColdStartBenchmark {
+
+	private static final Path BUDGETS = GoldenCheck.GOLDEN.resolve("coldstart.txt");
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+
+	public static void main(String[] args) throws Exception {
+		Path program = Paths.get("src/asm/helloworld.asm");
+		String archive = null;
+		int runs = 20;
+		double timeMargin = 50;
+		boolean update = false;
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-cds") && i + 1 < args.length) {
+				archive = args[++i];
+			} else if (args[i].equals("-n") && i + 1 < args.length) {
+				runs = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-t") && i + 1 < args.length) {
+				timeMargin = Double.parseDouble(args[++i]);
+			} else if (args[i].equals("-update")) {
+				update = true;
+			} else {
+				program = Paths.get(args[i]);
+			}
+		}
+
+		String name = program.getFileName().toString().replaceFirst("\\.asm$", "");
+		Map<String, Long> medians = new LinkedHashMap<String, Long>();
+		Path output = Files.createTempDirectory("coldstart");
+		try {
+			long[] plain = new long[runs];
+			long[] shared = new long[runs];
+			launch(null, program, output);
+			for (int run = 0; run < runs; run++) {
+				plain[run] = launch(null, program, output);
+				if (archive != null) {
+					shared[run] = launch(archive, program, output);
+				}
+			}
+			medians.put(name, report("default", plain));
+			if (archive != null) {
+				medians.put(name + "-cds", report(archive, shared));
+			}
+		} finally {
+			for (File file : output.toFile().listFiles()) {
+				file.delete();
+			}
+			Files.delete(output);
+		}
+
+		Map<String, Long> budgets = readBudgets();
+		if (update) {
+			budgets.putAll(medians);
+			writeBudgets(budgets);
+			System.out.println("Budgets written to " + BUDGETS);
+			return;
+		}
+		boolean failed = false;
+		for (Map.Entry<String, Long> median : medians.entrySet()) {
+			Long budget = budgets.get(median.getKey());
+			if (budget == null) {
+				System.out.println(median.getKey() + ": no budget, run with -update");
+				failed = true;
+			} else if (100.0 * median.getValue() / budget > 100 + timeMargin) {
+				System.out.println(median.getKey() + ": median " + median.getValue()
+						+ " us is over budget " + budget + " us");
+				failed = true;
+			} else {
+				System.out.printf("%s: median %d us, %.1f%% of budget%n", median.getKey(),
+						median.getValue(), 100.0 * median.getValue() / budget);
+			}
+		}
+		if (failed) {
+			System.out.println("FAIL");
+			System.exit(1);
+		}
+		System.out.println("OK");
+	}
+
+	/**
+	 * Translate program in new JVM and return time in nanoseconds until output is written.
+	 *
+	 * @param archive class data sharing archive, or null
+	 * @param program
+	 * @param output
+	 * @return
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private static long launch(String archive, Path program, Path output) throws IOException,
+			InterruptedException {
+		List<String> command = new ArrayList<String>();
+		command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+		if (archive != null) {
+			command.add("-XX:SharedArchiveFile=" + archive);
+			command.add("-Xshare:on");
+		}
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(App.class.getName());
+		command.add("-j");
+		command.add("1");
+		command.add("-o");
+		command.add(output.toString());
+		command.add(program.toString());
+
+		long start = System.nanoTime();
+		Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+		BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream(),
+				CHARSET));
+		String summary;
+		long time;
+		try {
+			summary = in.readLine();
+			time = System.nanoTime() - start;
+			while (in.readLine() != null) {
+				// rest of output is not needed, but must be read so that process can end
+			}
+		} finally {
+			in.close();
+		}
+		int status = process.waitFor();
+		if (status != 0) {
+			throw new IllegalStateException("Translation failed with status " + status + " ("
+					+ summary + "): " + command);
+		}
+		return time;
+	}
+
+	/**
+	 * Print times of runs and return their median in microseconds.
+	 *
+	 * @param name
+	 * @param times
+	 * @return
+	 */
+	private static long report(String name, long[] times) {
+		Arrays.sort(times);
+		System.out.printf("%s: min %.1f ms, median %.1f ms, max %.1f ms (%d runs)%n", name,
+				times[0] / 1e6, times[times.length / 2] / 1e6, times[times.length - 1] / 1e6,
+				times.length);
+		return times[times.length / 2] / 1000;
+	}
+
+	private static Map<String, Long> readBudgets() throws IOException {
+		Map<String, Long> budgets = new LinkedHashMap<String, Long>();
+		if (!Files.exists(BUDGETS)) {
+			return budgets;
+		}
+		for (String line : Files.readAllLines(BUDGETS, CHARSET)) {
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			String[] fields = line.split("\t");
+			budgets.put(fields[0], Long.parseLong(fields[1]));
+		}
+		return budgets;
+	}
+
+	private static void writeBudgets(Map<String, Long> budgets) throws IOException {
+		StringBuilder sb = new StringBuilder("# program\tmicroseconds to first output\n");
+		for (Map.Entry<String, Long> budget : budgets.entrySet()) {
+			sb.append(budget.getKey()).append('\t').append(budget.getValue()).append('\n');
+		}
+		Files.write(BUDGETS, sb.toString().getBytes(CHARSET));
+	}
+
+}
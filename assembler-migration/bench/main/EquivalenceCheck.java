@@ -0,0 +1,129 @@
+package main;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Check that code in which known values of registers are folded (see
+ * {@link Parser#setFolding(boolean)}) does the same as code without folding, and that structured
+ * code does the same as code of action systems which grow over limit and are written as they are
+ * (see {@link ActionSystem}). Programs made by {@link ProgramGenerator} are translated the usual
+ * way, without folding, and with small limit of action systems, with eager and with lazy flags,
+ * and translations are run by {@link WslInterpreter}; they must print the same text and end with
+ * the same values of variables. Programs which do not end within the limit of statements
+ * (generated jumps can make endless loops) are skipped.
+ *
+ * <pre>
+ * java -cp bin main.EquivalenceCheck [-n programs] [-l labels] [-s steps] [-a actionLimit]
+ * </pre>
+ *
+ * Exits with status 1 if any translations differ.
+ *
+ * @author Nikola Trkulja
+ * @author Igor Let
+ */
+public class EquivalenceCheck {
+
+	private static final Charset CHARSET = Charset.forName("US-ASCII");
+
+	private int programs = 100;
+	private int labels = 4;
+	private long steps = 1000000;
+	private int actionLimit = 1000;
+
+	private int compared;
+	private int skipped;
+	private int different;
+
+	/**
+	 * Translate given program.
+	 *
+	 * @param program
+	 * @param lazyFlags
+	 * @param folding
+	 * @param actionLimit
+	 * @return
+	 */
+	static String translate(byte[] program, boolean lazyFlags, boolean folding, int actionLimit) {
+		Parser parser = new Parser(new Scanner(ByteBuffer.wrap(program)));
+		parser.setLazyFlags(lazyFlags);
+		parser.setFolding(folding);
+		parser.setActionLimit(actionLimit);
+		return parser.parse();
+	}
+
+	/**
+	 * Compare translations of given program to the usual one, and report those which differ.
+	 *
+	 * @param name
+	 * @param program
+	 * @param lazyFlags
+	 */
+	private void compare(String name, byte[] program, boolean lazyFlags) {
+		String usual = new WslInterpreter(translate(program, lazyFlags, true,
+				ActionSystem.DEFAULT_LIMIT)).run(steps);
+		String unfolded = new WslInterpreter(translate(program, lazyFlags, false,
+				ActionSystem.DEFAULT_LIMIT)).run(steps);
+		String unstructured = new WslInterpreter(translate(program, lazyFlags, true,
+				actionLimit)).run(steps);
+		if (usual == null || unfolded == null || unstructured == null) {
+			skipped++;
+			return;
+		}
+		compared++;
+		compare(name, lazyFlags, usual, unfolded, "unfolded");
+		compare(name, lazyFlags, usual, unstructured, "unstructured");
+	}
+
+	private void compare(String name, boolean lazyFlags, String usual, String other,
+			String kind) {
+		if (!usual.equals(other)) {
+			different++;
+			System.out.printf("%s (%s flags) differs%n--- %s%n%s--- usual%n%s", name,
+					lazyFlags ? "lazy" : "eager", kind, other, usual);
+		}
+	}
+
+	public void run() throws IOException {
+		ProgramGenerator generator = new ProgramGenerator();
+		generator.setLabels(labels);
+		for (int seed = 1; seed <= programs; seed++) {
+			generator.setSeed(seed);
+			StringWriter out = new StringWriter();
+			generator.generate(out);
+			byte[] program = out.toString().getBytes(CHARSET);
+			for (boolean lazyFlags : new boolean[] { false, true }) {
+				compare("seed " + seed, program, lazyFlags);
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		EquivalenceCheck check = new EquivalenceCheck();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-n")) {
+				check.programs = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-l")) {
+				check.labels = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-s")) {
+				check.steps = Long.parseLong(args[++i]);
+			} else if (args[i].equals("-a")) {
+				check.actionLimit = Integer.parseInt(args[++i]);
+			} else {
+				System.err.println("Unknown option: " + args[i]);
+				System.exit(1);
+			}
+		}
+		check.run();
+		System.out.printf("%d translations compared, %d did not end in %d statements, "
+				+ "%d differ%n", check.compared, check.skipped, check.steps, check.different);
+		if (check.different > 0 || check.compared == 0) {
+			System.out.println("FAIL");
+			System.exit(1);
+		}
+		System.out.println("OK");
+	}
+
+}
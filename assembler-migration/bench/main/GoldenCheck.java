@@ -0,0 +1,558 @@
+package main;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Regression check of translator. Every sample program in "src/asm" and a few large programs made
+ * by {@link ProgramGenerator} are translated and generated code is compared to golden code in
+ * "bench/golden": whole ".wsl" file for samples, and SHA-256 of code in ".sha256" file for
+ * generated programs (their code is megabytes, too large to keep in repository). Golden code uses
+ * "\n" as line separator on every platform. Every program is also translated with lazy flags (see
+ * {@link Parser#setLazyFlags(boolean)}), under its name with suffix {@link #LAZY}.
+ * <p>
+ * Every program is also measured: translation time (the shortest of many runs, see
+ * {@link #measure(Map)}) and bytes allocated by translation. Both are compared to budgets recorded
+ * in "bench/golden/budgets.txt", and check fails if any of them is over its budget by more than
+ * given margin in percent (and time by more than {@link #TIME_SLACK_MICROS}). Time depends on
+ * machine, so budgets should be recorded on the machine where check is run, and time margin is
+ * larger by default.
+ *
+ * <pre>
+ * java -cp bin main.GoldenCheck [-t timeMargin] [-a allocationMargin] [-w warmups] [-r rounds] [-update] [program...]
+ * </pre>
+ *
+ * Code is checked in every {@link Mode} in which program can be given to translator, but only
+ * translation from buffer is measured.
+ * <p>
+ * With <code>-update</code>, golden code and budgets are written from current translator instead,
+ * which is how intended changes of generated code are accepted (together with new
+ * {@link Translator#VERSION}). Must be run from project directory. Exits with status 1 if check
+ * fails.
+ *
+ * @author Nikola Trkulja
+ * @author Igor Let
+ */
+public class GoldenCheck {
+
+	static final Path GOLDEN = Paths.get("bench/golden");
+
+	private static final Path BUDGETS = GOLDEN.resolve("budgets.txt");
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+
+	/**
+	 * Shortest time of warmup, so that translator is compiled even if only small programs are
+	 * checked.
+	 */
+	private static final long WARMUP_MILLIS = 3000;
+
+	/**
+	 * Time over budget which is never reported, because small programs are translated in a few
+	 * microseconds, and their times differ more than any margin from run to run.
+	 */
+	private static final long TIME_SLACK_MICROS = 50;
+
+	/**
+	 * Shortest time for which every program is measured in one round.
+	 */
+	private static final long ROUND_MILLIS = 100;
+
+	/**
+	 * Generated programs, by name: seed and number of labels.
+	 */
+	private static final Map<String, long[]> GENERATED = new LinkedHashMap<String, long[]>();
+
+	/**
+	 * Suffix of names of programs translated with lazy flags.
+	 */
+	static final String LAZY = "-lazy";
+
+	static {
+		GENERATED.put("generated-500", new long[] { 1, 500 });
+		GENERATED.put("generated-5000", new long[] { 2, 5000 });
+	}
+
+	/**
+	 * Ways in which program is given to translator.
+	 */
+	enum Mode {
+
+		/**
+		 * Program in buffer, scanned while it is parsed.
+		 */
+		SCANNER,
+
+		/**
+		 * Program tokenized into {@link TokenStream}, which is translated twice, so that code
+		 * shows if the first translation changed the stream.
+		 */
+		STREAM,
+
+		/**
+		 * Program tokenized in {@link #CHUNKS} chunks, like large files are tokenized by
+		 * {@link Scanner#tokenizeParallel()}, however small program and machine are.
+		 */
+		PARALLEL,
+
+		/**
+		 * Program scanned by {@link TokenPipeline} on its own thread, like large files are scanned
+		 * by translator with pipeline option, however small program is.
+		 */
+		PIPELINE;
+
+		/**
+		 * Number of chunks in parallel mode.
+		 */
+		static final int CHUNKS = 8;
+
+	}
+
+	private final Translator translator = new Translator();
+	private final Translator lazyTranslator = new Translator(Parser.DEFAULT_SEED, true, null);
+	private final double timeMargin;
+	private final double allocationMargin;
+	private final int warmups;
+	private final int rounds;
+
+	/**
+	 * @param timeMargin allowed time over budget, in percent
+	 * @param allocationMargin allowed allocation over budget, in percent
+	 * @param warmups number of times all programs are translated before measuring
+	 * @param rounds number of times all programs are measured
+	 */
+	public GoldenCheck(double timeMargin, double allocationMargin, int warmups, int rounds) {
+		this.timeMargin = timeMargin;
+		this.allocationMargin = allocationMargin;
+		this.warmups = warmups;
+		this.rounds = rounds;
+	}
+
+	/**
+	 * Get program with given name, sample or generated, with or without {@link #LAZY} suffix.
+	 *
+	 * @param name
+	 * @return
+	 * @throws IOException
+	 */
+	static byte[] program(String name) throws IOException {
+		name = baseName(name);
+		long[] generated = GENERATED.get(name);
+		if (generated == null) {
+			return Files.readAllBytes(Workload.SAMPLES.resolve(name + ".asm"));
+		}
+		ProgramGenerator generator = new ProgramGenerator();
+		generator.setSeed(generated[0]);
+		generator.setLabels((int) generated[1]);
+		StringWriter out = new StringWriter();
+		generator.generate(out);
+		return out.toString().getBytes(CHARSET);
+	}
+
+	/**
+	 * Get names of all programs: samples without extension, and generated programs, each one also
+	 * with {@link #LAZY} suffix.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	static List<String> programs() throws IOException {
+		List<String> names = new ArrayList<String>();
+		for (String sample : Workload.samples()) {
+			names.add(sample.substring(0, sample.length() - ".asm".length()));
+		}
+		names.addAll(GENERATED.keySet());
+		int count = names.size();
+		for (int i = 0; i < count; i++) {
+			names.add(names.get(i) + LAZY);
+		}
+		return names;
+	}
+
+	static boolean isLazy(String name) {
+		return name.endsWith(LAZY);
+	}
+
+	/**
+	 * Get name of program without {@link #LAZY} suffix.
+	 *
+	 * @param name
+	 * @return
+	 */
+	static String baseName(String name) {
+		return isLazy(name) ? name.substring(0, name.length() - LAZY.length()) : name;
+	}
+
+	/**
+	 * Translate program with given name in given mode.
+	 *
+	 * @param name
+	 * @param program
+	 * @param mode
+	 * @param out
+	 * @throws IOException
+	 */
+	private void translate(String name, byte[] program, Mode mode, Writer out) throws IOException {
+		Translator translator = isLazy(name) ? lazyTranslator : this.translator;
+		switch (mode) {
+		case STREAM:
+			TokenStream tokens = new Scanner(ByteBuffer.wrap(program)).tokenize();
+			translator.translate(tokens, NullWriter.INSTANCE);
+			translator.translate(tokens, out);
+			break;
+		case PARALLEL:
+			translator.translate(new Scanner(ByteBuffer.wrap(program)).tokenize(Mode.CHUNKS), out);
+			break;
+		case PIPELINE:
+			Parser parser = new Parser(new TokenPipeline(new Scanner(ByteBuffer.wrap(program))));
+			parser.setLazyFlags(isLazy(name));
+			parser.parse(out);
+			break;
+		default:
+			translator.translate(ByteBuffer.wrap(program), out);
+		}
+	}
+
+	/**
+	 * Translate program with given name into digest, and return digest in hexadecimal.
+	 *
+	 * @param name
+	 * @param program
+	 * @param mode
+	 * @return
+	 * @throws IOException
+	 */
+	private String digest(String name, byte[] program, Mode mode) throws IOException {
+		MessageDigest digest = TranslationCache.newDigest();
+		Writer out = new LineWriter(new OutputStreamWriter(new DigestOutputStream(
+				OutputStream.nullOutputStream(), digest), CHARSET));
+		translate(name, program, mode, out);
+		out.close();
+		return TranslationCache.toHex(digest.digest());
+	}
+
+	/**
+	 * Translate program with given name and return generated code.
+	 *
+	 * @param name
+	 * @param program
+	 * @param mode
+	 * @return
+	 * @throws IOException
+	 */
+	private String code(String name, byte[] program, Mode mode) throws IOException {
+		StringWriter out = new StringWriter();
+		translate(name, program, mode, new LineWriter(out));
+		return out.toString();
+	}
+
+	/**
+	 * Compare code of given program in every mode to its golden code.
+	 *
+	 * @param name
+	 * @param program
+	 * @return description of difference, or null if code is the same
+	 * @throws IOException
+	 */
+	public String verify(String name, byte[] program) throws IOException {
+		Path golden = GOLDEN.resolve(name + ".wsl");
+		if (Files.exists(golden)) {
+			String expected = new String(Files.readAllBytes(golden), CHARSET);
+			for (Mode mode : Mode.values()) {
+				String actual = code(name, program, mode);
+				if (!actual.equals(expected)) {
+					return "code in " + mode + " mode differs from " + golden + " "
+							+ difference(expected, actual);
+				}
+			}
+			return null;
+		}
+		golden = GOLDEN.resolve(name + ".sha256");
+		if (!Files.exists(golden)) {
+			return "no golden code, run with -update";
+		}
+		String expected = new String(Files.readAllBytes(golden), CHARSET).trim();
+		for (Mode mode : Mode.values()) {
+			String actual = digest(name, program, mode);
+			if (!actual.equals(expected)) {
+				return "SHA-256 of code in " + mode + " mode is " + actual + ", golden is "
+						+ expected;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Write golden code of given program.
+	 *
+	 * @param name
+	 * @param program
+	 * @throws IOException
+	 */
+	public void update(String name, byte[] program) throws IOException {
+		Files.createDirectories(GOLDEN);
+		if (GENERATED.containsKey(baseName(name))) {
+			Files.write(GOLDEN.resolve(name + ".sha256"),
+					(digest(name, program, Mode.SCANNER) + "\n").getBytes(CHARSET));
+		} else {
+			Files.write(GOLDEN.resolve(name + ".wsl"),
+					code(name, program, Mode.SCANNER).getBytes(CHARSET));
+		}
+	}
+
+	/**
+	 * Measure given programs and return the shortest time in microseconds and the smallest number
+	 * of allocated bytes of each one. All programs are translated a few times first (and at least
+	 * for {@link #WARMUP_MILLIS}), so that translator is compiled, and then measured in rounds, each program for at least
+	 * {@link #ROUND_MILLIS} in every round. Rounds spread measurements of every program over time,
+	 * so that compilation or collection running in the background does not spoil all of them.
+	 *
+	 * @param programs
+	 * @return
+	 * @throws IOException
+	 */
+	public Map<String, long[]> measure(Map<String, byte[]> programs) throws IOException {
+		long warm = System.nanoTime() + WARMUP_MILLIS * 1000000;
+		for (int i = 0; i < warmups || System.nanoTime() < warm; i++) {
+			for (Map.Entry<String, byte[]> program : programs.entrySet()) {
+				digest(program.getKey(), program.getValue(), Mode.SCANNER);
+			}
+		}
+		Map<String, long[]> best = new LinkedHashMap<String, long[]>();
+		for (String name : programs.keySet()) {
+			best.put(name, new long[] { Long.MAX_VALUE, Long.MAX_VALUE });
+		}
+		for (int round = 0; round < rounds; round++) {
+			for (Map.Entry<String, byte[]> program : programs.entrySet()) {
+				long[] measured = best.get(program.getKey());
+				long end = System.nanoTime() + ROUND_MILLIS * 1000000;
+				do {
+					long allocated = Benchmark.allocatedBytes();
+					long start = System.nanoTime();
+					digest(program.getKey(), program.getValue(), Mode.SCANNER);
+					long time = (System.nanoTime() - start) / 1000;
+					allocated = Benchmark.allocatedBytes() - allocated;
+					measured[0] = Math.min(measured[0], time);
+					measured[1] = Math.min(measured[1], allocated);
+				} while (System.nanoTime() < end);
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Compare measured time and allocation of program to its budget, and print them.
+	 *
+	 * @param name
+	 * @param measured
+	 * @param budget recorded time and allocation, or null
+	 * @return description of failure, or null if program is within budget
+	 */
+	public String compare(String name, long[] measured, long[] budget) {
+		if (budget == null) {
+			System.out.printf("%-24s %10d us %14d B%n", name, measured[0], measured[1]);
+			return "no budget, run with -update";
+		}
+		System.out.printf("%-24s %10d us %6.1f%% %14d B %6.1f%%%n", name, measured[0],
+				percent(measured[0], budget[0]), measured[1], percent(measured[1], budget[1]));
+		if (percent(measured[0], budget[0]) > 100 + timeMargin
+				&& measured[0] - budget[0] > TIME_SLACK_MICROS) {
+			return "time " + measured[0] + " us is over budget " + budget[0] + " us";
+		}
+		if (percent(measured[1], budget[1]) > 100 + allocationMargin) {
+			return "allocation " + measured[1] + " B is over budget " + budget[1] + " B";
+		}
+		return null;
+	}
+
+	private static double percent(long measured, long budget) {
+		return budget == 0 ? (measured == 0 ? 100 : Double.POSITIVE_INFINITY) : 100.0 * measured
+				/ budget;
+	}
+
+	/**
+	 * Describe the first line in which given codes differ.
+	 *
+	 * @param expected
+	 * @param actual
+	 * @return
+	 */
+	private static String difference(String expected, String actual) {
+		String[] expectedLines = expected.split("\n", -1);
+		String[] actualLines = actual.split("\n", -1);
+		int line = 0;
+		while (line < expectedLines.length && line < actualLines.length
+				&& expectedLines[line].equals(actualLines[line])) {
+			line++;
+		}
+		return "at line " + (line + 1) + ": expected \""
+				+ (line < expectedLines.length ? expectedLines[line] : "<end>") + "\", got \""
+				+ (line < actualLines.length ? actualLines[line] : "<end>") + "\"";
+	}
+
+	/**
+	 * Read budgets from file, if it exists.
+	 *
+	 * @return time and allocation by program name
+	 * @throws IOException
+	 */
+	static Map<String, long[]> readBudgets() throws IOException {
+		Map<String, long[]> budgets = new LinkedHashMap<String, long[]>();
+		if (!Files.exists(BUDGETS)) {
+			return budgets;
+		}
+		for (String line : Files.readAllLines(BUDGETS, CHARSET)) {
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			String[] fields = line.split("\t");
+			budgets.put(fields[0], new long[] { Long.parseLong(fields[1]), Long.parseLong(fields[2]) });
+		}
+		return budgets;
+	}
+
+	static void writeBudgets(Map<String, long[]> budgets) throws IOException {
+		StringBuilder sb = new StringBuilder("# program\tmicroseconds\tallocated bytes\n");
+		for (Map.Entry<String, long[]> budget : budgets.entrySet()) {
+			sb.append(budget.getKey()).append('\t').append(budget.getValue()[0]).append('\t')
+					.append(budget.getValue()[1]).append('\n');
+		}
+		Files.write(BUDGETS, sb.toString().getBytes(CHARSET));
+	}
+
+	public static void main(String[] args) throws Exception {
+		double timeMargin = 50;
+		double allocationMargin = 10;
+		int warmups = 3;
+		int rounds = 5;
+		boolean update = false;
+		List<String> names = new ArrayList<String>();
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-t") && i + 1 < args.length) {
+				timeMargin = Double.parseDouble(args[++i]);
+			} else if (args[i].equals("-a") && i + 1 < args.length) {
+				allocationMargin = Double.parseDouble(args[++i]);
+			} else if (args[i].equals("-w") && i + 1 < args.length) {
+				warmups = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-r") && i + 1 < args.length) {
+				rounds = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-update")) {
+				update = true;
+			} else {
+				names.add(args[i]);
+			}
+		}
+		if (names.isEmpty()) {
+			names = programs();
+		}
+
+		GoldenCheck check = new GoldenCheck(timeMargin, allocationMargin, warmups, rounds);
+		Map<String, long[]> budgets = readBudgets();
+		Map<String, String> failures = new LinkedHashMap<String, String>();
+		Map<String, byte[]> programs = new LinkedHashMap<String, byte[]>();
+		for (String name : names) {
+			try {
+				byte[] program = program(name);
+				if (update) {
+					check.update(name, program);
+				} else {
+					String failure = check.verify(name, program);
+					if (failure != null) {
+						failures.put(name, failure);
+						continue;
+					}
+				}
+				programs.put(name, program);
+			} catch (Exception e) {
+				failures.put(name, e.toString());
+			}
+		}
+
+		Map<String, long[]> measured = check.measure(programs);
+		for (Map.Entry<String, long[]> entry : measured.entrySet()) {
+			String name = entry.getKey();
+			if (update) {
+				System.out.printf("%-24s %10d us %14d B%n", name, entry.getValue()[0],
+						entry.getValue()[1]);
+				budgets.put(name, entry.getValue());
+			} else {
+				String failure = check.compare(name, entry.getValue(), budgets.get(name));
+				if (failure != null) {
+					failures.put(name, failure);
+				}
+			}
+		}
+		if (update) {
+			writeBudgets(budgets);
+		}
+
+		System.out.println();
+		for (Map.Entry<String, String> failure : failures.entrySet()) {
+			System.out.println(failure.getKey() + ": " + failure.getValue());
+		}
+		System.out.println((names.size() - failures.size()) + " of " + names.size() + " programs "
+				+ (update ? "updated." : "passed."));
+		if (!failures.isEmpty()) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Writer which drops carriage returns, so that code generated with any line separator has
+	 * the same golden code.
+	 */
+	private static class LineWriter extends FilterWriter {
+
+		public LineWriter(Writer out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int c) throws IOException {
+			if (c != '\r') {
+				out.write(c);
+			}
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			int start = off;
+			for (int i = off; i < off + len; i++) {
+				if (cbuf[i] == '\r') {
+					out.write(cbuf, start, i - start);
+					start = i + 1;
+				}
+			}
+			out.write(cbuf, start, off + len - start);
+		}
+
+		@Override
+		public void write(String str, int off, int len) throws IOException {
+			int start = off;
+			for (int i = off; i < off + len; i++) {
+				if (str.charAt(i) == '\r') {
+					out.write(str, start, i - start);
+					start = i + 1;
+				}
+			}
+			out.write(str, start, off + len - start);
+		}
+
+	}
+
+}
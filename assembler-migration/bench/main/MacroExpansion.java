@@ -0,0 +1,31 @@
+package main;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Throughput of macro expansion in expanded macro calls per second, for "nestedmacro.asm" (macro
+ * which calls another macro) scaled to given size.
+ *
+ * @author Nikola Trkulja
+ * @author Igor Let
+ */
+public class MacroExpansion extends Benchmark {
+
+	private Workload workload;
+
+	public MacroExpansion() {
+		super("Parser.injectMacro", "calls");
+	}
+
+	@Override
+	protected void setUp(int size) throws Exception {
+		workload = Workload.scale("nestedmacro.asm", size);
+	}
+
+	@Override
+	protected long invoke() {
+		new Parser(new Scanner(ByteBuffer.wrap(workload.program))).parse(NullWriter.INSTANCE);
+		return workload.macroCalls;
+	}
+
+}
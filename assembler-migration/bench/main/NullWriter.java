@@ -0,0 +1,44 @@
+package main;
+
+import java.io.Writer;
+
+/**
+ * Writer which discards everything, so that benchmarks measure only generation of code.
+ *
+ * @author Nikola Trkulja
+ * @author Igor Let
+ */
+final class NullWriter extends Writer {
+
+	static final NullWriter INSTANCE = new NullWriter();
+
+	private long count;
+
+	@Override
+	public void write(char[] cbuf, int off, int len) {
+		count += len;
+	}
+
+	@Override
+	public void write(String str, int off, int len) {
+		count += len;
+	}
+
+	@Override
+	public void flush() {
+	}
+
+	@Override
+	public void close() {
+	}
+
+	/**
+	 * Get number of characters written, so that writing can not be optimized away.
+	 *
+	 * @return
+	 */
+	long getCount() {
+		return count;
+	}
+
+}
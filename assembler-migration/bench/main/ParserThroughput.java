@@ -0,0 +1,67 @@
+package main;
+
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Throughput of whole translation ({@link Parser#parse(Writer)} of program read by
+ * {@link Scanner}) in input lines per second, over all sample programs scaled to given size, or
+ * over program made by {@link ProgramGenerator} with given number of labels. Generated code is
+ * discarded, so only translation is measured. With pipeline, scanner runs on its own thread in
+ * {@link TokenPipeline}, so the difference to the same benchmark without it is the share of
+ * scanning which pipeline takes off parser thread.
+ *
+ * @author Nikola Trkulja
+ * @author Igor Let
+ */
+public class ParserThroughput extends Benchmark {
+
+	private final boolean generated;
+	private final boolean pipeline;
+	private List<Workload> workloads;
+
+	/**
+	 * @param generated true if program is made by generator instead of samples
+	 */
+	public ParserThroughput(boolean generated) {
+		this(generated, false);
+	}
+
+	/**
+	 * @param generated true if program is made by generator instead of samples
+	 * @param pipeline true if program is scanned by {@link TokenPipeline}
+	 */
+	public ParserThroughput(boolean generated, boolean pipeline) {
+		super((pipeline ? "Pipeline" : "Parser") + (generated ? ".generated" : ".parse"), "lines");
+		this.generated = generated;
+		this.pipeline = pipeline;
+	}
+
+	@Override
+	protected void setUp(int size) throws Exception {
+		workloads = new ArrayList<Workload>();
+		if (generated) {
+			ProgramGenerator generator = new ProgramGenerator();
+			generator.setLabels(size);
+			workloads.add(Workload.generate(generator));
+			return;
+		}
+		for (String sample : Workload.samples()) {
+			workloads.add(Workload.scale(sample, size));
+		}
+	}
+
+	@Override
+	protected long invoke() {
+		long lines = 0;
+		for (Workload workload : workloads) {
+			Scanner scanner = new Scanner(ByteBuffer.wrap(workload.program));
+			new Parser(pipeline ? new TokenPipeline(scanner) : scanner).parse(NullWriter.INSTANCE);
+			lines += workload.lines;
+		}
+		return lines;
+	}
+
+}
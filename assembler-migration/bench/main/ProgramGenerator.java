@@ -0,0 +1,454 @@
+package main;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Generator of synthetic assembler programs for benchmarks and stress tests, much larger than the
+ * samples. Generated programs follow the grammar (see "src/doc/grammar.txt") and are accepted by
+ * {@link Parser}: data section with variables, arrays and strings, macros with parameters (which
+ * call other macros up to given depth), procedures, and code divided by labels, with jumps, loops,
+ * calls of procedures and macros, and mix of byte and word registers.
+ * <p>
+ * Program depends only on options and seed, the same options always give the same program. Program
+ * is written as it is generated and nothing but options is kept in memory, so programs of any size
+ * can be generated. Size of program is about (labels + procedures) * statements lines.
+ *
+ * <pre>
+ * java -cp bin main.ProgramGenerator [-seed n] [-labels n] [-statements n] [-procedures n]
+ *     [-macros n] [-params n] [-depth n] [-variables n] [-arrays n] [-array-length n] [-strings n]
+ *     [-string-length n] [-jumps p] [-calls p] [-bytes p] [output.asm]
+ * </pre>
+ *
+ * Probabilities (p) are between 0 and 1. Without output file program is written to standard output.
+ *
+ * @author Nikola Trkulja
+ * @author Igor Let
+ */
+public class ProgramGenerator {
+
+	private static final String[] WORD_REGISTERS = { "ax", "bx", "cx", "dx", "si", "di", "bp" };
+	private static final String[] BYTE_REGISTERS = { "al", "ah", "bl", "bh", "cl", "ch", "dl", "dh" };
+	private static final String[] ARITHMETIC = { "mov", "add", "sub", "cmp", "mov", "xchg" };
+	// parser can not translate neg (result is assigned to constant), so it is not generated
+	private static final String[] UNARY = { "inc", "dec" };
+	private static final String[] JUMPS = { "jmp", "ja", "jae", "jb", "jbe", "jg", "jge", "jl",
+			"jle", "je", "loop" };
+
+	/**
+	 * Number of statements of macro, besides call of nested macro.
+	 */
+	private static final int MACRO_STATEMENTS = 4;
+
+	private long seed;
+	private int labels = 100;
+	private int statements = 20;
+	private int procedures = 10;
+	private int macros = 6;
+	private int params = 2;
+	private int depth = 3;
+	private int variables = 10;
+	private int arrays = 4;
+	private int arrayLength = 16;
+	private int strings = 2;
+	private int stringLength = 12;
+	private double jumps = 0.1;
+	private double calls = 0.05;
+	private double bytes = 0.5;
+
+	private Random random;
+	private Writer out;
+
+	/**
+	 * Write program to given writer. Writer is flushed, but not closed.
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	public void generate(Writer out) throws IOException {
+		this.out = out;
+		random = new Random(seed);
+		line("title generated");
+		line(".model small");
+		line(".stack 100h");
+		data();
+		line(".code");
+		for (int i = 0; i < macros; i++) {
+			macro(i);
+		}
+		for (int i = 0; i < procedures; i++) {
+			procedure(i);
+		}
+		line("mov ax, @data");
+		line("mov ds, ax");
+		for (int i = 0; i < labels; i++) {
+			line("l" + i + ":");
+			for (int j = 0; j < statements; j++) {
+				statement(true);
+			}
+		}
+		line("mov ah, 4ch");
+		line("int 21h");
+		line("end " + (labels > 0 ? "l0" : ""));
+		out.flush();
+	}
+
+	private void data() throws IOException {
+		line(".data");
+		for (int i = 0; i < variables; i++) {
+			if (isByte(i)) {
+				line("b" + i + " db " + random.nextInt(256));
+			} else {
+				line("w" + i + " dw " + random.nextInt(65536));
+			}
+		}
+		for (int i = 0; i < arrays; i++) {
+			StringBuilder sb = new StringBuilder();
+			sb.append('a').append(i).append(isByte(i) ? " db " : " dw ");
+			for (int j = 0; j < arrayLength; j++) {
+				if (j > 0) {
+					sb.append(", ");
+				}
+				sb.append(random.nextInt(isByte(i) ? 256 : 65536));
+			}
+			line(sb.toString());
+		}
+		for (int i = 0; i < strings; i++) {
+			StringBuilder sb = new StringBuilder();
+			sb.append('s').append(i).append(" db \"");
+			for (int j = 0; j < stringLength; j++) {
+				sb.append((char) ('a' + random.nextInt(26)));
+			}
+			line(sb.append('"').toString());
+		}
+	}
+
+	/**
+	 * Macro with given index. Macros with even index work on word registers, the others on byte
+	 * registers, and every macro calls the previous one unless it is the first in chain of given
+	 * depth.
+	 *
+	 * @param index
+	 * @throws IOException
+	 */
+	private void macro(int index) throws IOException {
+		boolean byteSize = index % 2 == 1;
+		StringBuilder sb = new StringBuilder();
+		sb.append('m').append(index).append(" macro");
+		for (int i = 0; i < params; i++) {
+			sb.append(i == 0 ? " " : ", ").append('q').append(i);
+		}
+		line(sb.toString());
+		for (int i = 0; i < MACRO_STATEMENTS; i++) {
+			String first = params > 0 ? "q" + random.nextInt(params) : register(byteSize);
+			String second = params > 1 ? "q" + random.nextInt(params) : register(byteSize);
+			int kind = random.nextInt(3);
+			if (kind == 0) {
+				line(UNARY[random.nextInt(UNARY.length)] + " " + first);
+			} else if (kind == 1) {
+				line(ARITHMETIC[random.nextInt(ARITHMETIC.length - 1)] + " " + first + ", "
+						+ random.nextInt(byteSize ? 256 : 65536));
+			} else {
+				line(ARITHMETIC[random.nextInt(ARITHMETIC.length)] + " " + first + ", " + second);
+			}
+		}
+		if (depth > 1 && index % depth != 0 && index > 0) {
+			macroCall(index - 1, byteSize == ((index - 1) % 2 == 1));
+		}
+		line("endm");
+	}
+
+	/**
+	 * Call macro with given index, passing parameters of calling macro if they have the same size.
+	 *
+	 * @param index
+	 * @param passParams
+	 * @throws IOException
+	 */
+	private void macroCall(int index, boolean passParams) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		sb.append('m').append(index);
+		for (int i = 0; i < params; i++) {
+			sb.append(i == 0 ? " " : ", ").append(
+					passParams ? "q" + i : register(index % 2 == 1));
+		}
+		line(sb.toString());
+	}
+
+	private void procedure(int index) throws IOException {
+		line("p" + index + " proc");
+		for (int i = 0; i < statements; i++) {
+			statement(false);
+		}
+		line("ret");
+		line("p" + index + " endp");
+	}
+
+	/**
+	 * Random statement. Jumps are generated only in main code, because labels are there.
+	 *
+	 * @param main
+	 * @throws IOException
+	 */
+	private void statement(boolean main) throws IOException {
+		double choice = random.nextDouble();
+		if (main && labels > 0 && choice < jumps) {
+			line(JUMPS[random.nextInt(JUMPS.length)] + " l" + random.nextInt(labels));
+			return;
+		}
+		choice = random.nextDouble();
+		if (choice < calls) {
+			if (macros > 0 && (procedures == 0 || random.nextBoolean())) {
+				macroCall(random.nextInt(macros), false);
+			} else if (procedures > 0) {
+				line("call p" + random.nextInt(procedures));
+			}
+			return;
+		}
+
+		boolean byteSize = random.nextDouble() < bytes;
+		String register = register(byteSize);
+		switch (random.nextInt(8)) {
+		case 0:
+			line(UNARY[random.nextInt(UNARY.length)] + " " + register);
+			break;
+		case 1:
+			line(ARITHMETIC[random.nextInt(ARITHMETIC.length - 1)] + " " + register + ", "
+					+ random.nextInt(byteSize ? 256 : 65536));
+			break;
+		case 2:
+			line(ARITHMETIC[random.nextInt(ARITHMETIC.length)] + " " + register + ", "
+					+ register(byteSize));
+			break;
+		case 3:
+			if (!main || variables == 0) {
+				line("mov " + register + ", " + register(byteSize));
+				break;
+			}
+			String variable = variable(byteSize);
+			if (random.nextBoolean()) {
+				line(ARITHMETIC[random.nextInt(ARITHMETIC.length - 1)] + " " + register + ", "
+						+ variable);
+			} else {
+				line("mov " + variable + ", " + register);
+			}
+			break;
+		case 4:
+			if (arrays == 0) {
+				line("mov " + register + ", " + random.nextInt(byteSize ? 256 : 65536));
+				break;
+			}
+			String element = element(byteSize);
+			if (random.nextBoolean()) {
+				line("mov " + register + ", " + element);
+			} else {
+				line("mov " + element + ", " + register);
+			}
+			break;
+		case 5:
+			// parser accepts only word registers and variables for mul and div
+			line((random.nextBoolean() ? "mul " : "div ") + register(false));
+			break;
+		case 6:
+			String word = register(false);
+			line("push " + word);
+			line("pop " + register(false));
+			break;
+		default:
+			line("mov ah, 2");
+			line("mov dl, " + (32 + random.nextInt(95)));
+			line("int 21h");
+			break;
+		}
+	}
+
+	private String register(boolean byteSize) {
+		return byteSize ? BYTE_REGISTERS[random.nextInt(BYTE_REGISTERS.length)]
+				: WORD_REGISTERS[random.nextInt(WORD_REGISTERS.length)];
+	}
+
+	/**
+	 * Random variable of given size, or register if there is no such variable.
+	 *
+	 * @param byteSize
+	 * @return
+	 */
+	private String variable(boolean byteSize) {
+		int i = random.nextInt(variables);
+		if (isByte(i) != byteSize) {
+			i = i + 1 < variables ? i + 1 : i - 1;
+		}
+		if (i < 0 || isByte(i) != byteSize) {
+			return register(byteSize);
+		}
+		return (byteSize ? "b" : "w") + i;
+	}
+
+	/**
+	 * Random element of array of given size, indexed by register or number, or register if there is
+	 * no such array.
+	 *
+	 * @param byteSize
+	 * @return
+	 */
+	private String element(boolean byteSize) {
+		int i = random.nextInt(arrays);
+		if (isByte(i) != byteSize) {
+			i = i + 1 < arrays ? i + 1 : i - 1;
+		}
+		if (i < 0 || isByte(i) != byteSize) {
+			return register(byteSize);
+		}
+		switch (random.nextInt(3)) {
+		case 0:
+			return "a" + i + "[" + random.nextInt(arrayLength) + "]";
+		case 1:
+			return "a" + i + "[si]";
+		default:
+			return "a" + i + "[bx+si+" + random.nextInt(arrayLength) + "]";
+		}
+	}
+
+	private static boolean isByte(int index) {
+		return index % 2 == 0;
+	}
+
+	private void line(String line) throws IOException {
+		out.write(line);
+		out.write('\n');
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	public void setLabels(int labels) {
+		this.labels = labels;
+	}
+
+	public void setStatements(int statements) {
+		this.statements = statements;
+	}
+
+	public void setProcedures(int procedures) {
+		this.procedures = procedures;
+	}
+
+	public void setMacros(int macros) {
+		this.macros = macros;
+	}
+
+	public void setParams(int params) {
+		this.params = params;
+	}
+
+	public void setDepth(int depth) {
+		this.depth = depth;
+	}
+
+	public void setVariables(int variables) {
+		this.variables = variables;
+	}
+
+	public void setArrays(int arrays) {
+		this.arrays = arrays;
+	}
+
+	public void setArrayLength(int arrayLength) {
+		this.arrayLength = arrayLength;
+	}
+
+	public void setStrings(int strings) {
+		this.strings = strings;
+	}
+
+	public void setStringLength(int stringLength) {
+		this.stringLength = stringLength;
+	}
+
+	/**
+	 * @param jumps probability that statement of main code is jump
+	 */
+	public void setJumps(double jumps) {
+		this.jumps = jumps;
+	}
+
+	/**
+	 * @param calls probability that statement is call of procedure or macro
+	 */
+	public void setCalls(double calls) {
+		this.calls = calls;
+	}
+
+	/**
+	 * @param bytes probability that statement uses byte registers instead of word registers
+	 */
+	public void setBytes(double bytes) {
+		this.bytes = bytes;
+	}
+
+	public static void main(String[] args) throws IOException {
+		ProgramGenerator generator = new ProgramGenerator();
+		String output = null;
+		for (int i = 0; i < args.length; i++) {
+			String option = args[i];
+			if (!option.startsWith("-") || i + 1 == args.length) {
+				output = option;
+				continue;
+			}
+			String value = args[++i];
+			if (option.equals("-seed")) {
+				generator.setSeed(Long.parseLong(value));
+			} else if (option.equals("-labels")) {
+				generator.setLabels(Integer.parseInt(value));
+			} else if (option.equals("-statements")) {
+				generator.setStatements(Integer.parseInt(value));
+			} else if (option.equals("-procedures")) {
+				generator.setProcedures(Integer.parseInt(value));
+			} else if (option.equals("-macros")) {
+				generator.setMacros(Integer.parseInt(value));
+			} else if (option.equals("-params")) {
+				generator.setParams(Integer.parseInt(value));
+			} else if (option.equals("-depth")) {
+				generator.setDepth(Integer.parseInt(value));
+			} else if (option.equals("-variables")) {
+				generator.setVariables(Integer.parseInt(value));
+			} else if (option.equals("-arrays")) {
+				generator.setArrays(Integer.parseInt(value));
+			} else if (option.equals("-array-length")) {
+				generator.setArrayLength(Integer.parseInt(value));
+			} else if (option.equals("-strings")) {
+				generator.setStrings(Integer.parseInt(value));
+			} else if (option.equals("-string-length")) {
+				generator.setStringLength(Integer.parseInt(value));
+			} else if (option.equals("-jumps")) {
+				generator.setJumps(Double.parseDouble(value));
+			} else if (option.equals("-calls")) {
+				generator.setCalls(Double.parseDouble(value));
+			} else if (option.equals("-bytes")) {
+				generator.setBytes(Double.parseDouble(value));
+			} else {
+				System.err.println("Unknown option: " + option);
+				System.exit(1);
+			}
+		}
+
+		Charset ascii = Charset.forName("US-ASCII");
+		Writer out = output == null ? new BufferedWriter(new OutputStreamWriter(System.out, ascii),
+				1 << 16) : Files.newBufferedWriter(Paths.get(output), ascii);
+		try {
+			generator.generate(out);
+		} finally {
+			if (output != null) {
+				out.close();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,83 @@
+package main;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Microbenchmark measuring cost of scanning identifiers. Generates register heavy assembler file
+ * and reports average time needed for one name (keyword, register or identifier) token. Then
+ * compares the shortest times of tokenizing whole file sequentially and in parallel (see
+ * {@link Scanner#tokenizeParallel()}), and reports speedup and parallelism of common pool. File is
+ * split into one chunk per megabyte, up to four chunks per thread of the pool, so the default file
+ * of about 11 MB is large enough for two threads.
+ * 
+ * <pre>
+ * java -cp bin main.ScannerBenchmark [lines] [runs]
+ * </pre>
+ * 
+ * @author Nikola Trkulja
+ * @author Igor Let
+ */
+public class ScannerBenchmark extends AbstractCompiler {
+
+	private static final String[] LINES = { "mov ax, bx", "MOV CL, DL", "xchg si, di",
+			"add ax, counter", "Sub Bh, Al", "cmp es, ds", "mov sp, bp", "inc cx", "push dx",
+			"pop ss", "xchg ah, ch", "mov value, si" };
+
+	public static void main(String[] args) throws IOException {
+		int lines = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int runs = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+		File file = File.createTempFile("registers", ".asm");
+		file.deleteOnExit();
+		PrintWriter out = new PrintWriter(new FileWriter(file));
+		for (int i = 0; i < lines; i++) {
+			out.println(LINES[i % LINES.length]);
+		}
+		out.close();
+
+		for (int run = 0; run < runs; run++) {
+			long start = System.nanoTime();
+			int names = 0;
+			int tokens = 0;
+			Scanner scanner = new Scanner(file.getPath());
+			for (Token token = scanner.next(); token.code != none; token = scanner.next()) {
+				if (token.code == ident || token.code >= interr && token.code <= es) {
+					names++;
+				}
+				tokens++;
+			}
+			long time = System.nanoTime() - start;
+			System.out.printf("run %2d: %d tokens, %d names, %.1f ns/token, %.1f ns/name%n", run,
+					tokens, names, (double) time / tokens, (double) time / names);
+		}
+
+		long sequential = Long.MAX_VALUE;
+		long parallel = Long.MAX_VALUE;
+		int tokens = 0;
+		for (int run = 0; run < runs; run++) {
+			long start = System.nanoTime();
+			Scanner scanner = new Scanner(file.toPath());
+			tokens = scanner.tokenize().size();
+			scanner.close();
+			sequential = Math.min(sequential, System.nanoTime() - start);
+
+			start = System.nanoTime();
+			scanner = new Scanner(file.toPath());
+			int parallelTokens = scanner.tokenizeParallel().size();
+			scanner.close();
+			parallel = Math.min(parallel, System.nanoTime() - start);
+			if (parallelTokens != tokens) {
+				throw new IllegalStateException("parallel tokenizing gave " + parallelTokens
+						+ " tokens instead of " + tokens);
+			}
+		}
+		System.out.printf("tokenize: %d tokens, sequential %.1f ms, parallel %.1f ms, "
+				+ "speedup %.2f, parallelism %d%n", tokens, sequential / 1e6, parallel / 1e6,
+				(double) sequential / parallel, ForkJoinPool.getCommonPoolParallelism());
+	}
+
+}
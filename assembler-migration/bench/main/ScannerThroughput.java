@@ -0,0 +1,42 @@
+package main;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Throughput of {@link Scanner#next()} in tokens per second, over all sample programs scaled to
+ * given size.
+ *
+ * @author Nikola Trkulja
+ * @author Igor Let
+ */
+public class ScannerThroughput extends Benchmark {
+
+	private List<Workload> workloads;
+
+	public ScannerThroughput() {
+		super("Scanner.next", "tokens");
+	}
+
+	@Override
+	protected void setUp(int size) throws Exception {
+		workloads = new ArrayList<Workload>();
+		for (String sample : Workload.samples()) {
+			workloads.add(Workload.scale(sample, size));
+		}
+	}
+
+	@Override
+	protected long invoke() {
+		long tokens = 0;
+		for (Workload workload : workloads) {
+			Scanner scanner = new Scanner(ByteBuffer.wrap(workload.program));
+			while (scanner.next().code != AbstractCompiler.none) {
+				tokens++;
+			}
+		}
+		return tokens;
+	}
+
+}
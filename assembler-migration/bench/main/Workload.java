@@ -0,0 +1,200 @@
+package main;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Input program of benchmark, made by scaling one of the sample programs, or by
+ * {@link ProgramGenerator}. When scaling, statements of code section are repeated given number of
+ * times, macros and procedures are defined only once, and labels are renamed in every copy
+ * (together with jumps to them) so that scaled program is still valid.
+ *
+ * @author Nikola Trkulja
+ * @author Igor Let
+ */
+final class Workload {
+
+	static final Path SAMPLES = Paths.get("src/asm");
+
+	private static final Pattern LABEL = Pattern.compile("^\\s*(\\w+)\\s*:");
+	private static final Pattern WORD = Pattern.compile("\\w+");
+
+	final String name;
+	final byte[] program;
+	final int lines;
+	final int macroCalls;
+
+	private Workload(String name, byte[] program, int lines, int macroCalls) {
+		this.name = name;
+		this.program = program;
+		this.lines = lines;
+		this.macroCalls = macroCalls;
+	}
+
+	/**
+	 * Get names of all sample programs.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	static List<String> samples() throws IOException {
+		List<String> names = new ArrayList<String>();
+		DirectoryStream<Path> stream = Files.newDirectoryStream(SAMPLES, "*.asm");
+		try {
+			for (Path file : stream) {
+				names.add(file.getFileName().toString());
+			}
+		} finally {
+			stream.close();
+		}
+		Collections.sort(names);
+		return names;
+	}
+
+	/**
+	 * Scale sample program with given name.
+	 *
+	 * @param sample
+	 * @param copies number of copies of statements
+	 * @return
+	 * @throws IOException
+	 */
+	static Workload scale(String sample, int copies) throws IOException {
+		List<String> source = Files.readAllLines(SAMPLES.resolve(sample), Charset.forName("UTF-8"));
+		int code = 0;
+		while (!first(source.get(code)).equals(".code")) {
+			code++;
+		}
+		int end = source.size() - 1;
+		while (!first(source.get(end)).equals("end")) {
+			end--;
+		}
+
+		// split code section into definitions (macros and procedures) and statements
+		List<String> statements = new ArrayList<String>();
+		Set<String> macros = new HashSet<String>();
+		Set<String> labels = new HashSet<String>();
+		StringBuilder head = new StringBuilder();
+		String closing = null;
+		for (int i = 0; i <= code; i++) {
+			head.append(source.get(i)).append('\n');
+		}
+		for (int i = code + 1; i < end; i++) {
+			String line = source.get(i);
+			String second = second(line);
+			if (closing == null && (second.equals("macro") || second.equals("proc"))) {
+				closing = second.equals("macro") ? "endm" : "endp";
+				if (second.equals("macro")) {
+					macros.add(first(line));
+				}
+			}
+			if (closing != null) {
+				head.append(line).append('\n');
+				if (first(line).equals(closing) || second.equals(closing)) {
+					closing = null;
+				}
+				continue;
+			}
+			Matcher label = LABEL.matcher(line);
+			if (label.find()) {
+				labels.add(label.group(1).toLowerCase(Locale.ENGLISH));
+			}
+			statements.add(line);
+		}
+
+		StringBuilder sb = new StringBuilder(head);
+		int calls = 0;
+		for (int copy = 0; copy < copies; copy++) {
+			for (String line : statements) {
+				if (macros.contains(first(line))) {
+					calls++;
+				}
+				sb.append(copy == 0 ? line : rename(line, labels, copy)).append('\n');
+			}
+		}
+		for (int i = end; i < source.size(); i++) {
+			sb.append(source.get(i)).append('\n');
+		}
+		byte[] program = sb.toString().getBytes(Charset.forName("UTF-8"));
+		return new Workload(sample + "*" + copies, program, lines(program), calls);
+	}
+
+	/**
+	 * Make program with given generator.
+	 *
+	 * @param generator
+	 * @return
+	 * @throws IOException
+	 */
+	static Workload generate(ProgramGenerator generator) throws IOException {
+		StringWriter out = new StringWriter();
+		generator.generate(out);
+		byte[] program = out.toString().getBytes(Charset.forName("UTF-8"));
+		return new Workload("generated", program, lines(program), 0);
+	}
+
+	private static int lines(byte[] program) {
+		int lines = 0;
+		for (byte b : program) {
+			if (b == '\n') {
+				lines++;
+			}
+		}
+		return lines;
+	}
+
+	/**
+	 * Rename labels used in given line for given copy.
+	 *
+	 * @param line
+	 * @param labels
+	 * @param copy
+	 * @return
+	 */
+	private static String rename(String line, Set<String> labels, int copy) {
+		int comment = line.indexOf(';');
+		String code = comment < 0 ? line : line.substring(0, comment);
+		Matcher word = WORD.matcher(code);
+		StringBuffer sb = new StringBuffer();
+		while (word.find()) {
+			String name = word.group();
+			word.appendReplacement(sb, labels.contains(name.toLowerCase(Locale.ENGLISH)) ? name
+					+ "x" + copy : name);
+		}
+		word.appendTail(sb);
+		return sb.toString();
+	}
+
+	private static String first(String line) {
+		String[] words = words(line);
+		return words.length > 0 ? words[0] : "";
+	}
+
+	private static String second(String line) {
+		String[] words = words(line);
+		return words.length > 1 ? words[1] : "";
+	}
+
+	private static String[] words(String line) {
+		int comment = line.indexOf(';');
+		if (comment >= 0) {
+			line = line.substring(0, comment);
+		}
+		line = line.trim().toLowerCase(Locale.ENGLISH);
+		return line.isEmpty() ? new String[0] : line.split("[\\s,]+");
+	}
+
+}
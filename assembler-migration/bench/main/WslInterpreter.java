@@ -0,0 +1,929 @@
+package main;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Interpreter of the part of WSL which translator generates, so that two translations of the same
+ * program can be compared by what they do instead of by their text. Program is run until it ends
+ * or until given number of statements is executed, and its result is text printed by it and
+ * final values of its variables, without flags and temp (which are left out where they are never
+ * read, so they differ between equivalent translations).
+ * <p>
+ * Action systems have WSL semantics: action which is called returns to the statement after the
+ * call when it ends, and <code>CALL Z</code> ends the whole action system. Call which is the last
+ * statement of action is a jump, so that regular action systems, in which every action ends with a
+ * call, run in constant stack. Numbers are unbounded in WSL, here they are 64bit, which is enough
+ * for values of 16bit registers and their products.
+ *
+ * @author Nikola Trkulja
+ * @author Igor Let
+ */
+public class WslInterpreter {
+
+	private static final Pattern TOKEN = Pattern
+			.compile(":=|<>|<=|>=|\\*\\*|==|[A-Za-z_@][A-Za-z0-9_@]*|\\d+|\\S");
+
+	/**
+	 * Operators of binary expressions.
+	 */
+	private static final String[] OPERATORS = { "OR", "AND", "=", "<>", "<", "<=", ">", ">=", "+",
+			"-", "*", "DIV", "MOD", "**" };
+
+	private final List<String> tokens = new ArrayList<String>();
+	private int pos;
+
+	/**
+	 * Slots of variables by name. Variable is number or, if it is declared as sequence, list.
+	 */
+	private final Map<String, Integer> slots = new HashMap<String, Integer>();
+	private final List<String> names = new ArrayList<String>();
+	private long[] numbers = new long[16];
+	private Object[] lists = new Object[16];
+
+	private final Map<String, List<Statement>> procedures = new HashMap<String, List<Statement>>();
+	private final List<Statement> main;
+	private final StringBuilder output = new StringBuilder();
+	private long steps;
+	private long limit;
+
+	/**
+	 * Number of calls of procedures and actions which have not returned. Limit of it ends programs
+	 * whose recursion does not end, like limit of statements ends their loops.
+	 */
+	private int depth;
+	private static final int MAX_DEPTH = 1000;
+
+	/**
+	 * Parse given program.
+	 *
+	 * @param program
+	 * @throws IllegalArgumentException if program is not valid
+	 */
+	public WslInterpreter(String program) {
+		Matcher matcher = TOKEN.matcher(program);
+		while (matcher.find()) {
+			tokens.add(matcher.group());
+		}
+		main = program();
+	}
+
+	/**
+	 * Run program from the start, until it ends or executes given number of statements.
+	 *
+	 * @param limit
+	 * @return result of program, or null if it did not end
+	 */
+	public String run(long limit) {
+		this.limit = limit;
+		steps = 0;
+		depth = 0;
+		output.setLength(0);
+		try {
+			execute(main, null);
+		} catch (LimitException e) {
+			return null;
+		}
+		StringBuilder sb = new StringBuilder("output ").append(output).append('\n');
+		Map<String, Integer> sorted = new TreeMap<String, Integer>(slots);
+		for (Map.Entry<String, Integer> variable : sorted.entrySet()) {
+			String name = variable.getKey();
+			if (name.startsWith("flag_") || name.equals("temp")) {
+				continue;
+			}
+			Object list = lists[variable.getValue()];
+			sb.append(name).append(" = ")
+					.append(list != null ? list : Long.valueOf(numbers[variable.getValue()]))
+					.append('\n');
+		}
+		return sb.toString();
+	}
+
+	// parser
+
+	private String peek(int offset) {
+		return pos + offset < tokens.size() ? tokens.get(pos + offset) : "";
+	}
+
+	private String peek() {
+		return peek(0);
+	}
+
+	private String next() {
+		if (pos == tokens.size()) {
+			throw new IllegalArgumentException("Unexpected end of program");
+		}
+		return tokens.get(pos++);
+	}
+
+	private void expect(String token) {
+		String actual = next();
+		if (!actual.equals(token)) {
+			throw new IllegalArgumentException("Expected " + token + " instead of " + actual
+					+ " at token " + pos);
+		}
+	}
+
+	private int slot(String name) {
+		Integer slot = slots.get(name);
+		if (slot == null) {
+			slot = names.size();
+			slots.put(name, slot);
+			names.add(name);
+			if (slot == numbers.length) {
+				long[] grownNumbers = new long[slot * 2];
+				System.arraycopy(numbers, 0, grownNumbers, 0, slot);
+				numbers = grownNumbers;
+				Object[] grownLists = new Object[slot * 2];
+				System.arraycopy(lists, 0, grownLists, 0, slot);
+				lists = grownLists;
+			}
+		}
+		return slot;
+	}
+
+	/**
+	 * Parse program: declarations of variables, action system of body and procedures.
+	 *
+	 * @return
+	 */
+	private List<Statement> program() {
+		expect("VAR");
+		expect("<");
+		do {
+			int slot = slot(next());
+			expect(":=");
+			if (peek().equals("<")) {
+				next();
+				List<Long> list = new ArrayList<Long>();
+				while (!peek().equals(">")) {
+					list.add(expression().evaluate(this));
+					if (peek().equals(",")) {
+						next();
+					}
+				}
+				next();
+				lists[slot] = list;
+			} else {
+				numbers[slot] = expression().evaluate(this);
+			}
+		} while (peek().equals(",") && next() != null);
+		expect(">");
+		expect(":");
+		boolean begin = peek().equals("BEGIN");
+		if (begin) {
+			next();
+		}
+		List<Statement> body = new ArrayList<Statement>();
+		body.add(actions());
+		if (peek().equals("WHERE")) {
+			next();
+			while (peek().equals("PROC")) {
+				next();
+				String name = next();
+				expect("(");
+				expect(")");
+				expect("==");
+				procedures.put(name, statements("END"));
+				expect("END");
+			}
+		}
+		if (begin) {
+			expect("END");
+		}
+		expect("ENDVAR");
+		return body;
+	}
+
+	private Actions actions() {
+		expect("ACTIONS");
+		Actions actions = new Actions(next());
+		expect(":");
+		while (!peek().equals("ENDACTIONS")) {
+			String name = next();
+			expect("==");
+			List<Statement> body = statements("END");
+			expect("END");
+			markTailCalls(body);
+			actions.actions.put(name, body);
+		}
+		next();
+		return actions;
+	}
+
+	/**
+	 * Mark calls after which action has nothing more to do.
+	 *
+	 * @param body
+	 */
+	private static void markTailCalls(List<Statement> body) {
+		if (body.isEmpty()) {
+			return;
+		}
+		Statement last = body.get(body.size() - 1);
+		if (last instanceof Call) {
+			((Call) last).tail = true;
+		} else if (last instanceof If) {
+			for (List<Statement> branch : ((If) last).branches) {
+				markTailCalls(branch);
+			}
+		}
+	}
+
+	private List<Statement> statements(String... ends) {
+		List<Statement> ret = new ArrayList<Statement>();
+		while (true) {
+			for (String end : ends) {
+				if (peek().equals(end)) {
+					return ret;
+				}
+			}
+			ret.add(statement());
+			if (peek().equals(";")) {
+				next();
+			}
+		}
+	}
+
+	private Statement statement() {
+		String token = peek();
+		if (token.equals("IF")) {
+			next();
+			If statement = new If();
+			statement.conditions.add(expression());
+			expect("THEN");
+			statement.branches.add(statements("ELSIF", "ELSE", "FI"));
+			while (peek().equals("ELSIF")) {
+				next();
+				statement.conditions.add(expression());
+				expect("THEN");
+				statement.branches.add(statements("ELSIF", "ELSE", "FI"));
+			}
+			if (peek().equals("ELSE")) {
+				next();
+				statement.branches.add(statements("FI"));
+			}
+			expect("FI");
+			return statement;
+		} else if (token.equals("WHILE")) {
+			next();
+			Expression condition = expression();
+			expect("DO");
+			Loop loop = new Loop(condition, statements("OD"));
+			expect("OD");
+			return loop;
+		} else if (token.equals("DO")) {
+			next();
+			Loop loop = new Loop(null, statements("OD"));
+			expect("OD");
+			return loop;
+		} else if (token.equals("EXIT")) {
+			next();
+			int levels = 1;
+			if (peek().equals("(")) {
+				next();
+				levels = Integer.parseInt(next());
+				expect(")");
+			}
+			return new Exit(levels);
+		} else if (token.equals("SKIP")) {
+			next();
+			return new Assignment(new int[0], new Expression[0], new Expression[0]);
+		} else if (token.equals("ACTIONS")) {
+			return actions();
+		} else if (token.equals("CALL")) {
+			next();
+			return new Call(next());
+		} else if (token.equals("PUSH")) {
+			next();
+			expect("(");
+			int stack = slot(next());
+			expect(",");
+			Expression value = expression();
+			expect(")");
+			return new Push(stack, value);
+		} else if (token.equals("POP")) {
+			next();
+			expect("(");
+			int variable = slot(next());
+			expect(",");
+			int stack = slot(next());
+			expect(")");
+			return new Pop(variable, stack);
+		} else if (token.equals("PRINT")) {
+			next();
+			expect("(");
+			Expression value = expression();
+			expect(")");
+			return new Print(value);
+		} else if (peek(1).equals("(")) {
+			String name = next();
+			expect("(");
+			expect(")");
+			return new ProcedureCall(name);
+		}
+		boolean parallel = token.equals("<");
+		if (parallel) {
+			next();
+		}
+		List<Integer> variables = new ArrayList<Integer>();
+		List<Expression> indexes = new ArrayList<Expression>();
+		List<Expression> values = new ArrayList<Expression>();
+		do {
+			variables.add(slot(next()));
+			Expression index = null;
+			if (peek().equals("[")) {
+				next();
+				index = expression();
+				expect("]");
+			}
+			indexes.add(index);
+			expect(":=");
+			values.add(expression());
+		} while (parallel && peek().equals(",") && next() != null);
+		if (parallel) {
+			expect(">");
+		}
+		int[] slots = new int[variables.size()];
+		for (int i = 0; i < slots.length; i++) {
+			slots[i] = variables.get(i);
+		}
+		return new Assignment(slots, indexes.toArray(new Expression[0]),
+				values.toArray(new Expression[0]));
+	}
+
+	private Expression expression() {
+		return binary(0);
+	}
+
+	/**
+	 * Parse binary expression whose operators have at least given precedence: OR, AND, NOT,
+	 * comparison, addition, multiplication, power.
+	 *
+	 * @param level
+	 * @return
+	 */
+	private Expression binary(int level) {
+		switch (level) {
+		case 0:
+		case 1: {
+			Expression left = binary(level + 1);
+			String operator = level == 0 ? "OR" : "AND";
+			while (peek().equals(operator)) {
+				next();
+				left = new Binary(operator, left, binary(level + 1));
+			}
+			return left;
+		}
+		case 2:
+			if (peek().equals("NOT")) {
+				next();
+				return new Binary("NOT", null, binary(2));
+			}
+			return binary(3);
+		case 3: {
+			Expression left = binary(4);
+			String operator = peek();
+			if (operator.equals("=") || operator.equals("<>") || operator.equals("<")
+					|| operator.equals("<=") || operator.equals(">=") || operator.equals(">")
+					&& startsExpression(peek(1))) {
+				next();
+				return new Binary(operator, left, binary(4));
+			}
+			return left;
+		}
+		case 4:
+		case 5: {
+			Expression left = binary(level + 1);
+			while (level == 4 ? peek().equals("+") || peek().equals("-") : peek().equals("*")
+					|| peek().equals("DIV") || peek().equals("MOD")) {
+				String operator = next();
+				left = new Binary(operator, left, binary(level + 1));
+			}
+			return left;
+		}
+		default: {
+			Expression base = unary();
+			if (peek().equals("**")) {
+				next();
+				return new Binary("**", base, binary(6));
+			}
+			return base;
+		}
+		}
+	}
+
+	/**
+	 * Check if given token can start expression, so that ">" which closes parallel assignment is
+	 * not taken for comparison.
+	 *
+	 * @param token
+	 * @return
+	 */
+	private static boolean startsExpression(String token) {
+		if (token.isEmpty()) {
+			return false;
+		}
+		char c = token.charAt(0);
+		return c == '(' || c == '-' || Character.isDigit(c) || c == '_' || c == '@'
+				|| Character.isLowerCase(c);
+	}
+
+	private Expression unary() {
+		if (peek().equals("-")) {
+			next();
+			return new Binary("-", new Number(0), unary());
+		}
+		String token = next();
+		if (token.equals("(")) {
+			Expression ret = expression();
+			expect(")");
+			return ret;
+		} else if (Character.isDigit(token.charAt(0))) {
+			return new Number(Long.parseLong(token));
+		} else if (token.equals("@ASCII_To_String")) {
+			expect("(");
+			Expression ret = expression();
+			expect(")");
+			return new Binary("@ASCII_To_String", null, ret);
+		} else if (peek().equals("[")) {
+			next();
+			Expression index = expression();
+			expect("]");
+			return new Element(slot(token), index);
+		}
+		return new Variable(slot(token));
+	}
+
+	// execution
+
+	/**
+	 * Execute given statements in a new call.
+	 *
+	 * @param statements
+	 * @param actions action system in which statements are, or null
+	 */
+	private void call(List<Statement> statements, Actions actions) {
+		if (++depth > MAX_DEPTH) {
+			throw new LimitException();
+		}
+		try {
+			execute(statements, actions);
+		} finally {
+			depth--;
+		}
+	}
+
+	/**
+	 * Execute given statements.
+	 *
+	 * @param statements
+	 * @param actions action system in which statements are, or null
+	 */
+	private void execute(List<Statement> statements, Actions actions) {
+		for (int i = 0; i < statements.size(); i++) {
+			if (++steps > limit) {
+				throw new LimitException();
+			}
+			statements.get(i).execute(this, actions);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<Long> list(int slot) {
+		if (lists[slot] == null) {
+			lists[slot] = new ArrayList<Long>();
+		}
+		return (List<Long>) lists[slot];
+	}
+
+	private abstract static class Statement {
+
+		abstract void execute(WslInterpreter machine, Actions actions);
+
+	}
+
+	private static class Assignment extends Statement {
+
+		private final int[] variables;
+		private final Expression[] indexes;
+		private final Expression[] values;
+		private final long[] results;
+		private final long[] positions;
+
+		Assignment(int[] variables, Expression[] indexes, Expression[] values) {
+			this.variables = variables;
+			this.indexes = indexes;
+			this.values = values;
+			results = new long[variables.length];
+			positions = new long[variables.length];
+		}
+
+		@Override
+		void execute(WslInterpreter machine, Actions actions) {
+			for (int i = 0; i < variables.length; i++) {
+				positions[i] = indexes[i] == null ? 0 : indexes[i].evaluate(machine);
+				results[i] = values[i].evaluate(machine);
+			}
+			for (int i = 0; i < variables.length; i++) {
+				if (indexes[i] == null) {
+					machine.numbers[variables[i]] = results[i];
+				} else {
+					List<Long> list = machine.list(variables[i]);
+					if (positions[i] >= 1 && positions[i] <= list.size()) {
+						list.set((int) positions[i] - 1, results[i]);
+					}
+				}
+			}
+		}
+
+	}
+
+	private static class If extends Statement {
+
+		final List<Expression> conditions = new ArrayList<Expression>();
+		final List<List<Statement>> branches = new ArrayList<List<Statement>>();
+
+		@Override
+		void execute(WslInterpreter machine, Actions actions) {
+			for (int i = 0; i < conditions.size(); i++) {
+				if (conditions.get(i).evaluate(machine) != 0) {
+					machine.execute(branches.get(i), actions);
+					return;
+				}
+			}
+			if (branches.size() > conditions.size()) {
+				machine.execute(branches.get(conditions.size()), actions);
+			}
+		}
+
+	}
+
+	private static class Loop extends Statement {
+
+		private final Expression condition;
+		private final List<Statement> body;
+
+		Loop(Expression condition, List<Statement> body) {
+			this.condition = condition;
+			this.body = body;
+		}
+
+		@Override
+		void execute(WslInterpreter machine, Actions actions) {
+			try {
+				while (condition == null || condition.evaluate(machine) != 0) {
+					if (++machine.steps > machine.limit) {
+						throw new LimitException();
+					}
+					machine.execute(body, actions);
+				}
+			} catch (ExitException e) {
+				if (e.levels > 1) {
+					throw new ExitException(e.levels - 1);
+				}
+			}
+		}
+
+	}
+
+	private static class Exit extends Statement {
+
+		private final int levels;
+
+		Exit(int levels) {
+			this.levels = levels;
+		}
+
+		@Override
+		void execute(WslInterpreter machine, Actions actions) {
+			throw new ExitException(levels);
+		}
+
+	}
+
+	/**
+	 * Action system. Its actions are run until one ends without calling another one (and the
+	 * system ends if it was the first one), or one calls Z.
+	 */
+	private static class Actions extends Statement {
+
+		private final String start;
+		final Map<String, List<Statement>> actions = new HashMap<String, List<Statement>>();
+
+		/**
+		 * Action called by tail call which has just been executed, or null.
+		 */
+		String next;
+
+		Actions(String start) {
+			this.start = start;
+		}
+
+		@Override
+		void execute(WslInterpreter machine, Actions outer) {
+			try {
+				call(machine, start);
+			} catch (TerminateException e) {
+				if (e.actions != this) {
+					throw e;
+				}
+			}
+			next = null;
+		}
+
+		void call(WslInterpreter machine, String name) {
+			while (name != null) {
+				if (name.equals("Z")) {
+					throw new TerminateException(this);
+				}
+				List<Statement> body = actions.get(name);
+				if (body == null) {
+					throw new IllegalArgumentException("No action " + name);
+				}
+				next = null;
+				machine.execute(body, this);
+				name = next;
+				next = null;
+			}
+		}
+
+	}
+
+	private static class Call extends Statement {
+
+		private final String action;
+		boolean tail;
+
+		Call(String action) {
+			this.action = action;
+		}
+
+		@Override
+		void execute(WslInterpreter machine, Actions actions) {
+			if (tail) {
+				actions.next = action;
+			} else {
+				if (++machine.depth > MAX_DEPTH) {
+					throw new LimitException();
+				}
+				try {
+					actions.call(machine, action);
+				} finally {
+					machine.depth--;
+				}
+			}
+		}
+
+	}
+
+	private static class ProcedureCall extends Statement {
+
+		private final String name;
+
+		ProcedureCall(String name) {
+			this.name = name;
+		}
+
+		@Override
+		void execute(WslInterpreter machine, Actions actions) {
+			List<Statement> body = machine.procedures.get(name);
+			if (body == null) {
+				throw new IllegalArgumentException("No procedure " + name);
+			}
+			machine.call(body, null);
+		}
+
+	}
+
+	private static class Push extends Statement {
+
+		private final int stack;
+		private final Expression value;
+
+		Push(int stack, Expression value) {
+			this.stack = stack;
+			this.value = value;
+		}
+
+		@Override
+		void execute(WslInterpreter machine, Actions actions) {
+			machine.list(stack).add(0, value.evaluate(machine));
+		}
+
+	}
+
+	private static class Pop extends Statement {
+
+		private final int variable;
+		private final int stack;
+
+		Pop(int variable, int stack) {
+			this.variable = variable;
+			this.stack = stack;
+		}
+
+		@Override
+		void execute(WslInterpreter machine, Actions actions) {
+			List<Long> list = machine.list(stack);
+			machine.numbers[variable] = list.isEmpty() ? 0 : list.remove(0);
+		}
+
+	}
+
+	private static class Print extends Statement {
+
+		private final Expression value;
+
+		Print(Expression value) {
+			this.value = value;
+		}
+
+		@Override
+		void execute(WslInterpreter machine, Actions actions) {
+			if (value instanceof Binary && ((Binary) value).operator.equals("@ASCII_To_String")) {
+				machine.output.append((char) value.evaluate(machine));
+			} else {
+				machine.output.append(value.evaluate(machine));
+			}
+		}
+
+	}
+
+	private abstract static class Expression {
+
+		abstract long evaluate(WslInterpreter machine);
+
+	}
+
+	private static class Number extends Expression {
+
+		private final long value;
+
+		Number(long value) {
+			this.value = value;
+		}
+
+		@Override
+		long evaluate(WslInterpreter machine) {
+			return value;
+		}
+
+	}
+
+	private static class Variable extends Expression {
+
+		private final int slot;
+
+		Variable(int slot) {
+			this.slot = slot;
+		}
+
+		@Override
+		long evaluate(WslInterpreter machine) {
+			return machine.numbers[slot];
+		}
+
+	}
+
+	/**
+	 * Element of sequence, indexed from 1. Element out of sequence is 0.
+	 */
+	private static class Element extends Expression {
+
+		private final int slot;
+		private final Expression index;
+
+		Element(int slot, Expression index) {
+			this.slot = slot;
+			this.index = index;
+		}
+
+		@Override
+		long evaluate(WslInterpreter machine) {
+			List<Long> list = machine.list(slot);
+			long i = index.evaluate(machine);
+			return i >= 1 && i <= list.size() ? list.get((int) i - 1) : 0;
+		}
+
+	}
+
+	/**
+	 * Operator with one or two operands. Comparisons and logical operators give 1 or 0, DIV and
+	 * MOD round down (and give 0 for divisor 0).
+	 */
+	private static class Binary extends Expression {
+
+		final String operator;
+		private final int code;
+		private final Expression left;
+		private final Expression right;
+
+		Binary(String operator, Expression left, Expression right) {
+			this.operator = operator;
+			int code = -1;
+			for (int i = 0; i < OPERATORS.length; i++) {
+				if (OPERATORS[i].equals(operator)) {
+					code = i;
+				}
+			}
+			this.code = code;
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		long evaluate(WslInterpreter machine) {
+			if (left == null) {
+				long value = right.evaluate(machine);
+				return operator.equals("NOT") ? (value == 0 ? 1 : 0) : Math.floorMod(value, 256);
+			}
+			long a = left.evaluate(machine);
+			switch (code) {
+			case 0:
+				return a != 0 || right.evaluate(machine) != 0 ? 1 : 0;
+			case 1:
+				return a != 0 && right.evaluate(machine) != 0 ? 1 : 0;
+			}
+			long b = right.evaluate(machine);
+			switch (code) {
+			case 2:
+				return a == b ? 1 : 0;
+			case 3:
+				return a != b ? 1 : 0;
+			case 4:
+				return a < b ? 1 : 0;
+			case 5:
+				return a <= b ? 1 : 0;
+			case 6:
+				return a > b ? 1 : 0;
+			case 7:
+				return a >= b ? 1 : 0;
+			case 8:
+				return a + b;
+			case 9:
+				return a - b;
+			case 10:
+				return a * b;
+			case 11:
+				return b == 0 ? 0 : Math.floorDiv(a, b);
+			case 12:
+				return b == 0 ? 0 : Math.floorMod(a, b);
+			case 13:
+				long ret = 1;
+				for (long i = 0; i < b; i++) {
+					ret *= a;
+				}
+				return ret;
+			default:
+				throw new IllegalStateException(operator);
+			}
+		}
+
+	}
+
+	private static class LimitException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		LimitException() {
+			super(null, null, false, false);
+		}
+
+	}
+
+	private static class ExitException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		final int levels;
+
+		ExitException(int levels) {
+			super(null, null, false, false);
+			this.levels = levels;
+		}
+
+	}
+
+	/**
+	 * Thrown by <code>CALL Z</code>, ends given action system.
+	 */
+	private static class TerminateException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		final transient Actions actions;
+
+		TerminateException(Actions actions) {
+			super(null, null, false, false);
+			this.actions = actions;
+		}
+
+	}
+
+}
@@ -0,0 +1,24 @@
+title forward
+
+.model small
+
+.stack 100h
+
+.data
+count dw 3
+.code
+
+start:
+mov ax, 0
+mov cx, count
+
+again:
+cmp cx, 2
+je skip
+add ax, 10
+
+skip:
+add ax, 1
+loop again
+
+end start
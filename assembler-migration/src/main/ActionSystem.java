@@ -0,0 +1,471 @@
+package main;
+
+import java.util.Arrays;
+
+/**
+ * Code of one action system (of program or of procedure), kept until the end of the system so that
+ * its control flow can be recovered. Labels and jumps are not written as code, they are kept as
+ * markers between pieces of code, and when the system ends:
+ * <ul>
+ * <li>backward conditional jump to label becomes <code>DO ... OD</code> loop which starts at the
+ * label and is left with <code>EXIT(1)</code> when jump is not taken,</li>
+ * <li>forward conditional jump to label becomes <code>IF NOT (...) THEN ... FI</code> which ends at
+ * the label,</li>
+ * <li>label which is target of no other jump does not begin new action.</li>
+ * </ul>
+ * Other jumps are calls of actions which their labels begin. Such jump ends action, and code after
+ * it begins new action which is called when jump is not taken, so that every action ends with call
+ * and code after taken jump is never run when called action returns. Loops and conditions must
+ * nest, and no action may begin inside of them, so jumps which would break it are left as calls of
+ * actions too. Of more jumps back to the same label only the last one makes loop. Action system is
+ * thus kept only for control flow which can not be structured.
+ * <p>
+ * System which grows over limit (code or number of markers) is written as it is from then on, so
+ * memory does not depend on size of system.
+ *
+ * @author Nikola Trkulja
+ * @author Igor Let
+ */
+final class ActionSystem {
+
+	private static final String NEW_LINE = System.getProperty("line.separator");
+
+	/**
+	 * Default number of characters of code kept before system is written as it is.
+	 */
+	static final int DEFAULT_LIMIT = 1 << 20;
+
+	/**
+	 * Number of markers kept before system is written as it is; positions of markers must fit in
+	 * 21 bits of sort keys, see {@link #checkNesting()}.
+	 */
+	private static final int MAX_MARKERS = 1 << 16;
+
+	private static final int NONE = -1;
+
+	private final int limit;
+	private final StringBuilder code = new StringBuilder();
+	private final StringBuilder structured = new StringBuilder();
+	private boolean recording;
+	private boolean overflow;
+
+	/**
+	 * Number of actions which begin after jumps, used to name them.
+	 */
+	private int continuations;
+
+	/**
+	 * Markers: offsets in code, label names or jump targets, conditions of jumps (null for
+	 * unconditional jump), and whether marker is jump.
+	 */
+	private int[] offsets = new int[64];
+	private String[] names = new String[64];
+	private String[] conditions = new String[64];
+	private boolean[] jumps = new boolean[64];
+	private int count;
+
+	/**
+	 * Results of analysis, indexed by marker: target label of jump (or {@link #NONE}), whether jump
+	 * is structured, whether label begins action, number of conditions which end at label and
+	 * whether loop begins at label.
+	 */
+	private int[] targets = new int[64];
+	private boolean[] structuredJumps = new boolean[64];
+	private boolean[] kept = new boolean[64];
+	private int[] closes = new int[64];
+	private boolean[] loops = new boolean[64];
+
+	/**
+	 * Open addressing table of labels (marker index + 1), and work arrays of analysis.
+	 */
+	private int[] table = new int[128];
+	private int[] actionsBefore = new int[65];
+	private long[] keys = new long[64];
+	private int[] stack = new int[64];
+
+	public ActionSystem() {
+		this(DEFAULT_LIMIT);
+	}
+
+	public ActionSystem(int limit) {
+		this.limit = limit;
+	}
+
+	/**
+	 * Start keeping code of new system.
+	 */
+	public void begin() {
+		code.setLength(0);
+		count = 0;
+		recording = true;
+		overflow = false;
+	}
+
+	/**
+	 * Check whether system has begun and has not ended yet.
+	 *
+	 * @return
+	 */
+	public boolean isRecording() {
+		return recording;
+	}
+
+	/**
+	 * Check whether code kept so far should be written as it is, see {@link #flush()}. It should
+	 * once system has grown over limit.
+	 *
+	 * @return
+	 */
+	public boolean isFull() {
+		return overflow || code.length() > limit || count >= MAX_MARKERS;
+	}
+
+	/**
+	 * Append piece of code.
+	 *
+	 * @param s
+	 */
+	public void append(String s) {
+		code.append(s);
+	}
+
+	/**
+	 * Add label at the current point of code.
+	 *
+	 * @param name
+	 */
+	public void label(String name) {
+		mark(name, null, false);
+	}
+
+	/**
+	 * Add jump at the current point of code.
+	 *
+	 * @param condition condition of jump, or null if jump is unconditional
+	 * @param target label
+	 */
+	public void jump(String condition, String target) {
+		mark(target, condition, true);
+	}
+
+	private void mark(String name, String condition, boolean jump) {
+		if (count == offsets.length) {
+			int length = count * 2;
+			offsets = Arrays.copyOf(offsets, length);
+			names = Arrays.copyOf(names, length);
+			conditions = Arrays.copyOf(conditions, length);
+			jumps = Arrays.copyOf(jumps, length);
+			targets = Arrays.copyOf(targets, length);
+			structuredJumps = Arrays.copyOf(structuredJumps, length);
+			kept = Arrays.copyOf(kept, length);
+			closes = Arrays.copyOf(closes, length);
+			loops = Arrays.copyOf(loops, length);
+			actionsBefore = Arrays.copyOf(actionsBefore, length + 1);
+			keys = Arrays.copyOf(keys, length);
+			stack = Arrays.copyOf(stack, length);
+		}
+		offsets[count] = code.length();
+		names[count] = name;
+		conditions[count] = condition;
+		jumps[count++] = jump;
+	}
+
+	/**
+	 * Return code kept so far as it is, and stop structuring the rest of system. Code is valid
+	 * until anything else is added.
+	 *
+	 * @return
+	 */
+	public CharSequence flush() {
+		overflow = true;
+		return write(false);
+	}
+
+	/**
+	 * End system and return the rest of its code, with control flow structured unless system has
+	 * grown over limit. Code is valid until the next system begins.
+	 *
+	 * @return
+	 */
+	public CharSequence end() {
+		recording = false;
+		return write(!overflow);
+	}
+
+	private CharSequence write(boolean structure) {
+		if (structure) {
+			analyze();
+		} else {
+			Arrays.fill(kept, 0, count, true);
+			Arrays.fill(structuredJumps, 0, count, false);
+			Arrays.fill(closes, 0, count, 0);
+			Arrays.fill(loops, 0, count, false);
+		}
+		structured.setLength(0);
+		int piece = 0;
+		for (int i = 0; i < count; i++) {
+			structured.append(code, piece, offsets[i]);
+			piece = offsets[i];
+			if (jumps[i]) {
+				appendJump(i);
+			} else {
+				for (int j = closes[i]; j > 0; j--) {
+					endStatements();
+					structured.append(j > 1 ? "FI" : "FI;").append(NEW_LINE);
+				}
+				if (kept[i]) {
+					appendLabel(names[i]);
+				}
+				if (loops[i]) {
+					structured.append("DO").append(NEW_LINE);
+				}
+			}
+		}
+		structured.append(code, piece, code.length());
+		Arrays.fill(names, 0, count, null);
+		Arrays.fill(conditions, 0, count, null);
+		code.setLength(0);
+		count = 0;
+		return structured;
+	}
+
+	private void appendJump(int i) {
+		if (!structuredJumps[i]) {
+			appendCall(conditions[i], names[i]);
+		} else if (targets[i] < i) { // loop
+			structured.append("IF NOT (").append(conditions[i]).append(") THEN EXIT(1) FI")
+					.append(NEW_LINE).append("OD;").append(NEW_LINE);
+		} else if (!skipsNothing(i)) {
+			structured.append("IF NOT (").append(conditions[i]).append(") THEN").append(NEW_LINE);
+		}
+	}
+
+	/**
+	 * Check if jump goes to label which follows it, so that it does nothing.
+	 *
+	 * @param jump
+	 * @return
+	 */
+	private boolean skipsNothing(int jump) {
+		return targets[jump] == jump + 1 && offsets[jump] == offsets[jump + 1];
+	}
+
+	/**
+	 * Remove semicolon after the last statement, because statements are going to be ended, or add
+	 * SKIP if there are no statements.
+	 */
+	private void endStatements() {
+		int length = structured.length() - NEW_LINE.length() - 1;
+		if (length >= 0 && structured.charAt(length) == ';') {
+			structured.setLength(length);
+			structured.append(NEW_LINE);
+		} else if (endsWith("THEN", length + 1)) {
+			structured.append("SKIP").append(NEW_LINE);
+		}
+	}
+
+	/**
+	 * Check if structured code before given index ends with given text.
+	 *
+	 * @param s
+	 * @param end
+	 * @return
+	 */
+	private boolean endsWith(String s, int end) {
+		if (end < s.length()) {
+			return false;
+		}
+		for (int i = 0; i < s.length(); i++) {
+			if (structured.charAt(end - s.length() + i) != s.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Append code of label which begins action: the previous action calls it.
+	 *
+	 * @param name
+	 */
+	private void appendLabel(String name) {
+		structured.append("CALL ").append(name).append(NEW_LINE).append("END").append(NEW_LINE)
+				.append(name).append(" == ").append(NEW_LINE);
+	}
+
+	/**
+	 * Append code of jump which is not structured: call of action which its label begins, which
+	 * ends action, and new action for code after jump.
+	 *
+	 * @param condition
+	 * @param target
+	 */
+	private void appendCall(String condition, String target) {
+		int next = ++continuations;
+		if (condition == null) {
+			structured.append("CALL ").append(target).append(NEW_LINE);
+		} else {
+			structured.append("IF ").append(condition).append(" THEN").append(NEW_LINE).append("CALL ")
+					.append(target).append(NEW_LINE).append("ELSE").append(NEW_LINE)
+					.append("CALL next_").append(next).append(NEW_LINE).append("FI").append(NEW_LINE);
+		}
+		structured.append("END").append(NEW_LINE).append("next_").append(next).append(" == ")
+				.append(NEW_LINE);
+	}
+
+	/**
+	 * Decide which jumps are structured and which labels begin actions. Every conditional jump to
+	 * label of this system is structured at first, then jumps which break nesting or contain
+	 * beginning of action are given up, until there are none.
+	 */
+	private void analyze() {
+		findTargets();
+		Arrays.fill(loops, 0, count, false);
+		for (int i = count - 1; i >= 0; i--) {
+			int target = targets[i];
+			structuredJumps[i] = jumps[i] && conditions[i] != null && target != NONE;
+			if (structuredJumps[i] && target < i) { // the last jump back makes loop
+				structuredJumps[i] = !loops[target];
+				loops[target] = true;
+			}
+		}
+		boolean changed;
+		do {
+			changed = checkKeptLabels();
+			changed |= checkNesting();
+		} while (changed);
+
+		Arrays.fill(closes, 0, count, 0);
+		Arrays.fill(loops, 0, count, false);
+		for (int i = 0; i < count; i++) {
+			if (structuredJumps[i] && targets[i] < i) {
+				loops[targets[i]] = true;
+			} else if (structuredJumps[i] && !skipsNothing(i)) {
+				closes[targets[i]]++;
+			}
+		}
+	}
+
+	/**
+	 * Find target label of every jump.
+	 */
+	private void findTargets() {
+		int size = table.length;
+		while (size < 2 * count) {
+			size *= 2;
+		}
+		if (size > table.length) {
+			table = new int[size];
+		} else {
+			Arrays.fill(table, 0);
+		}
+		int mask = table.length - 1;
+		for (int i = 0; i < count; i++) {
+			targets[i] = NONE;
+			if (!jumps[i]) {
+				int slot = names[i].hashCode() & mask;
+				while (table[slot] != 0 && !names[table[slot] - 1].equals(names[i])) {
+					slot = (slot + 1) & mask;
+				}
+				if (table[slot] == 0) {
+					table[slot] = i + 1;
+				}
+			}
+		}
+		for (int i = 0; i < count; i++) {
+			if (jumps[i]) {
+				int slot = names[i].hashCode() & mask;
+				while (table[slot] != 0) {
+					if (names[table[slot] - 1].equals(names[i])) {
+						targets[i] = table[slot] - 1;
+						break;
+					}
+					slot = (slot + 1) & mask;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Mark labels which begin actions, targets of jumps which are not structured, and give up
+	 * structured jumps which contain any of them or any jump which is not structured, because
+	 * action begins after it.
+	 *
+	 * @return whether any jump was given up
+	 */
+	private boolean checkKeptLabels() {
+		Arrays.fill(kept, 0, count, false);
+		for (int i = 0; i < count; i++) {
+			if (jumps[i] && !structuredJumps[i] && targets[i] != NONE) {
+				kept[targets[i]] = true;
+			}
+		}
+		actionsBefore[0] = 0;
+		for (int i = 0; i < count; i++) {
+			boolean action = kept[i] || jumps[i] && !structuredJumps[i];
+			actionsBefore[i + 1] = actionsBefore[i] + (action ? 1 : 0);
+		}
+		boolean changed = false;
+		for (int i = 0; i < count; i++) {
+			if (structuredJumps[i]) {
+				int from = Math.min(i, targets[i]) + 1, to = Math.max(i, targets[i]);
+				if (actionsBefore[to] > actionsBefore[from]) {
+					structuredJumps[i] = false;
+					changed = true;
+				}
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Give up structured jumps whose loops and conditions overlap without nesting. Condition of
+	 * jump i to label j covers positions 2i..2j-1 and loop of jump i to label j covers positions
+	 * 2j+1..2i, so that condition which ends at label and loop which begins there do not overlap.
+	 * Loops are preferred to conditions.
+	 *
+	 * @return whether any jump was given up
+	 */
+	private boolean checkNesting() {
+		int n = 0;
+		for (int i = 0; i < count; i++) {
+			if (structuredJumps[i]) {
+				int start = targets[i] < i ? 2 * targets[i] + 1 : 2 * i;
+				int end = targets[i] < i ? 2 * i : 2 * targets[i] - 1;
+				// by start, then outer first
+				keys[n++] = (long) start << 42 | (long) ((1 << 21) - 1 - end) << 21 | i;
+			}
+		}
+		Arrays.sort(keys, 0, n);
+		boolean changed = false;
+		int depth = 0;
+		for (int k = 0; k < n; k++) {
+			int i = (int) (keys[k] & ((1 << 21) - 1));
+			int start = (int) (keys[k] >>> 42);
+			int end = end(i);
+			while (depth > 0 && end(stack[depth - 1]) < start) {
+				depth--;
+			}
+			boolean nested = true;
+			while (depth > 0 && end(stack[depth - 1]) < end) {
+				changed = true;
+				if (targets[i] < i) { // keep loop
+					structuredJumps[stack[--depth]] = false;
+				} else {
+					structuredJumps[i] = false;
+					nested = false;
+					break;
+				}
+			}
+			if (nested) {
+				stack[depth++] = i;
+			}
+		}
+		return changed;
+	}
+
+	private int end(int jump) {
+		return targets[jump] < jump ? 2 * jump : 2 * targets[jump] - 1;
+	}
+
+}
@@ -1,38 +1,184 @@
 package main;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
- * Main application class.
+ * Main application class. Translates given assembler files, and all assembler files in given
+ * directories, to WSL.
+ * 
+ * <pre>
+ * java main.App [-j threads] [-o outputDir] [-s seed] [-c cacheDir [-m cacheMegabytes]] [-i manifest] [--lazy-flags] [--pipeline] [--metrics file.prom] (file.asm | directory)...
+ * </pre>
+ * 
+ * Without output directory every ".wsl" file is written next to its ".asm" file, otherwise into the
+ * same relative location under output directory. Seed is used for the value of
+ * <strong>@data</strong>. With cache directory, files which were already translated are copied from
+ * cache instead. With manifest, only files which changed since the last run with the same manifest are
+ * translated, and outputs of removed files are deleted. With lazy flags, flags are computed only by
+ * conditional jumps (see {@link Parser#setLazyFlags(boolean)}). With pipeline, large files are
+ * scanned on their own thread while they are parsed (see {@link TokenPipeline}). With metrics
+ * file, {@link TranslationMetrics} are enabled and written to it in Prometheus text format when
+ * all files are translated.
+ * <p>
+ * Startup of one-shot runs can be made faster with class data sharing archive, which is created by
+ * training run over sample programs (by default the ones in "src/asm") and then given to JVM. JVM
+ * archives only classes loaded from JAR files, so classes must be packed first:
+ * 
+ * <pre>
+ * jar cf translator.jar -C bin .
+ * java -cp translator.jar main.App --dump-cds translator.jsa [(file.asm | directory)...]
+ * java -XX:SharedArchiveFile=translator.jsa -cp translator.jar main.App ...
+ * </pre>
+ * 
+ * Archive must be created again whenever classes or JVM change, otherwise JVM ignores it.
  * 
  * @author Nikola Trkulja
  * @author Igor Let
  */
 public class App {
 
+	static final long DEFAULT_CACHE_MEGABYTES = 256;
+
+	private static final String SAMPLES = "src/asm";
+
 	public static void main(String[] args) throws Exception {
+		if (args.length > 1 && args[0].equals("--dump-cds")) {
+			List<String> samples = new ArrayList<String>();
+			for (int i = 2; i < args.length; i++) {
+				samples.add(args[i]);
+			}
+			if (samples.isEmpty()) {
+				samples.add(SAMPLES);
+			}
+			System.exit(dumpCds(Paths.get(args[1]), samples));
+		}
+
+		int threads = Runtime.getRuntime().availableProcessors();
+		Path outputDir = null;
+		long seed = Parser.DEFAULT_SEED;
+		boolean lazyFlags = false;
+		boolean pipeline = false;
+		Path cacheDir = null;
+		Path manifestFile = null;
+		Path metricsFile = null;
+		long cacheMegabytes = DEFAULT_CACHE_MEGABYTES;
+		List<Path> inputs = new ArrayList<Path>();
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-j") && i + 1 < args.length) {
+				threads = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-o") && i + 1 < args.length) {
+				outputDir = Paths.get(args[++i]);
+			} else if (args[i].equals("-s") && i + 1 < args.length) {
+				seed = Long.parseLong(args[++i]);
+			} else if (args[i].equals("-c") && i + 1 < args.length) {
+				cacheDir = Paths.get(args[++i]);
+			} else if (args[i].equals("-i") && i + 1 < args.length) {
+				manifestFile = Paths.get(args[++i]);
+			} else if (args[i].equals("-m") && i + 1 < args.length) {
+				cacheMegabytes = Long.parseLong(args[++i]);
+			} else if (args[i].equals("--lazy-flags")) {
+				lazyFlags = true;
+			} else if (args[i].equals("--pipeline")) {
+				pipeline = true;
+			} else if (args[i].equals("--metrics") && i + 1 < args.length) {
+				metricsFile = Paths.get(args[++i]);
+			} else {
+				inputs.add(Paths.get(args[i]));
+			}
+		}
+
+		if (inputs.isEmpty()) {
+			System.out.println("No input file specified.");
+			System.out.println("Usage: java main.App [-j threads] [-o outputDir] [-s seed] [-c cacheDir [-m cacheMegabytes]] [-i manifest] [--lazy-flags] [--pipeline] [--metrics file.prom] (file.asm | directory)...");
+			return;
+		}
+
+		if (metricsFile != null) {
+			TranslationMetrics.enable();
+		}
+		TranslationCache cache = null;
+		if (cacheDir != null) {
+			cache = new TranslationCache(cacheDir, cacheMegabytes << 20);
+		}
+		Translator translator = new Translator(seed, lazyFlags, pipeline, cache);
+		BatchTranslator batch = new BatchTranslator(translator, threads, outputDir);
+		if (manifestFile != null) {
+			batch.setManifest(new Manifest(manifestFile, translator.getOptions()));
+		}
+		BatchTranslator.Summary summary = batch.translate(inputs);
+		System.out.println(summary);
+		if (metricsFile != null) {
+			TranslationMetrics.getInstance().dump(metricsFile);
+		}
+		if (!summary.getFailures().isEmpty()) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Create class data sharing archive by translating given samples in another JVM, which writes
+	 * all classes it loaded to archive when it exits.
+	 * 
+	 * @param archive
+	 * @param samples
+	 * @return exit status of training run
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private static int dumpCds(Path archive, List<String> samples) throws IOException,
+			InterruptedException {
+		for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+			if (Files.isDirectory(Paths.get(entry))) {
+				System.out.println("Class path must contain only JAR files, but " + entry
+						+ " is a directory.");
+				return 1;
+			}
+		}
+		Path output = Files.createTempDirectory("training");
+		try {
+			List<String> command = new ArrayList<String>();
+			command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+			command.add("-XX:ArchiveClassesAtExit=" + archive.toAbsolutePath());
+			command.add("-cp");
+			command.add(System.getProperty("java.class.path"));
+			command.add(App.class.getName());
+			command.add("-j");
+			command.add("1");
+			command.add("-o");
+			command.add(output.toString());
+			command.addAll(samples);
+			int status = new ProcessBuilder(command).inheritIO().start().waitFor();
+			if (Files.exists(archive)) {
+				System.out.println("Archive written to " + archive + ", use it with: java -XX:SharedArchiveFile="
+						+ archive + " ...");
+			}
+			return status;
+		} finally {
+			Files.walkFileTree(output, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+						throws IOException {
+					Files.delete(file);
+					return FileVisitResult.CONTINUE;
+				}
 
-		Scanner scanner = new Scanner("src/asm/macrobug.asm");
-		Parser parser = new Parser(scanner);
-		System.out.println(parser.parse());
-
-		// if (args.length != 0) {
-		// String filename = args[0];
-		// if (filename.endsWith(".asm")) {
-		// String outputFilename = filename.substring(0, filename.lastIndexOf('.')).concat(
-		// ".wsl");
-		// Scanner scanner = new Scanner(filename);
-		// Parser parser = new Parser(scanner);
-		// PrintWriter output = new PrintWriter(new FileWriter(outputFilename));
-		// output.print(parser.parse());
-		// output.close();
-		// System.out.println("Parsing and code generation complited successfully.");
-		// System.out.println("You can view results in file: " + outputFilename);
-		// } else {
-		// System.out.println("Input file extension must be '.asm'.");
-		// }
-		// } else {
-		// System.out.println("No input file specified.");
-		// }
+				@Override
+				public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+					Files.delete(dir);
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		}
 	}
 
 }
@@ -0,0 +1,406 @@
+package main;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Translates many assembler files at once. Given files and all ".asm" files found in given
+ * directories are translated concurrently, largest files first so that no large file is left for
+ * the end, using shared {@link Translator}. Generated ".wsl" file is written next to its input
+ * file, or into the same relative location under output directory if one is given.
+ * <p>
+ * Inputs which would be translated to the same output (with output directory, files with the same
+ * name, or files with the same relative path in different directories) are not translated, and
+ * neither are inputs which can not be read. They are reported as failures, and the rest of files is
+ * translated.
+ * <p>
+ * With {@link Manifest} translation is incremental: files which did not change since the last run
+ * are not translated again, and outputs of inputs which were removed are deleted.
+ *
+ * @author Nikola Trkulja
+ * @author Igor Let
+ */
+public class BatchTranslator {
+
+	private static final String INPUT_EXTENSION = ".asm";
+	private static final String OUTPUT_EXTENSION = ".wsl";
+
+	private final Translator translator;
+	private final int threads;
+	private final Path outputDir;
+	private Manifest manifest;
+
+	/**
+	 * @param translator
+	 * @param threads number of files translated at the same time
+	 * @param outputDir root of output tree, or null if outputs are written next to inputs
+	 */
+	public BatchTranslator(Translator translator, int threads, Path outputDir) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Number of threads must be positive: " + threads);
+		}
+		this.translator = translator;
+		this.threads = threads;
+		this.outputDir = outputDir;
+	}
+
+	/**
+	 * Set manifest of previous translations, which makes translation incremental. Manifest is
+	 * saved after translation.
+	 *
+	 * @param manifest
+	 */
+	public void setManifest(Manifest manifest) {
+		this.manifest = manifest;
+	}
+
+	/**
+	 * Translate given files and all assembler files in given directories.
+	 *
+	 * @param inputs
+	 * @return summary of translation
+	 * @throws IOException if manifest can not be read or written
+	 * @throws InterruptedException
+	 */
+	public Summary translate(List<Path> inputs) throws IOException, InterruptedException {
+		long start = System.nanoTime();
+		Summary summary = new Summary();
+		List<Job> jobs = new ArrayList<Job>();
+		for (Path input : inputs) {
+			collect(input, jobs, summary);
+		}
+		Collections.sort(jobs, new Comparator<Job>() {
+			@Override
+			public int compare(Job job1, Job job2) {
+				return Long.compare(job2.size, job1.size);
+			}
+		});
+
+		List<Job> conflicts = new ArrayList<Job>();
+		jobs = removeConflicts(jobs, conflicts);
+		if (manifest != null) {
+			Map<Path, Path> outputs = new HashMap<Path, Path>();
+			for (Job job : jobs) {
+				outputs.put(job.input, job.output);
+			}
+			for (Job job : conflicts) {
+				outputs.put(job.input, job.output);
+			}
+			summary.deleted = manifest.removeOrphans(outputs);
+			for (Job job : conflicts) {
+				manifest.remove(job.input);
+			}
+			List<Job> changed = new ArrayList<Job>();
+			for (Job job : jobs) {
+				if (manifest.isUpToDate(job.input, job.size, job.mtime, job.output)) {
+					summary.unchanged++;
+				} else {
+					changed.add(job);
+				}
+			}
+			jobs = changed;
+		}
+		for (Job job : conflicts) {
+			summary.files++;
+			summary.failures.put(job.input, "output " + job.output
+					+ " is also output of another input");
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Long>> results = new ArrayList<Future<Long>>();
+			for (Job job : jobs) {
+				results.add(executor.submit(job));
+			}
+			for (int i = 0; i < jobs.size(); i++) {
+				Job job = jobs.get(i);
+				summary.files++;
+				summary.inputBytes += job.size;
+				try {
+					summary.outputBytes += results.get(i).get();
+					if (manifest != null && job.inputHash == null) {
+						manifest.remove(job.input);
+					} else if (manifest != null) {
+						manifest.put(job.input, job.size, job.mtime, job.inputHash, job.output,
+								job.outputSize, job.outputHash);
+					}
+				} catch (ExecutionException e) {
+					if (manifest != null) {
+						manifest.remove(job.input);
+					}
+					Throwable cause = e.getCause();
+					summary.failures.put(job.input, cause instanceof ParsingException ? cause
+							.getMessage() : cause.toString());
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		if (manifest != null) {
+			manifest.save();
+		}
+		summary.millis = (System.nanoTime() - start) / 1000000;
+		return summary;
+	}
+
+	/**
+	 * Add job for given file, or jobs for all assembler files in given directory. File or
+	 * directory which can not be read is added to failures of summary.
+	 *
+	 * @param input
+	 * @param jobs
+	 * @param summary
+	 * @throws IOException
+	 */
+	private void collect(final Path input, final List<Job> jobs, final Summary summary)
+			throws IOException {
+		if (!Files.isDirectory(input)) {
+			Path output = outputDir == null ? input : outputDir.resolve(input.getFileName());
+			BasicFileAttributes attrs;
+			try {
+				attrs = Files.readAttributes(input, BasicFileAttributes.class);
+			} catch (IOException e) {
+				summary.files++;
+				summary.failures.put(input, e.toString());
+				return;
+			}
+			jobs.add(new Job(input, withExtension(output), attrs.size(), attrs.lastModifiedTime()
+					.toMillis()));
+			return;
+		}
+		Files.walkFileTree(input, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				if (attrs.isRegularFile()
+						&& file.getFileName().toString().toLowerCase().endsWith(INPUT_EXTENSION)) {
+					Path output = outputDir == null ? file : outputDir.resolve(input.relativize(file)
+							.toString());
+					jobs.add(new Job(file, withExtension(output), attrs.size(), attrs
+							.lastModifiedTime().toMillis()));
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException e) {
+				summary.files++;
+				summary.failures.put(file, e.toString());
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException e) {
+				if (e != null) {
+					summary.files++;
+					summary.failures.put(dir, e.toString());
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * Move jobs whose output is also output of a job for another input to given list, because they
+	 * would overwrite each other's output. Input which is given more than once (for example as file
+	 * and inside directory) with the same output is translated once.
+	 *
+	 * @param jobs
+	 * @param conflicts
+	 * @return jobs without conflicts
+	 */
+	private static List<Job> removeConflicts(List<Job> jobs, List<Job> conflicts) {
+		Map<Path, Path> inputs = new HashMap<Path, Path>();
+		Set<Path> conflicting = new HashSet<Path>();
+		for (Job job : jobs) {
+			Path output = job.output.toAbsolutePath().normalize();
+			Path input = job.input.toAbsolutePath().normalize();
+			Path other = inputs.put(output, input);
+			if (other != null && !other.equals(input)) {
+				conflicting.add(output);
+			}
+		}
+		List<Job> ret = new ArrayList<Job>();
+		Set<String> added = new HashSet<String>();
+		for (Job job : jobs) {
+			Path output = job.output.toAbsolutePath().normalize();
+			if (!added.add(output + "\t" + job.input.toAbsolutePath().normalize())) {
+				continue;
+			}
+			if (conflicting.contains(output)) {
+				conflicts.add(job);
+			} else {
+				ret.add(job);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Replace extension of given file name with ".wsl".
+	 *
+	 * @param file
+	 * @return
+	 */
+	private static Path withExtension(Path file) {
+		String name = file.getFileName().toString();
+		int dot = name.lastIndexOf('.');
+		if (dot > 0) {
+			name = name.substring(0, dot);
+		}
+		return file.resolveSibling(name + OUTPUT_EXTENSION);
+	}
+
+	/**
+	 * Translation of one file. Output is written to temporary file which replaces output file
+	 * only if translation succeeds. Returns size of output file. Hashes of input and output are
+	 * computed only for manifest. Input is hashed after it is translated, so if its size or
+	 * modification time is not the same as when it was found any more, hash may not be of
+	 * translated program. Such input gets no hash, so that it is not recorded in manifest and is
+	 * translated again in the next run.
+	 */
+	private class Job implements Callable<Long> {
+
+		final Path input;
+		final Path output;
+		final long size;
+		final long mtime;
+		String inputHash;
+		long outputSize;
+		String outputHash;
+
+		Job(Path input, Path output, long size, long mtime) {
+			this.input = input;
+			this.output = output;
+			this.size = size;
+			this.mtime = mtime;
+		}
+
+		@Override
+		public Long call() throws IOException {
+			Path dir = output.toAbsolutePath().getParent();
+			Files.createDirectories(dir);
+			Path temp = Files.createTempFile(dir, output.getFileName().toString(), ".tmp");
+			try {
+				Writer out = Files.newBufferedWriter(temp, Charset.defaultCharset());
+				try {
+					translator.translate(input, out);
+				} finally {
+					out.close();
+				}
+				if (manifest != null) {
+					inputHash = Manifest.hash(input);
+					outputHash = Manifest.hash(temp);
+					BasicFileAttributes attrs = Files.readAttributes(input,
+							BasicFileAttributes.class);
+					if (attrs.size() != size || attrs.lastModifiedTime().toMillis() != mtime) {
+						inputHash = null;
+					}
+				}
+				Files.move(temp, output, StandardCopyOption.REPLACE_EXISTING);
+				outputSize = Files.size(output);
+				return outputSize;
+			} finally {
+				Files.deleteIfExists(temp);
+			}
+		}
+
+	}
+
+	/**
+	 * Summary of batch translation.
+	 */
+	public static class Summary {
+
+		int files;
+		long inputBytes;
+		long outputBytes;
+		long millis;
+		int unchanged;
+		int deleted;
+		final Map<Path, String> failures = new TreeMap<Path, String>();
+
+		public int getFiles() {
+			return files;
+		}
+
+		public long getInputBytes() {
+			return inputBytes;
+		}
+
+		public long getOutputBytes() {
+			return outputBytes;
+		}
+
+		public long getMillis() {
+			return millis;
+		}
+
+		/**
+		 * Get number of files which were not translated because they did not change.
+		 *
+		 * @return
+		 */
+		public int getUnchanged() {
+			return unchanged;
+		}
+
+		/**
+		 * Get number of outputs deleted because their inputs were removed.
+		 *
+		 * @return
+		 */
+		public int getDeleted() {
+			return deleted;
+		}
+
+		/**
+		 * Get error messages of files which were not translated.
+		 *
+		 * @return
+		 */
+		public Map<Path, String> getFailures() {
+			return failures;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			for (Map.Entry<Path, String> failure : failures.entrySet()) {
+				sb.append(failure.getKey()).append(": ").append(failure.getValue()).append('\n');
+			}
+			sb.append("Translated ").append(files - failures.size()).append(" of ").append(files)
+					.append(" files (").append(inputBytes).append(" bytes read, ")
+					.append(outputBytes).append(" bytes written) in ").append(millis)
+					.append(" ms, ").append(failures.size()).append(" failed");
+			if (unchanged > 0 || deleted > 0) {
+				sb.append(", ").append(unchanged).append(" unchanged, ").append(deleted)
+						.append(" orphaned outputs deleted");
+			}
+			sb.append('.');
+			return sb.toString();
+		}
+
+	}
+
+}
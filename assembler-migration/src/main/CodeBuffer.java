@@ -1,7 +1,29 @@
 package main;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.Arrays;
+
 /**
- * Class used as buffer for code generated during parsing.
+ * Class used as buffer for code generated during parsing. Generated code is kept in separate
+ * segments (declaration, begin, body and procedure) which are only appended to, and they are
+ * joined together into the final action system when buffer is closed.
+ * <p>
+ * Buffer created with {@link Writer} streams the code instead. Body is written straight to the
+ * writer as soon as it is known whether action system has procedures (beginning of the action
+ * system depends on it), until then it is kept in {@link Segment}, as well as procedures which
+ * are written after the body when buffer is closed.
+ * <p>
+ * Code of body and procedures is held back until the end of the current basic block (see
+ * {@link #endBasicBlock()}), so that blocks which only compute flags can be dropped if their flags
+ * are set again later in the same basic block, before anything could read them. Nothing reads
+ * flags inside of a basic block (conditional jumps end it), so every flag is live at the end of
+ * the basic block and dead before each of its later definitions in the block.
+ * <p>
+ * Code of action system is further held back until the end of the system, so that labels and
+ * jumps can be turned into loops and conditions where control flow allows it, see
+ * {@link ActionSystem}.
  * 
  * @author Nikola Trkulja
  * @author Igor Let
@@ -14,45 +36,189 @@ public class CodeBuffer {
 	private static final String PROCEDURE = "${proc}";
 	private static final String BEGIN = "${begin}";
 
+	/**
+	 * Flags, as bits of mask given to {@link #beginFlags(int)}.
+	 */
+	public static final int FLAG_C = 1, FLAG_Z = 2, FLAG_S = 4, FLAG_O = 8;
+
+	private StringBuilder declaration;
+	private StringBuilder begin;
+	private Appendable body;
+	private Appendable procedure;
+	private WslWriter out;
 	private String buffer;
 	private boolean inProc;
 	private boolean closed;
 
+	/**
+	 * Pieces of code of the current basic block, not yet written to body or procedure. Pieces are
+	 * strings given to {@link #append(String)}, so holding them back copies nothing.
+	 */
+	private String[] pending = new String[256];
+	private int pendingCount;
+
+	/**
+	 * Flag blocks of the current basic block: their flags, and indexes of their first piece, of the
+	 * first piece of their alternative and of the first piece after them. Reads of flags are kept
+	 * among them as empty blocks, which set no flags and read flags in reads.
+	 */
+	private int[] flags = new int[32], reads = new int[32], starts = new int[32],
+			alternatives = new int[32], ends = new int[32];
+	private int flagCount;
+	private boolean inFlags;
+
+	private ActionSystem bodyActions = new ActionSystem();
+	private ActionSystem procedureActions = new ActionSystem();
+
 	public CodeBuffer() {
-		buffer = new String();
+		declaration = new StringBuilder();
+		begin = new StringBuilder();
+		body = new StringBuilder();
+		procedure = new StringBuilder();
 		inProc = false;
 		closed = false;
 		init();
 	}
 
 	/**
-	 * Initialize buffer. Create starting template and insert flags and registers to declarations.
+	 * Create buffer which streams generated code to given writer. Writer is flushed, but not
+	 * closed, when buffer is closed.
+	 * 
+	 * @param out
 	 */
-	private void init() {
-		String template = "VAR < " + DECLARATION + " >: " + NEW_LINE + BEGIN + NEW_LINE + BODY
-				+ PROCEDURE + "ENDVAR";
+	public CodeBuffer(Writer out) {
+		this();
+		this.out = new WslWriter(out);
+		body = new Segment();
+		procedure = new Segment();
+	}
+
+	/**
+	 * Set number of characters of code of action system kept before system is written as it is,
+	 * without recovered loops and conditions, see {@link ActionSystem}. Must be set before any code
+	 * is added. Small limit is only useful to check the code written as it is.
+	 * 
+	 * @param limit
+	 */
+	void setActionLimit(int limit) {
+		bodyActions = new ActionSystem(limit);
+		procedureActions = new ActionSystem(limit);
+	}
 
-		String declaration = "flag_o := 0, flag_s := 0, flag_z := 0, flag_c := 0, ax := 0, "
-				+ NEW_LINE + " bx:= 0, cx:= 0, dx:= 0, temp := 0, si:= 0, di:= 0, bp:= 0, sp:= 0, "
-				+ NEW_LINE + " cs:= 0, ds:= 0, ss:= 0, es:= 0 " + NEW_LINE + " " + DECLARATION;
+	/**
+	 * Initialize buffer. Insert flags and registers to declarations.
+	 */
+	private void init() {
+		declaration.append("flag_o := 0, flag_s := 0, flag_z := 0, flag_c := 0, ax := 0, ")
+				.append(NEW_LINE).append(" bx:= 0, cx:= 0, dx:= 0, temp := 0, si:= 0, di:= 0, bp:= 0, sp:= 0, ")
+				.append(NEW_LINE).append(" cs:= 0, ds:= 0, ss:= 0, es:= 0 ").append(NEW_LINE).append(" ");
+	}
 
-		buffer = template.replace(DECLARATION, declaration);
+	/**
+	 * Join segments into action system template. If markers are requested, declaration, begin, body
+	 * and procedure markers are left at the end of their segments.
+	 * 
+	 * @param markers
+	 * @return
+	 */
+	private String join(boolean markers) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("VAR < ").append(declaration);
+		if (markers) {
+			sb.append(DECLARATION);
+		}
+		sb.append(" >: ").append(NEW_LINE).append(begin);
+		if (markers) {
+			sb.append(BEGIN);
+		}
+		sb.append(NEW_LINE).append((CharSequence) body);
+		if (markers) {
+			sb.append(BODY);
+		}
+		sb.append((CharSequence) procedure);
+		if (markers) {
+			sb.append(PROCEDURE);
+		}
+		sb.append("ENDVAR");
+		return sb.toString();
 	}
 
 	/**
-	 * Close buffer. Remove declaration, body and procedure markers and remove every semicolon after
-	 * which there is word "END" so generated WSL code could compile without errors.
+	 * Close buffer. Join segments and remove every semicolon after which there is word "END" so
+	 * generated WSL code could compile without errors. If buffer is streaming, write what is left
+	 * of the code to the writer.
 	 */
 	public void close() {
-		buffer = buffer.replace(DECLARATION, "");
-		buffer = buffer.replace(BODY, "");
-		buffer = buffer.replace(BEGIN, "");
-		buffer = buffer.replace(PROCEDURE, "");
-		// temporary fix, I hope :)
-		buffer = buffer.replace(";" + NEW_LINE + "END", NEW_LINE + "END");
+		if (closed) {
+			return;
+		}
+		try {
+			endBasicBlock();
+			if (out != null) {
+				try {
+					writeHead();
+					((Segment) procedure).writeTo(out);
+					out.write("ENDVAR");
+					out.finish();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			} else {
+				// temporary fix, I hope :)
+				buffer = join(false).replace(";" + NEW_LINE + "END", NEW_LINE + "END");
+			}
+		} finally {
+			dispose();
+		}
+	}
+
+	/**
+	 * Release buffer without writing the rest of the code, for example when translation fails:
+	 * temporary files of streaming buffer are deleted. Buffer is closed after this method is
+	 * called, and calling it again does nothing.
+	 */
+	public void dispose() {
+		if (body instanceof Segment) {
+			((Segment) body).dispose();
+		}
+		if (procedure instanceof Segment) {
+			((Segment) procedure).dispose();
+		}
+		declaration = begin = null;
+		body = procedure = null;
 		closed = true;
 	}
 
+	/**
+	 * Write declaration, beginning and body kept so far to the writer. After that body is written
+	 * straight to the writer.
+	 * 
+	 * @throws IOException
+	 */
+	private void writeHead() throws IOException {
+		if (body == out) {
+			return;
+		}
+		out.append("VAR < ").append(declaration).append(" >: ").append(NEW_LINE).append(begin)
+				.append(NEW_LINE);
+		((Segment) body).writeTo(out);
+		body = out;
+	}
+
+	/**
+	 * Append string to given segment.
+	 * 
+	 * @param segment
+	 * @param s
+	 */
+	private void append(Appendable segment, CharSequence s) {
+		try {
+			segment.append(s);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
 	/**
 	 * Insert to declaration.
 	 * 
@@ -60,8 +226,11 @@ public class CodeBuffer {
 	 */
 	public void insertIntoDeclaration(String... s) {
 		checkClosed();
+		if (body == out) {
+			throw new IllegalStateException("Code body is already written, can not insert declaration.");
+		}
 		for (int i = 0; i < s.length; i++) {
-			buffer = buffer.replace(DECLARATION, s[i] + DECLARATION);
+			declaration.append(s[i]);
 		}
 	}
 
@@ -72,10 +241,11 @@ public class CodeBuffer {
 	 */
 	public void insertIntoBody(String... s) {
 		checkClosed();
+		endBasicBlock();
 		for (int i = 0; i < s.length; i++) {
-			buffer = buffer.replace(BODY, s[i] + BODY);
+			append(body, s[i]);
 		}
-		buffer = buffer.replace(BODY, NEW_LINE + BODY);
+		append(body, NEW_LINE);
 	}
 
 	/**
@@ -85,10 +255,11 @@ public class CodeBuffer {
 	 */
 	public void insertIntoProcedure(String... s) {
 		checkClosed();
+		endBasicBlock();
 		for (int i = 0; i < s.length; i++) {
-			buffer = buffer.replace(PROCEDURE, s[i] + PROCEDURE);
+			append(procedure, s[i]);
 		}
-		buffer = buffer.replace(PROCEDURE, NEW_LINE + PROCEDURE);
+		append(procedure, NEW_LINE);
 	}
 
 	/**
@@ -98,16 +269,254 @@ public class CodeBuffer {
 	 * @param s
 	 */
 	public void insert(String... s) {
-		if (inProc) {
-			insertIntoProcedure(s);
+		for (int i = 0; i < s.length; i++) {
+			append(s[i]);
+		}
+		newLine();
+	}
+
+	/**
+	 * Insert line to body or procedure, like {@link #insert(String...)} but without array of
+	 * arguments.
+	 * 
+	 * @param s
+	 */
+	public void insert(String s) {
+		append(s);
+		newLine();
+	}
+
+	public void insert(String s1, String s2) {
+		append(s1);
+		append(s2);
+		newLine();
+	}
+
+	public void insert(String s1, String s2, String s3) {
+		append(s1);
+		append(s2);
+		append(s3);
+		newLine();
+	}
+
+	/**
+	 * Append to the current line of body or procedure, regarding if we are currently generating
+	 * code for procedure or not. Line is ended with {@link #newLine()}. Used for lines made of many
+	 * parts, so that neither array of parts nor joined string have to be created. Code is held back
+	 * until the end of the current basic block.
+	 * 
+	 * @param s
+	 * @return this buffer
+	 */
+	public CodeBuffer append(String s) {
+		checkClosed();
+		if (pendingCount == pending.length) {
+			pending = Arrays.copyOf(pending, pendingCount * 2);
+		}
+		pending[pendingCount++] = s;
+		return this;
+	}
+
+	/**
+	 * End the current line of body or procedure.
+	 */
+	public void newLine() {
+		append(NEW_LINE);
+	}
+
+	/**
+	 * Begin block of code which only sets given flags (and may bring temp into range). Block ends
+	 * with {@link #otherwise()}, which begins its alternative, and alternative ends with
+	 * {@link #endFlags()}. Block is dropped if none of its flags is live after it, and then its
+	 * alternative, which must leave temp as the block does, is used instead.
+	 * 
+	 * @param mask flags set by block, for example {@link #FLAG_C}
+	 */
+	public void beginFlags(int mask) {
+		checkClosed();
+		if (inFlags) {
+			throw new IllegalStateException("Flag blocks can not be nested.");
+		}
+		if (flagCount == flags.length) {
+			flags = Arrays.copyOf(flags, flagCount * 2);
+			reads = Arrays.copyOf(reads, flagCount * 2);
+			starts = Arrays.copyOf(starts, flagCount * 2);
+			alternatives = Arrays.copyOf(alternatives, flagCount * 2);
+			ends = Arrays.copyOf(ends, flagCount * 2);
+		}
+		flags[flagCount] = mask;
+		reads[flagCount] = 0;
+		starts[flagCount] = pendingCount;
+		alternatives[flagCount] = -1;
+		inFlags = true;
+	}
+
+	/**
+	 * Mark that code which follows reads given flags, so that blocks which set them before are
+	 * kept. Reads by conditional jumps need not be marked, jumps end basic block.
+	 * 
+	 * @param mask
+	 */
+	public void readFlags(int mask) {
+		beginFlags(0);
+		reads[flagCount] = mask;
+		endFlags();
+	}
+
+	/**
+	 * Begin alternative of the current flag block.
+	 */
+	public void otherwise() {
+		if (!inFlags || alternatives[flagCount] >= 0) {
+			throw new IllegalStateException("Alternative must follow flag block.");
+		}
+		alternatives[flagCount] = pendingCount;
+	}
+
+	/**
+	 * End the current flag block, or its alternative if it has one.
+	 */
+	public void endFlags() {
+		if (!inFlags) {
+			throw new IllegalStateException("There is no flag block to end.");
+		}
+		if (alternatives[flagCount] < 0) {
+			alternatives[flagCount] = pendingCount;
+		}
+		ends[flagCount++] = pendingCount;
+		inFlags = false;
+	}
+
+	/**
+	 * End the current basic block: control may leave it after this point, or enter the code which
+	 * follows, so all flags are live here. Flag blocks whose flags are all set again later in the
+	 * basic block are replaced by their alternatives, and code of the block is written to body or
+	 * procedure.
+	 */
+	public void endBasicBlock() {
+		checkClosed();
+		if (inFlags) {
+			throw new IllegalStateException("Flag block is not ended.");
+		}
+		// backward liveness, every flag is live at the end of the block
+		int live = FLAG_C | FLAG_Z | FLAG_S | FLAG_O;
+		for (int i = flagCount - 1; i >= 0; i--) {
+			if ((flags[i] & live) == 0) {
+				flags[i] = 0; // dead
+			} else {
+				live &= ~flags[i];
+			}
+			live |= reads[i];
+		}
+		Appendable segment = inProc ? procedure : body;
+		ActionSystem actions = inProc ? procedureActions : bodyActions;
+		int piece = 0;
+		for (int i = 0; i < flagCount; i++) {
+			int from = flags[i] == 0 ? alternatives[i] : starts[i];
+			int to = flags[i] == 0 ? ends[i] : alternatives[i];
+			for (; piece < starts[i]; piece++) {
+				write(segment, actions, pending[piece]);
+			}
+			for (piece = from; piece < to; piece++) {
+				write(segment, actions, pending[piece]);
+			}
+			piece = ends[i];
+		}
+		for (; piece < pendingCount; piece++) {
+			write(segment, actions, pending[piece]);
+		}
+		Arrays.fill(pending, 0, pendingCount, null);
+		pendingCount = 0;
+		flagCount = 0;
+		if (actions.isRecording() && actions.isFull()) {
+			append(segment, actions.flush());
+		}
+	}
+
+	/**
+	 * Write piece of code to action system which is being kept, or else to given segment.
+	 * 
+	 * @param segment
+	 * @param actions
+	 * @param s
+	 */
+	private void write(Appendable segment, ActionSystem actions, String s) {
+		if (actions.isRecording()) {
+			actions.append(s);
 		} else {
-			insertIntoBody(s);
+			append(segment, s);
+		}
+	}
+
+	/**
+	 * Begin action system of program or of the current procedure, after its first action is
+	 * begun. Code of system is held back until {@link #endActions()}.
+	 */
+	public void beginActions() {
+		checkClosed();
+		endBasicBlock();
+		(inProc ? procedureActions : bodyActions).begin();
+	}
+
+	/**
+	 * Begin new action with given label. Control comes here from the previous action as well as
+	 * from jumps, so the current basic block ends.
+	 * 
+	 * @param name
+	 */
+	public void label(String name) {
+		checkClosed();
+		endBasicBlock();
+		ActionSystem actions = inProc ? procedureActions : bodyActions;
+		if (!actions.isRecording()) {
+			throw new IllegalStateException("Label must be inside of action system.");
+		}
+		actions.label(name);
+	}
+
+	/**
+	 * Jump to action with given label if given condition holds.
+	 * 
+	 * @param condition WSL condition, or null if jump is unconditional
+	 * @param label
+	 */
+	public void jump(String condition, String label) {
+		checkClosed();
+		endBasicBlock();
+		ActionSystem actions = inProc ? procedureActions : bodyActions;
+		if (!actions.isRecording()) {
+			throw new IllegalStateException("Jump must be inside of action system.");
+		}
+		actions.jump(condition, label);
+	}
+
+	/**
+	 * End action system of program or of the current procedure, before its last action is ended,
+	 * and write its code with recovered loops and conditions.
+	 */
+	public void endActions() {
+		checkClosed();
+		endBasicBlock();
+		ActionSystem actions = inProc ? procedureActions : bodyActions;
+		if (actions.isRecording()) {
+			append(inProc ? procedure : body, actions.end());
 		}
 	}
 
 	public void addBegin() {
 		checkClosed();
-		buffer = buffer.replace(BEGIN, "BEGIN" + BEGIN);
+		endBasicBlock();
+		if (body == out) {
+			throw new IllegalStateException("Code body is already written, can not insert begin.");
+		}
+		begin.append("BEGIN");
+		if (out != null) {
+			try {
+				writeHead();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
 	}
 
 	/**
@@ -119,7 +528,13 @@ public class CodeBuffer {
 		}
 	}
 
+	/**
+	 * Set whether code is generated for procedure. Ends the current basic block.
+	 * 
+	 * @param inProc
+	 */
 	public void setInProc(boolean inProc) {
+		endBasicBlock();
 		this.inProc = inProc;
 	}
 
@@ -127,9 +542,18 @@ public class CodeBuffer {
 		return inProc;
 	}
 
+	/**
+	 * Return generated code. Buffer which streams the code to the writer has nothing to return.
+	 */
 	@Override
 	public String toString() {
-		return buffer;
+		if (out != null) {
+			return "";
+		}
+		if (closed) {
+			return buffer;
+		}
+		return join(true);
 	}
 
 }
@@ -0,0 +1,36 @@
+package main;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event of one procedure or macro call, emitted by {@link Parser}. Event of
+ * procedure lasts while whole procedure is parsed, and event of macro call only while actual
+ * parameters are put into tokens of macro (expanded tokens are parsed after that, as part of the
+ * enclosing code).
+ *
+ * @author Nikola Trkulja
+ * @author Igor Let
+ */
+@Name("main.Expansion")
+@Label("Expansion")
+@Category("Translator")
+@Description("Parsing of procedure or expansion of macro")
+class ExpansionEvent extends Event {
+
+	static final String PROCEDURE = "procedure";
+	static final String MACRO = "macro";
+
+	@Label("Kind")
+	String kind;
+
+	@Label("Name")
+	String name;
+
+	@Label("Line")
+	int line;
+
+}
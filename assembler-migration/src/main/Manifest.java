@@ -0,0 +1,259 @@
+package main;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Manifest of previous translations, used for incremental translation. For every translated file it
+ * records size, last modification time and hash of the input and path, size and hash of the output.
+ * File is translated again only if its size or hash changed, and hash is computed only if its
+ * modification time changed, so checking unchanged files costs one file status each. Manifest also
+ * records options of translator, all files are translated again when they change.
+ * <p>
+ * Manifest is a text file with one tab-separated line per entry, it is replaced only by
+ * {@link #save()}.
+ *
+ * @author Nikola Trkulja
+ * @author Igor Let
+ */
+public class Manifest {
+
+	private static final String OPTIONS = "options";
+
+	private final Path file;
+	private final String options;
+
+	/**
+	 * Entries by absolute input path.
+	 */
+	private final Map<Path, Entry> entries = new HashMap<Path, Entry>();
+
+	/**
+	 * True if manifest was written with other options, so no entry is up to date.
+	 */
+	private boolean stale;
+
+	/**
+	 * Load manifest from given file, if it exists.
+	 *
+	 * @param file
+	 * @param options options of translator, see {@link Translator#getOptions()}
+	 * @throws IOException
+	 */
+	public Manifest(Path file, String options) throws IOException {
+		this.file = file;
+		this.options = options;
+		if (!Files.exists(file)) {
+			return;
+		}
+		BufferedReader in = Files.newBufferedReader(file, TranslationCache.CHARSET);
+		try {
+			String line = in.readLine();
+			stale = line == null || !line.equals(OPTIONS + '\t' + options);
+			while ((line = in.readLine()) != null) {
+				String[] fields = line.split("\t");
+				if (fields.length != 7) {
+					throw new IOException("Invalid line in manifest " + file + ": " + line);
+				}
+				Entry entry = new Entry(Paths.get(fields[0]), Long.parseLong(fields[1]),
+						Long.parseLong(fields[2]), fields[3], Paths.get(fields[4]),
+						Long.parseLong(fields[5]), fields[6]);
+				entries.put(entry.input, entry);
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Check whether given input with given size and modification time was translated to given
+	 * output, and none of them changed after that. Hash of input is computed only if its
+	 * modification time changed.
+	 *
+	 * @param input
+	 * @param size
+	 * @param mtime
+	 * @param output
+	 * @return
+	 * @throws IOException
+	 */
+	public boolean isUpToDate(Path input, long size, long mtime, Path output) throws IOException {
+		Entry entry = entries.get(input.toAbsolutePath().normalize());
+		if (stale || entry == null || entry.size != size
+				|| !entry.output.equals(output.toAbsolutePath().normalize())) {
+			return false;
+		}
+		try {
+			if (Files.size(output) != entry.outputSize) {
+				return false;
+			}
+		} catch (NoSuchFileException e) {
+			return false;
+		}
+		if (entry.mtime == mtime) {
+			return true;
+		}
+		if (!hash(input).equals(entry.inputHash)) {
+			return false;
+		}
+		entry.mtime = mtime;
+		return true;
+	}
+
+	/**
+	 * Record translation of given input.
+	 *
+	 * @param input
+	 * @param size
+	 * @param mtime
+	 * @param inputHash
+	 * @param output
+	 * @param outputSize
+	 * @param outputHash
+	 */
+	public void put(Path input, long size, long mtime, String inputHash, Path output,
+			long outputSize, String outputHash) {
+		Entry entry = new Entry(input.toAbsolutePath().normalize(), size, mtime, inputHash, output
+				.toAbsolutePath().normalize(), outputSize, outputHash);
+		entries.put(entry.input, entry);
+	}
+
+	/**
+	 * Forget translation of given input, so it is translated again next time.
+	 *
+	 * @param input
+	 */
+	public void remove(Path input) {
+		entries.remove(input.toAbsolutePath().normalize());
+	}
+
+	/**
+	 * Remove entries of inputs which no longer exist, or which are now translated to other
+	 * outputs, and delete their outputs. Output is deleted only if it was not changed after it was
+	 * written.
+	 *
+	 * @param outputs current output of every input translated now
+	 * @return number of deleted outputs
+	 * @throws IOException
+	 */
+	public int removeOrphans(Map<Path, Path> outputs) throws IOException {
+		Map<Path, Path> current = new HashMap<Path, Path>();
+		Set<Path> currentOutputs = new HashSet<Path>();
+		for (Map.Entry<Path, Path> output : outputs.entrySet()) {
+			Path normalized = output.getValue().toAbsolutePath().normalize();
+			current.put(output.getKey().toAbsolutePath().normalize(), normalized);
+			currentOutputs.add(normalized);
+		}
+		List<Entry> orphans = new ArrayList<Entry>();
+		for (Entry entry : entries.values()) {
+			Path output = current.get(entry.input);
+			if (output == null ? !Files.exists(entry.input) : !output.equals(entry.output)) {
+				orphans.add(entry);
+			}
+		}
+		int deleted = 0;
+		for (Entry orphan : orphans) {
+			entries.remove(orphan.input);
+			if (!currentOutputs.contains(orphan.output) && Files.exists(orphan.output)
+					&& hash(orphan.output).equals(orphan.outputHash)) {
+				Files.delete(orphan.output);
+				deleted++;
+			}
+		}
+		return deleted;
+	}
+
+	/**
+	 * Write manifest to its file, replacing it at once.
+	 *
+	 * @throws IOException
+	 */
+	public void save() throws IOException {
+		Path dir = file.toAbsolutePath().getParent();
+		Files.createDirectories(dir);
+		Path temp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+		try {
+			Writer out = Files.newBufferedWriter(temp, TranslationCache.CHARSET);
+			try {
+				out.write(OPTIONS + '\t' + options + '\n');
+				for (Entry entry : entries.values()) {
+					out.write(entry.input + "\t" + entry.size + '\t' + entry.mtime + '\t'
+							+ entry.inputHash + '\t' + entry.output + '\t' + entry.outputSize + '\t'
+							+ entry.outputHash + '\n');
+				}
+			} finally {
+				out.close();
+			}
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Compute SHA-256 hash of given file.
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static String hash(Path file) throws IOException {
+		MessageDigest digest = TranslationCache.newDigest();
+		InputStream in = Files.newInputStream(file);
+		try {
+			byte[] chunk = new byte[65536];
+			int n;
+			while ((n = in.read(chunk)) != -1) {
+				digest.update(chunk, 0, n);
+			}
+		} finally {
+			in.close();
+		}
+		return TranslationCache.toHex(digest.digest());
+	}
+
+	/**
+	 * Translation of one input.
+	 */
+	private static class Entry {
+
+		final Path input;
+		final long size;
+		long mtime;
+		final String inputHash;
+		final Path output;
+		final long outputSize;
+		final String outputHash;
+
+		Entry(Path input, long size, long mtime, String inputHash, Path output, long outputSize,
+				String outputHash) {
+			this.input = input;
+			this.size = size;
+			this.mtime = mtime;
+			this.inputHash = inputHash;
+			this.output = output;
+			this.outputSize = outputSize;
+			this.outputHash = outputHash;
+		}
+
+	}
+
+}
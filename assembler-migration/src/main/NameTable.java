@@ -0,0 +1,160 @@
+package main;
+
+import java.util.Random;
+
+/**
+ * Perfect hash table of names (keywords, registers or directives) used by {@link Scanner}. Table is
+ * built once, by searching for multiplier which maps hashes of all names to different slots, so
+ * every lookup needs only one comparison. Hash is computed case insensitively, one character at a
+ * time, using {@link #hash(int, char)} while name is being read.
+ * <p>
+ * Search is done during class initialization, so it is part of startup time of every run. To avoid
+ * it, multiplier found by earlier search is given as hint and tried first; search is needed only if
+ * names were changed.
+ *
+ * @author Igor Let
+ * @author Nikola Trkulja
+ */
+final class NameTable {
+
+	private final String[] names;
+	private final int[] codes;
+	private final int multiplier;
+	private final int shift;
+
+	/**
+	 * Number of multipliers tried for one table size before the table is made larger.
+	 */
+	private static final int TRIES = 1 << 12;
+
+	/**
+	 * Build table from given names indexed by their token code. Null elements are skipped.
+	 *
+	 * @param names
+	 * @param hint multiplier which is tried first, see {@link #getMultiplier()}
+	 */
+	public NameTable(String[] names, int hint) {
+		this.names = names;
+		int count = 0;
+		for (String name : names) {
+			if (name != null) {
+				count++;
+			}
+		}
+		int[] hashes = new int[count];
+		int[] nameCodes = new int[count];
+		for (int code = 0, i = 0; code < names.length; code++) {
+			if (names[code] != null) {
+				hashes[i] = hash(names[code]);
+				nameCodes[i++] = code;
+			}
+		}
+
+		// table has at least twice as many slots as there are names
+		int minBits = 1;
+		while (1 << minBits < 2 * count) {
+			minBits++;
+		}
+		for (int bits = minBits; bits < 16; bits++) {
+			int[] slots = place(hashes, nameCodes, hint, 32 - bits);
+			if (slots != null) {
+				codes = slots;
+				multiplier = hint;
+				shift = 32 - bits;
+				return;
+			}
+		}
+
+		// odd multipliers from fixed sequence, so the same names always give the same table
+		Random random = new Random(0);
+		for (int bits = minBits;; bits++) {
+			for (int i = 0; i < TRIES; i++) {
+				int m = random.nextInt() | 1;
+				int[] slots = place(hashes, nameCodes, m, 32 - bits);
+				if (slots != null) {
+					codes = slots;
+					multiplier = m;
+					shift = 32 - bits;
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Try to place names to slots using given multiplier. Returns slots filled with token codes, or
+	 * null if two names fall into the same slot.
+	 *
+	 * @return
+	 */
+	private static int[] place(int[] hashes, int[] nameCodes, int multiplier, int shift) {
+		int[] slots = new int[1 << (32 - shift)];
+		for (int i = 0; i < hashes.length; i++) {
+			int slot = (hashes[i] * multiplier) >>> shift;
+			if (slots[slot] != AbstractCompiler.none) {
+				return null;
+			}
+			slots[slot] = nameCodes[i];
+		}
+		return slots;
+	}
+
+	/**
+	 * Add character to hash of name. Upper and lower case letters give the same hash.
+	 *
+	 * @param hash
+	 * @param c
+	 * @return
+	 */
+	public static int hash(int hash, char c) {
+		return hash * 31 + (c | 0x20);
+	}
+
+	private static int hash(String name) {
+		int hash = 0;
+		for (int i = 0; i < name.length(); i++) {
+			hash = hash(hash, name.charAt(i));
+		}
+		return hash;
+	}
+
+	/**
+	 * Get token code of the only name which can have given hash, or {@link AbstractCompiler#none}
+	 * if there is no such name. Caller must check whether name is really the same.
+	 *
+	 * @param hash
+	 * @return
+	 */
+	public int candidate(int hash) {
+		return codes[(hash * multiplier) >>> shift];
+	}
+
+	/**
+	 * Get multiplier of table, which can be given as hint when the same table is built again.
+	 *
+	 * @return
+	 */
+	public int getMultiplier() {
+		return multiplier;
+	}
+
+	/**
+	 * Get number of slots of table.
+	 *
+	 * @return
+	 */
+	public int getSlots() {
+		return codes.length;
+	}
+
+	/**
+	 * Get name with given token code.
+	 *
+	 * @param code
+	 * @return
+	 */
+	public String name(int code) {
+		return names[code];
+	}
+
+}
@@ -1,10 +1,11 @@
 package main;
 
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.HashMap;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
 import java.util.Random;
 
@@ -18,20 +19,118 @@ import java.util.Random;
  */
 public class Parser extends AbstractCompiler {
 
-	private Scanner sc;
+	/**
+	 * Default seed of random value used for <strong>@data</strong>.
+	 */
+	public static final long DEFAULT_SEED = 0;
+
+	private TokenSource sc;
+	private TokenStream tokens;
+	private int pos;
 	private Token curr, la;
-	private ListIterator<Token> tokenListIterator;
+	private int currLine, laLine, nextLine;
+	private int line;
+
+	/**
+	 * Tokens of the last expanded macro, with their lines. Arrays are reused by every expansion.
+	 */
+	private Token[] injectedTokens = new Token[64];
+	private int[] injectedLines = new int[64];
+	private int injectedCount, injectedPos;
+
+	/**
+	 * Actual parameters of macro call and their lines, reused by every expansion.
+	 */
+	private Token[] actualParams = new Token[8];
+	private int[] actualLines = new int[8];
 	private CodeBuffer buffer;
 	private Token atData;
+	private long seed = DEFAULT_SEED;
+	private boolean lazyFlags;
+	private boolean folding = true;
+	private int actionLimit = ActionSystem.DEFAULT_LIMIT;
 
-	private BitSet oneArgComm, twoArgComm, registers, lowByte, highByte, doubleByte, singleByte;
-	private Map<String, Size> variableSize;
-	private Map<String, List<Token>> macroParams;
-	private Map<String, List<Token>> macroTokens;
+	/**
+	 * Kind of the last flag setting operation (the value of flag_op) and its size, if they are known
+	 * at this point of generated code, and flags already computed from it. Kind is
+	 * {@link #LAZY_UNKNOWN} after labels and calls.
+	 */
+	private int lazyKind = LAZY_UNKNOWN;
+	private Size lazySize;
+	private int computedFlags;
 
-	public Parser(Scanner sc) {
-		this.sc = sc;
+	/**
+	 * Bounds of values of registers at this point of generated code, indexed by code of 16bit
+	 * register, and values of their low bytes where low byte is known but the whole value is not
+	 * (-1 otherwise). Value is known if its bounds are the same.
+	 */
+	private final int[] minValues = new int[str.length], maxValues = new int[str.length],
+			lowBytes = new int[str.length];
+
+	/**
+	 * 16bit register which was compared with constant by the last instruction which set flags, so
+	 * that conditional jumps can narrow its bounds where they do not jump, or -1.
+	 */
+	private int comparedRegister = -1;
+	private int comparedValue;
+
+	/**
+	 * Bounds of temp computed by arithmetic instruction which is being generated, before it is
+	 * brought into range, and sign bits of its arguments, or -1 if they are not known.
+	 */
+	private long tempMin, tempMax;
+	private int sign1, sign2;
+
+	/**
+	 * Counters of parsed program, see {@link TranslationMetrics}.
+	 */
+	private int tokenCount, macroExpansions, procedures, flagBlocks;
+
+	/**
+	 * Sets of token codes. They are created once and never changed, so they are shared by all
+	 * parsers.
+	 */
+	private static final BitSet oneArgComm, twoArgComm, registers, lowByte, highByte, doubleByte,
+			singleByte;
+
+	/**
+	 * Codes of instructions which end basic block, because control may leave it there to code which
+	 * reads flags: jumps and calls. CALL Z of <strong>int</strong> and <strong>div</strong> ends
+	 * basic block only in procedure, where it returns to the caller, the main program is stopped by
+	 * it and nothing reads flags after that.
+	 */
+	private static final BitSet branches;
+
+	/**
+	 * Generated names of 16bit registers and generated values of 8bit registers, indexed by code
+	 * of 8bit register, so that they are not concatenated again for every instruction.
+	 */
+	private static final String[] xRegister, byteRegister;
+
+	/**
+	 * Codes of 16bit registers, indexed by code of their 8bit part.
+	 */
+	private static final int[] wordRegister;
+
+	/**
+	 * Constant arguments of <strong>inc</strong>, <strong>dec</strong> and <strong>neg</strong>.
+	 */
+	private static final Token ZERO = Scanner.numberToken(0), ONE = Scanner.numberToken(1);
+
+	/**
+	 * Kinds of flag setting operation kept in flag_op when flags are computed lazily. Flags of
+	 * {@link #LAZY_NONE} are in flag variables, and so is carry of {@link #LAZY_INC} and
+	 * {@link #LAZY_DEC}.
+	 */
+	private static final int LAZY_UNKNOWN = -1, LAZY_NONE = 0, LAZY_ADD = 1, LAZY_SUB = 2,
+			LAZY_INC = 3, LAZY_DEC = 4;
+
+	private static final int LOW_BYTE = 1, HIGH_BYTE = 2;
 
+	private static final int ALL_FLAGS = CodeBuffer.FLAG_C | CodeBuffer.FLAG_Z | CodeBuffer.FLAG_S
+			| CodeBuffer.FLAG_O;
+
+	static {
 		oneArgComm = new BitSet();
 		oneArgComm.set(interr);
 		oneArgComm.set(loop);
@@ -54,6 +153,20 @@ public class Parser extends AbstractCompiler {
 		oneArgComm.set(mul);
 		oneArgComm.set(div);
 
+		branches = new BitSet();
+		branches.set(loop);
+		branches.set(call);
+		branches.set(jmp);
+		branches.set(ja);
+		branches.set(jae);
+		branches.set(jb);
+		branches.set(jbe);
+		branches.set(jg);
+		branches.set(jge);
+		branches.set(jl);
+		branches.set(jle);
+		branches.set(je);
+
 		twoArgComm = new BitSet();
 		twoArgComm.set(mov);
 		twoArgComm.set(xchg);
@@ -103,14 +216,68 @@ public class Parser extends AbstractCompiler {
 		doubleByte.xor(lowByte);
 		doubleByte.xor(highByte);
 
-		buffer = new CodeBuffer();
+		xRegister = new String[str.length];
+		byteRegister = new String[str.length];
+		for (int code = singleByte.nextSetBit(0); code >= 0; code = singleByte.nextSetBit(code + 1)) {
+			xRegister[code] = str[code].charAt(0) + "x";
+			byteRegister[code] = xRegister[code] + (lowByte.get(code) ? " MOD 256" : " DIV 256");
+		}
+
+		wordRegister = new int[str.length];
+		wordRegister[al] = ax;
+		wordRegister[ah] = ax;
+		wordRegister[bl] = bx;
+		wordRegister[bh] = bx;
+		wordRegister[cl] = cx;
+		wordRegister[ch] = cx;
+		wordRegister[dl] = dx;
+		wordRegister[dh] = dx;
+	}
+
+	private Map<String, Size> variableSize;
+	private Map<String, List<Token>> macroParams;
+	private Map<String, List<Token>> macroTokens;
+	private Map<String, int[]> macroLines;
+
+	/**
+	 * Create parser which reads tokens from given source, for example {@link Scanner} or
+	 * {@link TokenPipeline}. Source is closed when parsing is finished.
+	 * 
+	 * @param sc
+	 */
+	public Parser(TokenSource sc) {
+		this.sc = sc;
+		init();
+	}
+
+	/**
+	 * Create parser which reads tokens from already scanned token stream. Stream is not changed, so
+	 * it can be parsed again by another parser.
+	 * 
+	 * @param tokens
+	 */
+	public Parser(TokenStream tokens) {
+		this.tokens = tokens;
+		pos = 0;
+		init();
+	}
+
+	/**
+	 * Initialize buffer and maps, and read first two tokens.
+	 */
+	private void init() {
+		buffer = newBuffer(null);
+		forgetState();
 
 		variableSize = new HashMap<String, Size>();
 		macroParams = new HashMap<String, List<Token>>();
 		macroTokens = new HashMap<String, List<Token>>();
+		macroLines = new HashMap<String, int[]>();
 
 		curr = nextToken();
+		currLine = nextLine;
 		la = nextToken();
+		laLine = nextLine;
 	}
 
 	/**
@@ -121,8 +288,8 @@ public class Parser extends AbstractCompiler {
 	 * @return
 	 */
 	private String getXRegister(int code) {
-		if (lowByte.get(code) || highByte.get(code)) {
-			return str[code].charAt(0) + "x";
+		if (singleByte.get(code)) {
+			return xRegister[code];
 		} else {
 			throw new IllegalArgumentException("Invalid token code number: " + code);
 		}
@@ -135,15 +302,40 @@ public class Parser extends AbstractCompiler {
 	 * @return
 	 */
 	private String getByteRegister(int code) {
-		if (lowByte.get(code)) {
-			return str[code].charAt(0) + "x MOD 256";
-		} else if (highByte.get(code)) {
-			return str[code].charAt(0) + "x DIV 256";
+		if (singleByte.get(code)) {
+			return byteRegister[code];
 		} else {
 			throw new IllegalArgumentException("Invalid token code number: " + code);
 		}
 	}
 
+	/**
+	 * Checks if current token is expected token. If that is the case moves to next token, and if
+	 * it's not throws exception.
+	 * 
+	 * @param code
+	 */
+	private void check(int code) {
+		if (curr.code != code) {
+			throw new ParsingException(currLine, curr.code, code);
+		}
+		advance();
+	}
+
+	/**
+	 * Checks if current token is one of two expected tokens, like {@link #check(int...)} but
+	 * without array of codes.
+	 * 
+	 * @param code1
+	 * @param code2
+	 */
+	private void check(int code1, int code2) {
+		if (curr.code != code1 && curr.code != code2) {
+			throw new ParsingException(currLine, curr.code, code1, code2);
+		}
+		advance();
+	}
+
 	/**
 	 * Checks if current token is one of expected tokens which are provided as arguments. If that is
 	 * the case moves to next token, and if it's not throws exception.
@@ -153,27 +345,59 @@ public class Parser extends AbstractCompiler {
 	private void check(int... codes) {
 		for (int i = 0; i < codes.length; i++) {
 			if (curr.code == codes[i]) {
-				// read next token
-				curr = la;
-				la = nextToken();
+				advance();
 				return;
 			}
 		}
 		// error
-		throw new ParsingException(curr.line, curr.code, codes);
+		throw new ParsingException(currLine, curr.code, codes);
+	}
+
+	/**
+	 * Move to next token. Line of the current token becomes line of the last parsed token.
+	 */
+	private void advance() {
+		line = currLine;
+		curr = la;
+		currLine = laLine;
+		la = nextToken();
+		laLine = nextLine;
 	}
 
 	/**
 	 * Get next token. First checks if there are some injected tokens, if that is the case returns
-	 * next token using iterator, and if it's not return next token from scanner.
+	 * next injected token, and if it's not return next token from token stream or scanner.
+	 * Line of returned token is stored to nextLine.
 	 * 
 	 * @return
 	 */
 	private Token nextToken() {
-		if (tokenListIterator != null && tokenListIterator.hasNext()) {
-			return tokenListIterator.next();
+		if (injectedPos < injectedCount) {
+			nextLine = injectedLines[injectedPos];
+			return injectedTokens[injectedPos++];
+		}
+		tokenCount++;
+		if (tokens != null) {
+			nextLine = tokens.line(pos);
+			return tokens.token(pos++);
 		}
-		return sc.next();
+		Token ret = sc.next();
+		nextLine = sc.getLine();
+		return ret;
+	}
+
+	/**
+	 * Create code buffer, which measures its time if metrics are enabled.
+	 * 
+	 * @param out writer of streaming buffer, or null
+	 * @return
+	 */
+	private static CodeBuffer newBuffer(Writer out) {
+		if (TranslationMetrics.isEnabled()) {
+			return out == null ? new TranslationMetrics.TimedBuffer()
+					: new TranslationMetrics.TimedBuffer(out);
+		}
+		return out == null ? new CodeBuffer() : new CodeBuffer(out);
 	}
 
 	/**
@@ -183,11 +407,145 @@ public class Parser extends AbstractCompiler {
 	 * @return
 	 */
 	public String parse() {
-		Program();
-		buffer.close();
+		try {
+			try {
+				Program();
+			} finally {
+				close();
+			}
+			buffer.close();
+		} finally {
+			buffer.dispose();
+		}
 		return buffer.toString();
 	}
 
+	/**
+	 * Parse input file and stream generated action system to given writer, so only the code of
+	 * procedures (and the beginning of the body, until it is known whether there are procedures)
+	 * has to be kept aside. Writer is flushed, but not closed.
+	 * 
+	 * @param out
+	 */
+	public void parse(Writer out) {
+		buffer = newBuffer(out);
+		if (actionLimit != ActionSystem.DEFAULT_LIMIT) {
+			buffer.setActionLimit(actionLimit);
+		}
+		try {
+			try {
+				Program();
+			} finally {
+				close();
+			}
+			buffer.close();
+		} finally {
+			// deletes temporary files if translation failed
+			buffer.dispose();
+		}
+	}
+
+	/**
+	 * Set seed of random value used for <strong>@data</strong>, so the same program is always
+	 * translated to the same code. Must be set before parsing.
+	 * 
+	 * @param seed
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * Set whether flags are computed lazily. Lazy arithmetic instruction does not compute flags,
+	 * it only records kind of operation, its operands, result and size in variables flag_op,
+	 * flag_a, flag_b, flag_r and flag_n, and flags are computed from them by conditional jumps
+	 * which read them. Must be set before parsing.
+	 * 
+	 * @param lazyFlags
+	 */
+	public void setLazyFlags(boolean lazyFlags) {
+		this.lazyFlags = lazyFlags;
+	}
+
+	public boolean isLazyFlags() {
+		return lazyFlags;
+	}
+
+	/**
+	 * Set whether values and bounds of registers are tracked, so that known values are folded into
+	 * constants and redundant checks are left out. Without it, nothing is ever known about
+	 * registers, which only checkers need, to compare folded code to the code it replaces. Must be
+	 * set before parsing.
+	 * 
+	 * @param folding
+	 */
+	void setFolding(boolean folding) {
+		this.folding = folding;
+	}
+
+	/**
+	 * Set number of characters of code of action system kept before its control flow is given up
+	 * and it is written as it is (see {@link CodeBuffer#setActionLimit(int)}), so that checkers can
+	 * compare code written as it is to structured code. Must be set before parsing.
+	 * 
+	 * @param actionLimit
+	 */
+	void setActionLimit(int actionLimit) {
+		this.actionLimit = actionLimit;
+		buffer.setActionLimit(actionLimit);
+	}
+
+	/**
+	 * Get number of tokens read from source, not counting tokens of expanded macros.
+	 * 
+	 * @return
+	 */
+	public int getTokenCount() {
+		return tokenCount;
+	}
+
+	public int getMacroExpansions() {
+		return macroExpansions;
+	}
+
+	public int getProcedures() {
+		return procedures;
+	}
+
+	/**
+	 * Get number of generated blocks which compute value of a flag.
+	 * 
+	 * @return
+	 */
+	public int getFlagBlocks() {
+		return flagBlocks;
+	}
+
+	/**
+	 * Get time spent in code buffer, or 0 if metrics were not enabled when parser was created.
+	 * 
+	 * @return
+	 */
+	public long getCodeBufferNanos() {
+		if (buffer instanceof TranslationMetrics.TimedBuffer) {
+			return ((TranslationMetrics.TimedBuffer) buffer).getNanos();
+		}
+		return 0;
+	}
+
+	/**
+	 * Close source of tokens.
+	 */
+	private void close() {
+		if (sc != null) {
+			sc.close();
+		}
+	}
+
 	/**
 	 * Parse Program. Generate stack if there is stack segment.
 	 */
@@ -198,6 +556,10 @@ public class Parser extends AbstractCompiler {
 		}
 		check(model);
 		check(small, compact, medium, large);
+		if (lazyFlags) {
+			buffer.insertIntoDeclaration(
+					", flag_op := 0, flag_a := 0, flag_b := 0, flag_r := 0, flag_n := 16");
+		}
 		if (curr.code == stack) {
 			check(stack);
 			check(number);
@@ -244,7 +606,7 @@ public class Parser extends AbstractCompiler {
 					buffer.insertIntoDeclaration(" >");
 				}
 			} else {
-				throw new ParsingException(curr.line, curr.code, number, string);
+				throw new ParsingException(currLine, curr.code, number, string);
 			}
 		}
 	}
@@ -256,13 +618,13 @@ public class Parser extends AbstractCompiler {
 	 */
 	private void Value(String varName) {
 		if (curr.code == number) {
-			buffer.insertIntoDeclaration(Integer.toString(toUnsigned(curr.val, variableSize
-					.get(getVariableName(varName)))));
+			buffer.insertIntoDeclaration(number(toUnsigned(curr.val, variableSize.get(varName))));
 			check(number);
 		} else if (curr.code == string) {
 			// insert array or ascii codes
 			for (int i = 0; i < curr.str.length(); i++) {
-				buffer.insertIntoDeclaration(String.valueOf((int) curr.str.charAt(i)));
+				buffer.insertIntoDeclaration(number(toUnsigned(curr.str.charAt(i),
+						variableSize.get(varName))));
 				if (i < curr.str.length() - 1) {
 					buffer.insertIntoDeclaration(",");
 				}
@@ -272,7 +634,7 @@ public class Parser extends AbstractCompiler {
 			buffer.insertIntoDeclaration("0");
 			check(quest);
 		} else {
-			throw new ParsingException(curr.line, curr.code, number, string);
+			throw new ParsingException(currLine, curr.code, number, string);
 		}
 	}
 
@@ -288,6 +650,7 @@ public class Parser extends AbstractCompiler {
 
 			buffer.insertIntoBody("ACTIONS beg:");
 			buffer.insertIntoBody("beg == ");
+			buffer.beginActions();
 
 			while ((curr.code == ident && (la.code == colon || la.code == proc || la.code == macro || isMacro(curr.str)))
 					|| oneArgComm.get(curr.code) || twoArgComm.get(curr.code)) {
@@ -320,6 +683,7 @@ public class Parser extends AbstractCompiler {
 
 			}
 
+			buffer.endActions();
 			buffer.insertIntoBody("END");
 			buffer.insertIntoBody("ENDACTIONS");
 
@@ -353,16 +717,22 @@ public class Parser extends AbstractCompiler {
 		macroParams.put(macroName, currentMacroParams);
 
 		List<Token> currentMacroTokens = new ArrayList<Token>();
+		List<Integer> currentMacroLines = new ArrayList<Integer>();
 		while (curr.code != endm) {
 			if (curr.code == ident && isMacro(curr.str)) {
 				injectMacro();
 			} else {
 				currentMacroTokens.add(curr);
-				curr = la;
-				la = nextToken();
+				currentMacroLines.add(currLine);
+				advance();
 			}
 		}
 		macroTokens.put(macroName, currentMacroTokens);
+		int[] lines = new int[currentMacroLines.size()];
+		for (int i = 0; i < lines.length; i++) {
+			lines[i] = currentMacroLines.get(i);
+		}
+		macroLines.put(macroName, lines);
 		check(endm);
 	}
 
@@ -370,9 +740,16 @@ public class Parser extends AbstractCompiler {
 	 * Parse procedure. Assembler procedure is translated to WSL procedure.
 	 */
 	private void Procedure() {
+		ExpansionEvent event = new ExpansionEvent();
+		event.begin();
+		event.name = curr.str;
+		event.line = currLine;
+		procedures++;
+		forgetState();
 		buffer.insertIntoProcedure("PROC ", curr.str, "() == ");
 		buffer.insertIntoProcedure("ACTIONS beg: ");
 		buffer.insertIntoProcedure("beg == ");
+		buffer.beginActions();
 
 		check(ident);
 		check(proc);
@@ -396,18 +773,24 @@ public class Parser extends AbstractCompiler {
 		}
 		check(endp);
 
+		buffer.endActions();
 		buffer.insertIntoProcedure("END");
 		buffer.insertIntoProcedure("ENDACTIONS");
 		buffer.insertIntoProcedure("END");
+		forgetState();
+
+		if (event.shouldCommit()) {
+			event.kind = ExpansionEvent.PROCEDURE;
+			event.commit();
+		}
 	}
 
 	/**
-	 * Parse label. Generate code for calling new action system.
+	 * Parse label. Label begins new action, unless its control flow is structured.
 	 */
 	private void Label() {
-		buffer.insert("CALL ", curr.str);
-		buffer.insert("END");
-		buffer.insert(curr.str, " == ");
+		forgetState();
+		buffer.label(curr.str);
 		check(ident);
 		check(colon);
 	}
@@ -416,48 +799,78 @@ public class Parser extends AbstractCompiler {
 	 * Method called when we encounter macro call inside procedure, statement or another macro. This
 	 * method uses list of formal parameters and macro tokens (retrieved from the maps using macro
 	 * name) to generate actual tokens of a macro (where every formal parameter is replaced with
-	 * actual parameter). After that tokens curr and la are appended to the end of macro tokens list
-	 * and list iterator is set to the beginning of newly formed list.
+	 * actual parameter). After that tokens curr and la are appended to the end of macro tokens and
+	 * parser continues from the beginning of them. Tokens are put into arrays which are reused by
+	 * every expansion, like actual parameters, so expansion allocates only when arrays have to
+	 * grow.
 	 */
 	private void injectMacro() {
 		// calling method must ensure that current token is holding macro name
 		String macroName = curr.str;
+		ExpansionEvent event = new ExpansionEvent();
+		event.begin();
+		event.line = currLine;
+		macroExpansions++;
 		List<Token> formalParams = macroParams.get(macroName);
-		List<Token> actualParams = new ArrayList<Token>();
 		List<Token> tokens = macroTokens.get(macroName);
-		List<Token> generatedTokens = new ArrayList<Token>();
+		int[] lines = macroLines.get(macroName);
 		check(ident);
 
+		if (actualParams.length < formalParams.size()) {
+			actualParams = new Token[formalParams.size()];
+			actualLines = new int[formalParams.size()];
+		}
 		for (int i = 0; i < formalParams.size(); i++) {
-			actualParams.add(Argument());
+			actualLines[i] = currLine;
+			actualParams[i] = Argument();
 			if (curr.code == comma) {
 				check(comma);
 			}
 		}
 
+		// tokens which are left from previous expansion are dropped, like they always were
+		if (injectedTokens.length < tokens.size() + 2) {
+			injectedTokens = new Token[tokens.size() + 2];
+			injectedLines = new int[tokens.size() + 2];
+		}
+		injectedCount = 0;
+		injectedPos = 0;
+
 		// iterate through all macro tokens and replace all occurrences of
 		// formal parameters with actual parameters
-		for (Token token : tokens) {
+		for (int j = 0; j < tokens.size(); j++) {
+			Token token = tokens.get(j);
 			// iterate through all formal parameters
 			boolean found = false;
 			for (int i = 0; i < formalParams.size() && !found; i++) {
 				// if current token is formal parameter put actual parameter
 				// to list
 				if (token.sameAs(formalParams.get(i))) {
-					generatedTokens.add(actualParams.get(i));
+					injectedLines[injectedCount] = actualLines[i];
+					injectedTokens[injectedCount++] = actualParams[i];
 					found = true;
 				}
 			}
 			if (!found) {
-				generatedTokens.add(token);
+				injectedLines[injectedCount] = lines[j];
+				injectedTokens[injectedCount++] = token;
 			}
 		}
 
-		generatedTokens.add(curr);
-		generatedTokens.add(la);
-		tokenListIterator = generatedTokens.listIterator();
+		injectedLines[injectedCount] = currLine;
+		injectedTokens[injectedCount++] = curr;
+		injectedLines[injectedCount] = laLine;
+		injectedTokens[injectedCount++] = la;
 		curr = nextToken();
+		currLine = nextLine;
 		la = nextToken();
+		laLine = nextLine;
+
+		if (event.shouldCommit()) {
+			event.kind = ExpansionEvent.MACRO;
+			event.name = macroName;
+			event.commit();
+		}
 	}
 
 	/**
@@ -470,33 +883,25 @@ public class Parser extends AbstractCompiler {
 		} else if (twoArgComm.get(curr.code)) {
 			TwoArgStatement();
 		} else {
-			throw new ParsingException(curr.line, curr.str, "one or two argument instruction");
+			throw new ParsingException(currLine, curr.str, "one or two argument instruction");
 		}
 	}
 
-	/**
-	 * Get arguments of instructions with two parameters. Returns two element {@link Token} array.
-	 * 
-	 * @return
-	 */
-	private Token[] getArguments() {
-		Token[] ret = new Token[2];
-		ret[0] = Argument();
-		check(comma);
-		ret[1] = Argument();
-		return ret;
-	}
-
 	/**
 	 * Return unsigned version of given number using size parameter. For example, if size is 8bits
 	 * and number is -3 method returns 253 (=256-3). When considering bit representation of -3 and
-	 * 253 those two numbers are the same.
+	 * 253 those two numbers are the same. Numbers which do not fit into size are rejected, as the
+	 * assembler does, so that values of variables and registers always fit into their size.
 	 * 
 	 * @param num
 	 * @param size
 	 * @return
+	 * @throws ParsingException if number does not fit into size
 	 */
 	private int toUnsigned(int num, Size size) {
+		if (num < -(1 << size.getSize()) || num >= 1 << size.getSize()) {
+			throw new ParsingException(line, String.valueOf(num), size.getSize() + "bit number");
+		}
 		if (num >= 0) {
 			return num;
 		}
@@ -508,35 +913,30 @@ public class Parser extends AbstractCompiler {
 	 * <strong>xchg</strong>, <strong>cmp</strong>, <strong>add</strong>, <strong>sub</strong>.
 	 */
 	private void TwoArgStatement() {
-		Token[] arguments;
-		switch (curr.code) {
+		Token instruction = curr;
+		if (!twoArgComm.get(instruction.code)) {
+			throw new IllegalArgumentException("Unsupported two argument instruction: " + curr.str);
+		}
+		advance();
+		Token arg1 = Argument();
+		check(comma);
+		Token arg2 = Argument();
+		switch (instruction.code) {
 		case mov:
-			check(mov);
-			arguments = getArguments();
-			mov(arguments[0], arguments[1]);
+			mov(arg1, arg2);
 			break;
 		case xchg:
-			check(xchg);
-			arguments = getArguments();
-			xchg(arguments[0], arguments[1]);
+			xchg(arg1, arg2);
 			break;
 		case cmp:
-			check(cmp);
-			arguments = getArguments();
-			cmp(arguments[0], arguments[1]);
+			cmp(arg1, arg2);
 			break;
 		case add:
-			check(add);
-			arguments = getArguments();
-			add(arguments[0], arguments[1]);
+			add(arg1, arg2);
 			break;
 		case sub:
-			check(sub);
-			arguments = getArguments();
-			sub(arguments[0], arguments[1]);
+			sub(arg1, arg2);
 			break;
-		default:
-			throw new IllegalArgumentException("Unsupported two argument instruction: " + curr.str);
 		}
 	}
 
@@ -559,6 +959,11 @@ public class Parser extends AbstractCompiler {
 	 */
 	private void cmp(Token arg1, Token arg2) {
 		arithmeticInstruction(arg1, arg2, Operation.COMPARE);
+		int value = knownValue(arg2, Size.DOUBLE_BYTE);
+		if (doubleByte.get(arg1.code) && value >= 0) {
+			comparedRegister = arg1.code;
+			comparedValue = value;
+		}
 	}
 
 	/**
@@ -617,65 +1022,61 @@ public class Parser extends AbstractCompiler {
 		Size size;
 		if (doubleByte.get(arg1.code)) {// reg
 			size = Size.DOUBLE_BYTE;
-			val1 = arg1.str;
+			val1 = readRegister(arg1.code);
 
 			if (doubleByte.get(arg2.code)) {// reg
-				val2 = arg2.str;
-			} else if (isVariable(arg2.str)) {// mem (dw)
+				val2 = readRegister(arg2.code);
+			} else if (isVariable(arg2)) {// mem (dw)
 				val2 = arg2.str;
 			} else if (arg2.code == number) { // immediate (const)
-				int val = toUnsigned(arg2.val, Size.DOUBLE_BYTE);
-				val2 = Integer.toString(val);
+				val2 = number(toUnsigned(arg2.val, Size.DOUBLE_BYTE));
 			} else {
-				throw new ParsingException(arg1.line, arg2.str,
+				throw new ParsingException(line, arg2.str,
 						"16bit register, dw variable or constant value for second argument");
 			}
 
 		} else if (highByte.get(arg1.code)) {// reg
 			size = Size.BYTE;
-			val1 = getXRegister(arg1.code) + " DIV 256";
+			val1 = readRegister(arg1.code);
 
 			if (singleByte.get(arg2.code)) {// reg
-				val2 = getByteRegister(arg2.code);
-			} else if (isVariable(arg2.str)) {// mem (db)
+				val2 = readRegister(arg2.code);
+			} else if (isVariable(arg2)) {// mem (db)
 				val2 = arg2.str;
 			} else if (arg2.code == number) { // immediate (const)
-				int val = toUnsigned(arg2.val, Size.BYTE);
-				val2 = Integer.toString(val);
+				val2 = number(toUnsigned(arg2.val, Size.BYTE));
 			} else {
-				throw new ParsingException(arg1.line, arg2.str,
+				throw new ParsingException(line, arg2.str,
 						"8bit (high or low part of) register, db variable or constant value");
 			}
 
 		} else if (lowByte.get(arg1.code)) {// reg
 			size = Size.BYTE;
-			val1 = getXRegister(arg1.code) + " MOD 256";
+			val1 = readRegister(arg1.code);
 
 			if (singleByte.get(arg2.code)) {// reg
-				val2 = getByteRegister(arg2.code);
-			} else if (isVariable(arg2.str)) {// mem (db)
+				val2 = readRegister(arg2.code);
+			} else if (isVariable(arg2)) {// mem (db)
 				val2 = arg2.str;
 			} else if (arg2.code == number) { // immediate (const)
-				int val = toUnsigned(arg2.val, Size.BYTE);
-				val2 = Integer.toString(val);
+				val2 = number(toUnsigned(arg2.val, Size.BYTE));
 			} else {
-				throw new ParsingException(arg1.line, arg2.str,
+				throw new ParsingException(line, arg2.str,
 						"8bit (high or low part of) register, db variable or constant value");
 			}
 
-		} else if (isVariable(arg1.str)) { // mem (db or dw)
-			size = variableSize.get(getVariableName(arg1.str));
+		} else if (isVariable(arg1)) { // mem (db or dw)
+			size = variableSize.get(arg1.name);
 			val1 = arg1.str;
 
 			if (doubleByte.get(arg2.code)) {// reg
-				val2 = arg2.str;
+				val2 = readRegister(arg2.code);
 			} else if (singleByte.get(arg2.code)) {// reg
-				val2 = getByteRegister(arg2.code);
+				val2 = readRegister(arg2.code);
 			} else if (arg2.code == number) {// immediate (const)
-				int val = toUnsigned(arg2.val, size);
-				val2 = Integer.toString(val);
+				val2 = number(toUnsigned(arg2.val, size));
 			} else {
-				throw new ParsingException(arg1.line, arg2.str,
+				throw new ParsingException(line, arg2.str,
 						"register (16bit or 8bit) or constant value");
 			}
 
@@ -685,52 +1086,104 @@ public class Parser extends AbstractCompiler {
 				val1 = arg1.str;
 
 				if (doubleByte.get(arg2.code)) {// reg
-					val2 = arg2.str;
+					val2 = readRegister(arg2.code);
 					size = Size.DOUBLE_BYTE;
 				} else if (singleByte.get(arg2.code)) {// reg
-					val2 = getByteRegister(arg2.code);
+					val2 = readRegister(arg2.code);
 					size = Size.BYTE;
-				} else if (isVariable(arg2.str)) {// mem (db or dw)
+				} else if (isVariable(arg2)) {// mem (db or dw)
 					val2 = arg2.str;
-					size = variableSize.get(getVariableName(arg2.str));
+					size = variableSize.get(arg2.name);
 				} else {
-					throw new ParsingException(arg1.line, arg2.str,
+					throw new ParsingException(line, arg2.str,
 							"register (16bit or 8bit), db or dw variable");
 				}
 
 			} else {
-				throw new ParsingException(arg1.line, operation.toString(), Operation.NEGATION
+				throw new ParsingException(line, operation.toString(), Operation.NEGATION
 						.toString());
 			}
 
 		} else {
-			throw new ParsingException(arg1.line, arg1.str,
+			throw new ParsingException(line, arg1.str,
 					"8bit (high or low part of) register, 16bit register, db or dw variable or constant value");
 		}
 
+		comparedRegister = -1;
+		long min1 = lowerBound(arg1, size), max1 = upperBound(arg1, size);
+		long min2 = lowerBound(arg2, size), max2 = upperBound(arg2, size);
+		switch (operation) {
+		case ADDITION:
+		case INCREMENTATION:
+			tempMin = min1 + min2;
+			tempMax = max1 + max2;
+			break;
+		case MULTIPLICATION:
+			tempMin = min1 * min2;
+			tempMax = max1 * max2;
+			break;
+		default:
+			tempMin = min1 - max2;
+			tempMax = max1 - min2;
+		}
+		sign1 = signBit(min1, max1, size);
+		sign2 = signBit(min2, max2, size);
+
+		int value1 = knownValue(arg1, size), value2 = knownValue(arg2, size);
+		if (value1 >= 0 && value2 >= 0 && operation != Operation.NEGATION) {
+			foldArithmetic(arg1, value1, value2, size, operation);
+			return;
+		}
 		buffer.insert("temp := ", val1, ";");
-		buffer.insert("temp := temp ", operation.getOperator(), " ", val2, ";");
+		buffer.append("temp := temp ").append(operation.getOperator()).append(" ").append(val2)
+				.append(";").newLine();
 
+		if (lazyFlags && operation != Operation.MULTIPLICATION) {
+			setLazyFlags(val1, val2, size, operation, null);
+			if (operation != Operation.COMPARE) {
+				setResult(arg1, -1);
+			}
+		} else {
+			setFlagsAndResult(arg1, val1, val2, size, operation);
+		}
+		if (operation != Operation.COMPARE && operation != Operation.MULTIPLICATION
+				&& doubleByte.get(arg1.code) && tempInRange(size)) {
+			setRegisterRange(arg1.code, tempMin, tempMax);
+		}
+	}
+
+	/**
+	 * Generate set flag code and set result code of arithmetic instruction whose result is in
+	 * temp.
+	 * 
+	 * @param arg1
+	 * @param val1
+	 * @param val2
+	 * @param size
+	 * @param operation
+	 */
+	private void setFlagsAndResult(Token arg1, String val1, String val2, Size size,
+			Operation operation) {
 		switch (operation) {
 		case ADDITION:
 			setAddFlags(val1, val2, size);
-			setResult(arg1);
+			setResult(arg1, -1);
 			break;
 		case NEGATION:
 		case SUBTRACTION:
 			setSubFlags(val1, val2, size);
-			setResult(arg1);
+			setResult(arg1, -1);
 			break;
 		case COMPARE:
 			setSubFlags(val1, val2, size);
 			break;
 		case INCREMENTATION:
 			setIncFlags(val1, val2, size);
-			setResult(arg1);
+			setResult(arg1, -1);
 			break;
 		case DECREMENTATION:
 			setDecFlags(val1, val2, size);
-			setResult(arg1);
+			setResult(arg1, -1);
 			break;
 		case MULTIPLICATION:
 			setMulFlags(size);
@@ -741,6 +1194,106 @@ public class Parser extends AbstractCompiler {
 		}
 	}
 
+	/**
+	 * Generate code of arithmetic instruction whose arguments are known at this point of generated
+	 * code. Its result and flags are computed here, and generated code only assigns them.
+	 * 
+	 * @param arg1
+	 * @param value1 value of the first argument
+	 * @param value2 value of the second argument
+	 * @param size
+	 * @param operation
+	 */
+	private void foldArithmetic(Token arg1, int value1, int value2, Size size,
+			Operation operation) {
+		long modulus = 1L << size.getSize();
+		long temp;
+		int result;
+		boolean addition;
+		switch (operation) {
+		case ADDITION:
+		case INCREMENTATION:
+			temp = (long) value1 + value2;
+			result = (int) (temp % modulus);
+			addition = true;
+			break;
+		case SUBTRACTION:
+		case COMPARE:
+		case DECREMENTATION:
+			temp = (long) value1 - value2;
+			result = (int) (temp < 0 ? temp + modulus : temp);
+			addition = false;
+			break;
+		case MULTIPLICATION:
+			setMulFlags(size);
+			setMulResult(size);
+			return;
+		default:
+			throw new IllegalArgumentException("Operator not supported " + operation.getOperator());
+		}
+
+		if (lazyFlags) {
+			setLazyFlags(number(value1), number(value2), size, operation, number(result));
+		} else {
+			if (operation != Operation.INCREMENTATION && operation != Operation.DECREMENTATION) {
+				setFlag(CodeBuffer.FLAG_C, "flag_c", addition ? temp >= modulus : temp < 0);
+			}
+			int bit = size.getSize() - 1;
+			int sign1 = value1 >> bit & 1, sign2 = value2 >> bit & 1, sign = result >> bit & 1;
+			setFlag(CodeBuffer.FLAG_Z, "flag_z", result == 0);
+			setFlag(CodeBuffer.FLAG_S, "flag_s", sign == 1);
+			setFlag(CodeBuffer.FLAG_O, "flag_o", addition ? sign1 == sign2 && sign != sign2
+					: sign1 != sign2 && sign == sign2);
+		}
+		if (operation != Operation.COMPARE) {
+			setResult(arg1, result);
+		}
+	}
+
+	/**
+	 * Check if temp computed by arithmetic instruction which is being generated is surely in range
+	 * of given size, so that it need not be wrapped.
+	 * 
+	 * @param size
+	 * @return
+	 */
+	private boolean tempInRange(Size size) {
+		return tempMin >= 0 && tempMax < 1L << size.getSize();
+	}
+
+	/**
+	 * Get sign bit of values of given size between given bounds, if it is the same for all of
+	 * them.
+	 * 
+	 * @param min
+	 * @param max
+	 * @param size
+	 * @return sign bit, or -1 if it is not known
+	 */
+	private static int signBit(long min, long max, Size size) {
+		long half = 1L << size.getSize() - 1;
+		if (min >= 0 && max < half) {
+			return 0;
+		} else if (min >= half && max < 2 * half) {
+			return 1;
+		}
+		return -1;
+	}
+
+	/**
+	 * Generate code which sets given flag to known value.
+	 * 
+	 * @param flag
+	 * @param name
+	 * @param value
+	 */
+	private void setFlag(int flag, String name, boolean value) {
+		flagBlocks++;
+		buffer.beginFlags(flag);
+		buffer.insert(name, value ? " := 1;" : " := 0;");
+		buffer.endFlags();
+	}
+
 	/**
 	 * Generates code for assembler <strong>div</strong> instruction which performs unsigned
 	 * division. Behavior: <code>div arg</code> is doing following al := ax DIV arg, ah := ax MOD
@@ -758,7 +1311,7 @@ public class Parser extends AbstractCompiler {
 	 */
 	private void div(Token arg) {
 		if (doubleByte.get(arg.code)
-				|| variableSize.get(getVariableName(arg.str)).equals(Size.DOUBLE_BYTE)) {
+				|| variableSize.get(arg.name) == Size.DOUBLE_BYTE) {
 			buffer.insert("temp :=  (dx * 65536 + ax) DIV ", arg.str, ";");
 			buffer.insert("IF ", arg.str, " = 0 OR temp >= 65536 THEN");
 			buffer.insert("CALL Z");
@@ -766,8 +1319,9 @@ public class Parser extends AbstractCompiler {
 			buffer.insert("dx := (dx * 65536 + ax) MOD ", arg.str, ";");
 			buffer.insert("ax := temp");
 			buffer.insert("FI;");
+			setRegisterValue(dx, -1);
 		} else if (singleByte.get(arg.code)
-				|| variableSize.get(getVariableName(arg.str)).equals(Size.BYTE)) {
+				|| variableSize.get(arg.name) == Size.BYTE) {
 			buffer.insert("temp := ax DIV ", arg.str, ";");
 			buffer.insert("IF ", arg.str, " = 0 OR temp >= 256 THEN");
 			buffer.insert("CALL Z");
@@ -775,9 +1329,10 @@ public class Parser extends AbstractCompiler {
 			buffer.insert("ax := (ax MOD ", arg.str, ") * 256 + temp");
 			buffer.insert("FI;");
 		} else {
-			throw new ParsingException(arg.line, arg.str,
+			throw new ParsingException(line, arg.str,
 					"register (16bit or 8bit) or variable (db or dw)");
 		}
+		setRegisterValue(ax, -1);
 	}
 
 	/**
@@ -798,15 +1353,15 @@ public class Parser extends AbstractCompiler {
 	 */
 	private void mul(Token arg) {
 		if (doubleByte.get(arg.code)
-				|| variableSize.get(getVariableName(arg.str)).equals(Size.DOUBLE_BYTE)) {
-			arithmeticInstruction(new Token(ax, 0, str[ax], arg.line), arg,
+				|| variableSize.get(arg.name) == Size.DOUBLE_BYTE) {
+			arithmeticInstruction(Token.of(ax), arg,
 					Operation.MULTIPLICATION);
 		} else if (singleByte.get(arg.code)
-				|| variableSize.get(getVariableName(arg.str)).equals(Size.BYTE)) {
-			arithmeticInstruction(new Token(al, 0, str[al], arg.line), arg,
+				|| variableSize.get(arg.name) == Size.BYTE) {
+			arithmeticInstruction(Token.of(al), arg,
 					Operation.MULTIPLICATION);
 		} else {
-			throw new ParsingException(arg.line, arg.str,
+			throw new ParsingException(line, arg.str,
 					"register (16bit or 8bit) or variable (db or dw)");
 		}
 	}
@@ -817,11 +1372,25 @@ public class Parser extends AbstractCompiler {
 	 * @param size
 	 */
 	private void setMulResult(Size size) {
-		if (size == Size.BYTE) {
+		if (tempMin == tempMax) {
+			buffer.insert("ax := ", number((int) (tempMin % 65536)), ";");
+			setRegisterValue(ax, (int) (tempMin % 65536));
+			if (size == Size.DOUBLE_BYTE) {
+				buffer.insert("dx := ", number((int) (tempMin / 65536)), ";");
+				setRegisterValue(dx, (int) (tempMin / 65536));
+			}
+		} else if (size == Size.BYTE || tempMax < 65536) {
 			buffer.insert("ax := temp;");
+			setRegisterRange(ax, tempMin, tempMax);
+			if (size == Size.DOUBLE_BYTE) {
+				buffer.insert("dx := 0;");
+				setRegisterValue(dx, 0);
+			}
 		} else { // double byte
 			buffer.insert("ax := temp MOD 65536;");
 			buffer.insert("dx := temp DIV 65536;");
+			setRegisterValue(ax, -1);
+			setRegisterValue(dx, -1);
 		}
 	}
 
@@ -831,34 +1400,486 @@ public class Parser extends AbstractCompiler {
 	 * @param size
 	 */
 	private void setMulFlags(Size size) {
-		buffer.insert("IF temp >= 2**", Integer.toString(size.getSize()), " THEN");
-		buffer.insert("flag_o = 1;");
-		buffer.insert("flag_c = 1");
-		buffer.insert("ELSE");
-		buffer.insert("flag_o = 0;");
-		buffer.insert("flag_c = 0");
-		buffer.insert("FI;");
+		flagBlocks++;
+		if (lazyFlags) {
+			// zero and sign flag are left as they are, so they are computed before they are lost
+			buffer.readFlags(CodeBuffer.FLAG_Z | CodeBuffer.FLAG_S);
+			buffer.beginFlags(CodeBuffer.FLAG_Z | CodeBuffer.FLAG_S);
+			computeFlags(CodeBuffer.FLAG_Z | CodeBuffer.FLAG_S);
+			buffer.endFlags();
+			buffer.beginFlags(CodeBuffer.FLAG_C | CodeBuffer.FLAG_O);
+			buffer.insert("flag_op := 0;");
+			lazyKind = LAZY_NONE;
+			computedFlags = ALL_FLAGS;
+		} else {
+			buffer.beginFlags(CodeBuffer.FLAG_C | CodeBuffer.FLAG_O);
+		}
+		if (tempMax < 1L << size.getSize()) {
+			buffer.insert("flag_o := 0;");
+			buffer.insert("flag_c := 0;");
+		} else if (tempMin >= 1L << size.getSize()) {
+			buffer.insert("flag_o := 1;");
+			buffer.insert("flag_c := 1;");
+		} else {
+			buffer.insert("IF temp >= 2**", number(size.getSize()), " THEN");
+			buffer.insert("flag_o := 1;");
+			buffer.insert("flag_c := 1");
+			buffer.insert("ELSE");
+			buffer.insert("flag_o := 0;");
+			buffer.insert("flag_c := 0");
+			buffer.insert("FI;");
+		}
+		buffer.endFlags();
 	}
 
 	/**
 	 * Generate set result code after add,sub,dec or inc instruction.
 	 * 
 	 * @param arg
+	 * @param value result, or -1 if it is not known and is in temp
 	 */
-	private void setResult(Token arg) {
+	private void setResult(Token arg, int value) {
+		String result = value < 0 ? "temp" : number(value);
 		if (doubleByte.get(arg.code)) {
-			buffer.insert(arg.str, " := temp;");
+			buffer.append(arg.str).append(" := ").append(result).append(";").newLine();
 		} else if (lowByte.get(arg.code)) {
-			buffer.insert(getXRegister(arg.code), " := (", getXRegister(arg.code),
-					" DIV 256) * 256 + temp;");
+			appendByteAssignment(arg.code, value, "", "temp", "");
+			buffer.append(";").newLine();
 		} else if (highByte.get(arg.code)) {
-			buffer.insert(getXRegister(arg.code), " := (", getXRegister(arg.code),
-					" MOD 256) + temp * 256;");
-		} else if (isVariable(arg.str)) {
-			buffer.insert(arg.str, " := temp;");
+			appendByteAssignment(arg.code, value, "", "temp", " * 256");
+			buffer.append(";").newLine();
+		} else if (isVariable(arg)) {
+			buffer.append(arg.str).append(" := ").append(result).append(";").newLine();
 		} else {
 			throw new IllegalArgumentException("Argument type is invalid: " + arg.str);
 		}
+		setRegisterValue(arg.code, value);
+	}
+
+	/**
+	 * Append assignment of byte to low or high part of 16bit register, whose other part is kept.
+	 * Known parts are appended as constants. Generated value of byte is given as prefix, value and
+	 * suffix, which must already be multiplied by 256 for high part.
+	 * 
+	 * @param code code of 8bit register
+	 * @param value value of byte, or -1 if it is not known
+	 * @param prefix
+	 * @param val
+	 * @param suffix
+	 */
+	private void appendByteAssignment(int code, int value, String prefix, String val,
+			String suffix) {
+		boolean low = lowByte.get(code);
+		int x = wordRegister[code];
+		int other = byteValue(x, low ? HIGH_BYTE : LOW_BYTE);
+		buffer.append(getXRegister(code)).append(" := ");
+		if (other >= 0 && value >= 0) {
+			buffer.append(number(low ? other * 256 + value : value * 256 + other));
+			return;
+		}
+		if (other > 0) {
+			buffer.append(number(low ? other * 256 : other)).append(" + ");
+		} else if (other == 0) {
+			// nothing is added to byte
+		} else if (low) {
+			buffer.append("(").append(getXRegister(code)).append(" DIV 256) * 256 + ");
+		} else if (maxValues[x] < 256) {
+			buffer.append(getXRegister(code)).append(" + ");
+		} else {
+			buffer.append("(").append(getXRegister(code)).append(" MOD 256) + ");
+		}
+		if (value >= 0) {
+			buffer.append(number(low ? value : value * 256));
+		} else {
+			buffer.append(prefix).append(val).append(suffix);
+		}
+	}
+
+	/**
+	 * Generate code which brings result into range and records operation for lazy flags, see
+	 * {@link #setLazyFlags(boolean)}. Carry is not changed by <strong>inc</strong> and
+	 * <strong>dec</strong>, so it is computed from the previous operation before it is replaced.
+	 * 
+	 * @param val1
+	 * @param val2
+	 * @param size
+	 * @param operation
+	 * @param result constant result, or null if result is in temp
+	 */
+	private void setLazyFlags(String val1, String val2, Size size, Operation operation,
+			String result) {
+		int kind;
+		switch (operation) {
+		case ADDITION:
+			kind = LAZY_ADD;
+			break;
+		case INCREMENTATION:
+			kind = LAZY_INC;
+			break;
+		case DECREMENTATION:
+			kind = LAZY_DEC;
+			break;
+		default:
+			kind = LAZY_SUB;
+		}
+		if (result == null && !tempInRange(size)) { // bring result into range
+			if (kind == LAZY_ADD || kind == LAZY_INC) {
+				buffer.insert("temp := temp MOD 2**", number(size.getSize()), ";");
+			} else {
+				buffer.insert("IF temp < 0 THEN");
+				buffer.insert("temp := temp + (2**", number(size.getSize()), ")");
+				buffer.insert("FI;");
+			}
+		}
+		int mask = ALL_FLAGS;
+		if (kind == LAZY_INC || kind == LAZY_DEC) {
+			mask &= ~CodeBuffer.FLAG_C;
+			buffer.readFlags(CodeBuffer.FLAG_C);
+			buffer.beginFlags(CodeBuffer.FLAG_C);
+			computeFlags(CodeBuffer.FLAG_C);
+			buffer.endFlags();
+		}
+		buffer.beginFlags(mask);
+		buffer.append("< flag_op := ").append(number(kind)).append(", flag_a := ").append(val1)
+				.append(", flag_b := ").append(val2).append(", flag_r := ")
+				.append(result == null ? "temp" : result).append(", flag_n := ")
+				.append(number(size.getSize())).append(" >;").newLine();
+		buffer.endFlags();
+		lazyKind = kind;
+		lazySize = size;
+		computedFlags = ALL_FLAGS & ~mask;
+	}
+
+	/**
+	 * Generate code which computes given flags from the last recorded operation, unless they are
+	 * already computed. If operation is not known at this point, code chooses it by flag_op.
+	 * 
+	 * @param mask
+	 */
+	private void computeFlags(int mask) {
+		mask &= ~computedFlags;
+		if (mask == 0) {
+			return;
+		}
+		if (lazyKind == LAZY_UNKNOWN) {
+			boolean branches = false;
+			for (int kind = LAZY_ADD; kind <= LAZY_DEC; kind++) {
+				if (appendFlags(kind, mask, null, branches ? "ELSIF flag_op = " : "IF flag_op = ")) {
+					branches = true;
+				}
+			}
+			if (branches) {
+				buffer.insert("FI;");
+			}
+		} else if (appendFlags(lazyKind, mask, lazySize, null)) {
+			buffer.append(";").newLine();
+		}
+		computedFlags |= mask;
+	}
+
+	/**
+	 * Append code which computes given flags from operation of given kind. Code is appended as
+	 * branch of flag_op choice if keyword of branch is given, and then size of operation is taken
+	 * from flag_n. Code of the last flag is not ended with semicolon, and unless it is branch, not
+	 * even with new line.
+	 * 
+	 * @param kind
+	 * @param mask
+	 * @param size size of operation, or null if it is not known
+	 * @param keyword beginning of branch, or null
+	 * @return whether anything was appended
+	 */
+	private boolean appendFlags(int kind, int mask, Size size, String keyword) {
+		if (kind == LAZY_NONE) {
+			return false;
+		}
+		if (kind == LAZY_INC || kind == LAZY_DEC) {
+			mask &= ~CodeBuffer.FLAG_C;
+		}
+		if (mask == 0) {
+			return false;
+		}
+		if (keyword != null) {
+			buffer.insert(keyword, number(kind), " THEN");
+		}
+		String bits = size == null ? "(flag_n - 1)" : number(size.getSize() - 1);
+		boolean addition = kind == LAZY_ADD || kind == LAZY_INC;
+		boolean first = true;
+		for (int flag = CodeBuffer.FLAG_C; flag <= CodeBuffer.FLAG_O; flag <<= 1) {
+			if ((mask & flag) == 0) {
+				continue;
+			}
+			flagBlocks++;
+			if (!first) {
+				buffer.append(";").newLine();
+			}
+			first = false;
+			switch (flag) {
+			case CodeBuffer.FLAG_C:
+				buffer.insert(addition ? "IF flag_r < flag_a THEN" : "IF flag_a < flag_b THEN");
+				appendFlagValue("flag_c");
+				break;
+			case CodeBuffer.FLAG_Z:
+				buffer.insert("IF flag_r = 0 THEN");
+				appendFlagValue("flag_z");
+				break;
+			case CodeBuffer.FLAG_S:
+				buffer.append("IF ");
+				appendSignBit("flag_r", bits);
+				buffer.append(" = 1 THEN").newLine();
+				appendFlagValue("flag_s");
+				break;
+			default:
+				buffer.append("IF ");
+				appendSignBit("flag_a", bits);
+				buffer.append(addition ? " = " : " <> ");
+				appendSignBit("flag_b", bits);
+				buffer.append(" AND ");
+				appendSignBit("flag_r", bits);
+				buffer.append(addition ? " <> " : " = ");
+				appendSignBit("flag_b", bits);
+				buffer.append(" THEN").newLine();
+				appendFlagValue("flag_o");
+			}
+		}
+		if (keyword != null) {
+			buffer.newLine();
+		}
+		return true;
+	}
+
+	/**
+	 * Append branches of flag computation which set given flag, without semicolon at the end.
+	 * 
+	 * @param flag
+	 */
+	private void appendFlagValue(String flag) {
+		buffer.insert(flag, " := 1");
+		buffer.insert("ELSE");
+		buffer.insert(flag, " := 0");
+		buffer.append("FI");
+	}
+
+	/**
+	 * Compute flags read by conditional jump, if flags are computed lazily.
+	 * 
+	 * @param mask
+	 */
+	private void useFlags(int mask) {
+		if (lazyFlags) {
+			computeFlags(mask);
+		}
+	}
+
+	/**
+	 * Forget what is known about flags and registers at this point of generated code, because
+	 * control can come here from elsewhere (label) or they could be changed elsewhere (call).
+	 * Registers are then only known to hold 16bit values.
+	 */
+	private void forgetState() {
+		lazyKind = LAZY_UNKNOWN;
+		lazySize = null;
+		computedFlags = 0;
+		Arrays.fill(minValues, 0);
+		Arrays.fill(maxValues, 65535);
+		Arrays.fill(lowBytes, -1);
+		comparedRegister = -1;
+	}
+
+	/**
+	 * Get value of given register, or of its low or high part, if it is known at this point of
+	 * generated code.
+	 * 
+	 * @param code
+	 * @return value, or -1 if it is not known
+	 */
+	private int registerValue(int code) {
+		if (lowByte.get(code)) {
+			return byteValue(wordRegister[code], LOW_BYTE);
+		} else if (highByte.get(code)) {
+			return byteValue(wordRegister[code], HIGH_BYTE);
+		} else {
+			return minValues[code] == maxValues[code] ? minValues[code] : -1;
+		}
+	}
+
+	/**
+	 * Get value of low or high byte of given 16bit register, if it is known.
+	 * 
+	 * @param code code of 16bit register
+	 * @param part {@link #LOW_BYTE} or {@link #HIGH_BYTE}
+	 * @return value, or -1 if it is not known
+	 */
+	private int byteValue(int code, int part) {
+		int min = minValues[code], max = maxValues[code];
+		if (part == HIGH_BYTE) {
+			return min >> 8 == max >> 8 ? min >> 8 : -1;
+		}
+		return min == max ? min & 255 : lowBytes[code];
+	}
+
+	/**
+	 * Get value of given argument if it is known at this point of generated code: value of
+	 * constant, which must fit into given size, or known value of register.
+	 * 
+	 * @param arg
+	 * @param size
+	 * @return value, or -1 if it is not known
+	 */
+	private int knownValue(Token arg, Size size) {
+		if (arg.code == number) {
+			int value = toUnsigned(arg.val, size);
+			return value < 1 << size.getSize() ? value : -1;
+		} else if (registers.get(arg.code)) {
+			return registerValue(arg.code);
+		}
+		return -1;
+	}
+
+	/**
+	 * Get the smallest value which given argument of given size can have at this point of
+	 * generated code.
+	 * 
+	 * @param arg
+	 * @param size
+	 * @return
+	 */
+	private long lowerBound(Token arg, Size size) {
+		if (arg.code == number) {
+			return toUnsigned(arg.val, size);
+		} else if (lowByte.get(arg.code)) {
+			int x = wordRegister[arg.code];
+			int value = byteValue(x, LOW_BYTE);
+			return value >= 0 ? value : maxValues[x] < 256 ? minValues[x] : 0;
+		} else if (highByte.get(arg.code)) {
+			return minValues[wordRegister[arg.code]] >> 8;
+		} else if (registers.get(arg.code)) {
+			return minValues[arg.code];
+		}
+		return 0;
+	}
+
+	/**
+	 * Get the largest value which given argument of given size can have at this point of
+	 * generated code.
+	 * 
+	 * @param arg
+	 * @param size
+	 * @return
+	 */
+	private long upperBound(Token arg, Size size) {
+		if (arg.code == number) {
+			return toUnsigned(arg.val, size);
+		} else if (lowByte.get(arg.code)) {
+			int x = wordRegister[arg.code];
+			int value = byteValue(x, LOW_BYTE);
+			return value >= 0 ? value : Math.min(maxValues[x], 255);
+		} else if (highByte.get(arg.code)) {
+			return maxValues[wordRegister[arg.code]] >> 8;
+		} else if (registers.get(arg.code)) {
+			return maxValues[arg.code];
+		}
+		return (1L << size.getSize()) - 1;
+	}
+
+	/**
+	 * Remember value assigned to given register, or to its low or high part. Code which is not
+	 * code of register is ignored, so that destination of any instruction can be given.
+	 * 
+	 * @param code
+	 * @param value value, or -1 if it is not known
+	 */
+	private void setRegisterValue(int code, int value) {
+		if (!folding) {
+			value = -1;
+		}
+		if (lowByte.get(code)) {
+			int x = wordRegister[code];
+			int high = byteValue(x, HIGH_BYTE);
+			if (high >= 0) {
+				setRegisterRange(x, high * 256 + (value < 0 ? 0 : value), high * 256
+						+ (value < 0 ? 255 : value));
+			} else {
+				setRegisterRange(x, value < 0 ? 0 : value, value < 0 ? 65535 : 65280 + value);
+			}
+			lowBytes[x] = value;
+		} else if (highByte.get(code)) {
+			int x = wordRegister[code];
+			int low = byteValue(x, LOW_BYTE);
+			if (value >= 0) {
+				setRegisterRange(x, value * 256 + (low < 0 ? 0 : low), value * 256
+						+ (low < 0 ? 255 : low));
+			} else {
+				setRegisterRange(x, low < 0 ? 0 : low, low < 0 ? 65535 : 65280 + low);
+			}
+			lowBytes[x] = low;
+		} else if (value < 0) {
+			setRegisterRange(code, 0, 65535);
+		} else {
+			setRegisterRange(code, value, value);
+		}
+	}
+
+	/**
+	 * Remember bounds of value assigned to given 16bit register. Code which is not code of
+	 * register is ignored.
+	 * 
+	 * @param code
+	 * @param min
+	 * @param max
+	 */
+	private void setRegisterRange(int code, long min, long max) {
+		if (!folding) {
+			min = 0;
+			max = 65535;
+		}
+		if (registers.get(code)) {
+			minValues[code] = (int) min;
+			maxValues[code] = (int) max;
+			lowBytes[code] = -1;
+			if (code == comparedRegister) {
+				comparedRegister = -1;
+			}
+		}
+	}
+
+	/**
+	 * Narrow bounds of register which was compared by the last instruction which set flags, after
+	 * conditional jump which is not taken. Signed comparison is the same as unsigned one only if
+	 * neither compared value is negative, otherwise nothing is narrowed.
+	 * 
+	 * @param min
+	 * @param max
+	 * @param signed
+	 */
+	private void refineCompared(int min, int max, boolean signed) {
+		if (!folding || comparedRegister < 0 || min > max || signed
+				&& (maxValues[comparedRegister] > 32767 || comparedValue > 32767)) {
+			return;
+		}
+		min = Math.max(minValues[comparedRegister], min);
+		max = Math.min(maxValues[comparedRegister], max);
+		if (min <= max) {
+			minValues[comparedRegister] = min;
+			maxValues[comparedRegister] = max;
+		}
+	}
+
+	/**
+	 * Get generated value of given register, or of its low or high part, which is constant if
+	 * value is known.
+	 * 
+	 * @param code
+	 * @return
+	 */
+	private String readRegister(int code) {
+		int value = registerValue(code);
+		if (value >= 0) {
+			return number(value);
+		} else if (lowByte.get(code) && maxValues[wordRegister[code]] < 256) {
+			return str[wordRegister[code]];
+		}
+		return singleByte.get(code) ? getByteRegister(code) : str[code];
 	}
 
 	/**
@@ -868,9 +1889,9 @@ public class Parser extends AbstractCompiler {
 	 */
 	private void setSubFlags(String val1, String val2, Size size) {
 		generateSubCarryCheck(size);
-		generateZeroCheck();
+		generateZeroCheck(size);
 		generateSignCheck(size);
-		generateSubOverflowCheck(val1, val2, size);
+		generateOverflowCheck(val1, val2, size, false);
 	}
 
 	/**
@@ -879,10 +1900,14 @@ public class Parser extends AbstractCompiler {
 	 * @param size
 	 */
 	private void setDecFlags(String val1, String val2, Size size) {
-		buffer.insert("temp := temp + (2**", Integer.toString(size.getSize()), ");");
-		generateZeroCheck();
+		if (tempMin < 0) {
+			buffer.insert("IF temp < 0 THEN");
+			buffer.insert("temp := temp + (2**", number(size.getSize()), ")");
+			buffer.insert("FI;");
+		}
+		generateZeroCheck(size);
 		generateSignCheck(size);
-		generateSubOverflowCheck(val1, val2, size);
+		generateOverflowCheck(val1, val2, size, false);
 	}
 
 	/**
@@ -892,9 +1917,9 @@ public class Parser extends AbstractCompiler {
 	 */
 	private void setAddFlags(String val1, String val2, Size size) {
 		generateAddCarryCheck(size);
-		generateZeroCheck();
+		generateZeroCheck(size);
 		generateSignCheck(size);
-		generateAddOverflowCheck(val1, val2, size);
+		generateOverflowCheck(val1, val2, size, true);
 	}
 
 	/**
@@ -903,49 +1928,82 @@ public class Parser extends AbstractCompiler {
 	 * @param size
 	 */
 	private void setIncFlags(String val1, String val2, Size size) {
-		buffer.insert("temp := temp MOD 2**", Integer.toString(size.getSize()), ";");
-		generateZeroCheck();
+		if (tempMax >= 1L << size.getSize()) {
+			buffer.insert("temp := temp MOD 2**", number(size.getSize()), ";");
+		}
+		generateZeroCheck(size);
 		generateSignCheck(size);
-		generateAddOverflowCheck(val1, val2, size);
+		generateOverflowCheck(val1, val2, size, true);
 	}
 
 	/**
-	 * Generate set overflow check code after add instruction.
+	 * Generate set overflow check code after add or sub instruction. Overflow is set if signs of
+	 * arguments are the same for add (different for sub), and sign of result differs from sign of
+	 * the second argument (is the same for sub). Conditions whose signs are known are decided here.
 	 * 
+	 * @param val1
+	 * @param val2
 	 * @param size
+	 * @param addition
 	 */
-	private void generateAddOverflowCheck(String val1, String val2, Size size) {
-		buffer.insert("IF ", generateGetSignBit(val1, size), " = ", generateGetSignBit(val2, size),
-				" AND ", generateGetSignBit("temp", size), " <> ", generateGetSignBit(val2, size),
-				" THEN");
+	private void generateOverflowCheck(String val1, String val2, Size size, boolean addition) {
+		int sign = tempInRange(size) ? signBit(tempMin, tempMax, size) : -1;
+		// -1 if condition is not known
+		int arguments = sign1 < 0 || sign2 < 0 ? -1 : (sign1 == sign2) == addition ? 1 : 0;
+		int result = sign < 0 || sign2 < 0 ? -1 : (sign != sign2) == addition ? 1 : 0;
+		if (arguments == 0 || result == 0 || arguments == 1 && result == 1) {
+			setFlag(CodeBuffer.FLAG_O, "flag_o", arguments == 1 && result == 1);
+			return;
+		}
+		flagBlocks++;
+		buffer.beginFlags(CodeBuffer.FLAG_O);
+		buffer.append("IF ");
+		if (arguments < 0) {
+			appendSignBit(val1, sign1, size);
+			buffer.append(addition ? " = " : " <> ");
+			appendSignBit(val2, sign2, size);
+		}
+		if (arguments < 0 && result < 0) {
+			buffer.append(" AND ");
+		}
+		if (result < 0) {
+			appendSignBit("temp", sign, size);
+			buffer.append(addition ? " <> " : " = ");
+			appendSignBit(val2, sign2, size);
+		}
+		buffer.append(" THEN").newLine();
 		buffer.insert("flag_o := 1");
 		buffer.insert("ELSE");
 		buffer.insert("flag_o := 0");
 		buffer.insert("FI;");
+		buffer.endFlags();
 	}
 
 	/**
-	 * Generate set overflow check code after sub instruction.
+	 * Generate get sign bit code of given value with specified size, unless sign is known.
 	 * 
+	 * @param val
+	 * @param sign known sign bit, or -1
 	 * @param size
 	 */
-	private void generateSubOverflowCheck(String val1, String val2, Size size) {
-		buffer.insert("IF ", generateGetSignBit(val1, size), " <> ",
-				generateGetSignBit(val2, size), " AND ", generateGetSignBit("temp", size), " = ",
-				generateGetSignBit(val2, size), " THEN");
-		buffer.insert("flag_o := 1");
-		buffer.insert("ELSE");
-		buffer.insert("flag_o := 0");
-		buffer.insert("FI;");
+	private void appendSignBit(String val, int sign, Size size) {
+		if (sign >= 0) {
+			buffer.append(number(sign));
+		} else {
+			appendSignBit(val, number(size.getSize() - 1));
+		}
 	}
 
 	/**
-	 * Generate get sign bit code of given value with specified size.
+	 * Generate get sign bit code of given value, whose sign bit is given bit. Value is never
+	 * negative nor wider than its size (constants and data which do not fit are rejected by
+	 * {@link #toUnsigned(int, Size)}), so it is enough to divide it.
 	 * 
-	 * @param size
+	 * @param val
+	 * @param bit
 	 */
-	private String generateGetSignBit(String val, Size size) {
-		return "(((" + val + ") DIV 2**" + Integer.toString(size.getSize() - 1) + ") MOD 2)";
+	private void appendSignBit(String val, String bit) {
+		buffer.append("((").append(val).append(") DIV 2**").append(bit).append(")");
 	}
 
 	/**
@@ -953,12 +2011,19 @@ public class Parser extends AbstractCompiler {
 	 * 
 	 * @param size
 	 */
-	private void generateZeroCheck() {
+	private void generateZeroCheck(Size size) {
+		if (tempInRange(size) && tempMin > 0) {
+			setFlag(CodeBuffer.FLAG_Z, "flag_z", false);
+			return;
+		}
+		flagBlocks++;
+		buffer.beginFlags(CodeBuffer.FLAG_Z);
 		buffer.insert("IF temp = 0 THEN");
 		buffer.insert("flag_z := 1");
 		buffer.insert("ELSE");
 		buffer.insert("flag_z := 0");
 		buffer.insert("FI;");
+		buffer.endFlags();
 	}
 
 	/**
@@ -967,39 +2032,71 @@ public class Parser extends AbstractCompiler {
 	 * @param size
 	 */
 	private void generateSignCheck(Size size) {
-		buffer.insert("IF ", generateGetSignBit("temp", size), " = 1 THEN");
+		int sign = tempInRange(size) ? signBit(tempMin, tempMax, size) : -1;
+		if (sign >= 0) {
+			setFlag(CodeBuffer.FLAG_S, "flag_s", sign == 1);
+			return;
+		}
+		flagBlocks++;
+		buffer.beginFlags(CodeBuffer.FLAG_S);
+		buffer.append("IF ");
+		appendSignBit("temp", number(size.getSize() - 1));
+		buffer.append(" = 1 THEN").newLine();
 		buffer.insert("flag_s := 1");
 		buffer.insert("ELSE");
 		buffer.insert("flag_s := 0");
 		buffer.insert("FI;");
+		buffer.endFlags();
 	}
 
 	/**
-	 * Generate carry check after add instruction.
+	 * Generate carry check after add instruction. If carry is not needed, result is only brought
+	 * into range.
 	 * 
 	 * @param size
 	 */
 	private void generateAddCarryCheck(Size size) {
-		buffer.insert("IF temp >= 2**", Integer.toString(size.getSize()), " THEN");
-		buffer.insert("temp := temp MOD 2**", Integer.toString(size.getSize()), ";");
+		if (tempMax < 1L << size.getSize()) {
+			setFlag(CodeBuffer.FLAG_C, "flag_c", false);
+			return;
+		}
+		flagBlocks++;
+		buffer.beginFlags(CodeBuffer.FLAG_C);
+		buffer.insert("IF temp >= 2**", number(size.getSize()), " THEN");
+		buffer.insert("temp := temp MOD 2**", number(size.getSize()), ";");
 		buffer.insert("flag_c := 1");
 		buffer.insert("ELSE");
 		buffer.insert("flag_c := 0");
 		buffer.insert("FI;");
+		buffer.otherwise();
+		buffer.insert("temp := temp MOD 2**", number(size.getSize()), ";");
+		buffer.endFlags();
 	}
 
 	/**
-	 * Generate carry check after sub instruction.
+	 * Generate carry check after sub instruction. If carry is not needed, result is only brought
+	 * into range.
 	 * 
 	 * @param size
 	 */
 	private void generateSubCarryCheck(Size size) {
+		if (tempMin >= 0) {
+			setFlag(CodeBuffer.FLAG_C, "flag_c", false);
+			return;
+		}
+		flagBlocks++;
+		buffer.beginFlags(CodeBuffer.FLAG_C);
 		buffer.insert("IF temp < 0 THEN");
-		buffer.insert("temp := temp + (2**", Integer.toString(size.getSize()), ");");
+		buffer.insert("temp := temp + (2**", number(size.getSize()), ");");
 		buffer.insert("flag_c := 1");
 		buffer.insert("ELSE");
 		buffer.insert("flag_c := 0");
 		buffer.insert("FI;");
+		buffer.otherwise();
+		buffer.insert("IF temp < 0 THEN");
+		buffer.insert("temp := temp + (2**", number(size.getSize()), ")");
+		buffer.insert("FI;");
+		buffer.endFlags();
 	}
 
 	/**
@@ -1016,7 +2113,19 @@ public class Parser extends AbstractCompiler {
 	 * @param arg2
 	 */
 	private void xchg(Token arg1, Token arg2) {
-		buffer.insert("< ", generateMov(arg1, arg2), ", ", generateMov(arg2, arg1), " >;");
+		int value1 = knownValue(arg1, Size.DOUBLE_BYTE), value2 = knownValue(arg2, Size.DOUBLE_BYTE);
+		buffer.append("< ");
+		appendMov(arg1, arg2);
+		buffer.append(", ");
+		appendMov(arg2, arg1);
+		buffer.append(" >;").newLine();
+		if (singleByte.get(arg1.code) && singleByte.get(arg2.code)
+				&& wordRegister[arg1.code] == wordRegister[arg2.code]) {
+			// both parts of one register are assigned at once
+			value1 = value2 = -1;
+		}
+		setRegisterValue(arg1.code, value2);
+		setRegisterValue(arg2.code, value1);
 	}
 
 	/**
@@ -1038,111 +2147,116 @@ public class Parser extends AbstractCompiler {
 		if (arg2.code == atdata) { // simulate value returned by @data with random int
 
 			if (atData == null) { // arg1 size must be double byte
-				Integer val = new Random().nextInt(1 << Size.DOUBLE_BYTE.getSize());
-				atData = new Token(number, val, val.toString(), arg2.line);
+				Integer val = new Random(seed).nextInt(1 << Size.DOUBLE_BYTE.getSize());
+				atData = new Token(number, val, val.toString());
 			}
 
 			arg2 = atData;
 		}
-		buffer.insert(generateMov(arg1, arg2), ";");
+		appendMov(arg1, arg2);
+		buffer.append(";").newLine();
+		setRegisterValue(arg1.code,
+				knownValue(arg2, singleByte.get(arg1.code) ? Size.BYTE : Size.DOUBLE_BYTE));
 	}
 
 	/**
 	 * Generic assignment code generation method, used for generation of <strong>mov</strong> and
-	 * <strong>xchg</strong> instruction.
+	 * <strong>xchg</strong> instruction. Assignment is appended to the current line of buffer.
 	 * 
 	 * @param arg1
 	 * @param arg2
-	 * @return
 	 */
-	private String generateMov(Token arg1, Token arg2) {
-		String val2;
+	private void appendMov(Token arg1, Token arg2) {
+		// source is checked before anything is appended, and appended as prefix, value and suffix
+		String prefix = "", val2, suffix = "";
 		if (doubleByte.get(arg1.code)) { // reg
 
 			if (doubleByte.get(arg2.code)) { // reg
-				val2 = str[arg2.code];
-			} else if (isVariable(arg2.str)) { // mem (dw)
+				val2 = readRegister(arg2.code);
+			} else if (isVariable(arg2)) { // mem (dw)
 				val2 = arg2.str;
 			} else if (arg2.code == number) { // immediate (const)
-				int val = toUnsigned(arg2.val, Size.DOUBLE_BYTE);
-				val2 = Integer.toString(val);
+				val2 = number(toUnsigned(arg2.val, Size.DOUBLE_BYTE));
 			} else {
-				throw new ParsingException(arg1.line, arg2.str,
+				throw new ParsingException(line, arg2.str,
 						"16bit register, dw variable or constant value");
 			}
 
-			return arg1.str + " := " + val2;
+			buffer.append(arg1.str).append(" := ").append(val2);
 
 		} else if (highByte.get(arg1.code)) { // reg
 
 			if (highByte.get(arg2.code)) { // reg
-				val2 = "(" + getXRegister(arg2.code) + " DIV 256) * 256";
+				prefix = "(";
+				val2 = getXRegister(arg2.code);
+				suffix = " DIV 256) * 256";
 			} else if (lowByte.get(arg2.code)) { // reg
-				val2 = "(" + getXRegister(arg2.code) + " MOD 256) * 256";
-			} else if (isVariable(arg2.str)) { // mem (db)
-				val2 = arg2.str + " * 256";
+				prefix = "(";
+				val2 = getXRegister(arg2.code);
+				suffix = " MOD 256) * 256";
+			} else if (isVariable(arg2)) { // mem (db)
+				val2 = arg2.str;
+				suffix = " * 256";
 			} else if (arg2.code == number) { // immediate (const)
-				int val = toUnsigned(arg2.val, Size.BYTE);
-				val2 = Integer.toString(val) + " * 256";
+				val2 = number(toUnsigned(arg2.val, Size.BYTE));
+				suffix = " * 256";
 			} else {
-				throw new ParsingException(arg1.line, arg2.str,
+				throw new ParsingException(line, arg2.str,
 						"8bit (high or low part of) register, db variable or constant value");
 			}
 
-			return getXRegister(arg1.code) + " := (" + getXRegister(arg1.code) + " MOD 256) + "
-					+ val2;
+			appendByteAssignment(arg1.code, knownValue(arg2, Size.BYTE), prefix, val2, suffix);
 
 		} else if (lowByte.get(arg1.code)) { // reg
 
 			if (lowByte.get(arg2.code)) { // reg
-				val2 = "(" + getXRegister(arg2.code) + " MOD 256)";
+				prefix = "(";
+				val2 = getXRegister(arg2.code);
+				suffix = " MOD 256)";
 			} else if (highByte.get(arg2.code)) { // reg
-				val2 = "(" + getXRegister(arg2.code) + " DIV 256)";
-			} else if (isVariable(arg2.str)) { // mem (db)
+				prefix = "(";
+				val2 = getXRegister(arg2.code);
+				suffix = " DIV 256)";
+			} else if (isVariable(arg2)) { // mem (db)
 				val2 = arg2.str;
 			} else if (arg2.code == number) { // immediate (const)
-				int val = toUnsigned(arg2.val, Size.BYTE);
-				val2 = Integer.toString(val);
+				val2 = number(toUnsigned(arg2.val, Size.BYTE));
 			} else {
-				throw new ParsingException(arg1.line, arg2.str,
+				throw new ParsingException(line, arg2.str,
 						"8bit (high or low part of) register, db variable or constant value");
 			}
 
-			return getXRegister(arg1.code) + " := (" + getXRegister(arg1.code)
-					+ " DIV 256) * 256 + " + val2;
+			appendByteAssignment(arg1.code, knownValue(arg2, Size.BYTE), prefix, val2, suffix);
 
-		} else if (isVariable(arg1.str)) { // mem (db or dw)
+		} else if (isVariable(arg1)) { // mem (db or dw)
 
 			if (doubleByte.get(arg2.code)) { // reg
-				val2 = arg2.str;
-			} else if (lowByte.get(arg2.code)) { // reg
-				val2 = getXRegister(arg2.code) + " MOD 256";
-			} else if (highByte.get(arg2.code)) { // reg
-				val2 = getXRegister(arg2.code) + " DIV 256";
+				val2 = readRegister(arg2.code);
+			} else if (singleByte.get(arg2.code)) { // reg
+				val2 = readRegister(arg2.code);
 			} else if (arg2.code == number) { // immediate (const)
-				int val = toUnsigned(arg2.val, variableSize.get(getVariableName(arg1.str)));
-				val2 = Integer.toString(val);
+				val2 = number(toUnsigned(arg2.val, variableSize.get(arg1.name)));
 			} else {
-				throw new ParsingException(arg1.line, arg2.str,
+				throw new ParsingException(line, arg2.str,
 						"register (16bit or 8bit) or constant value");
 			}
 
-			return arg1.str + " := " + val2;
+			buffer.append(arg1.str).append(" := ").append(val2);
 
 		} else {
-			throw new ParsingException(arg1.line, arg1.str,
+			throw new ParsingException(line, arg1.str,
 					"8bit (high or low part of) register, 16bit register, db or dw variable");
 		}
 	}
 
 	/**
-	 * Check if given string provided as argument is name of variable.
+	 * Check if given argument is variable, indexed or not.
 	 * 
-	 * @param var
+	 * @param arg
 	 * @return
 	 */
-	private boolean isVariable(String var) {
-		return variableSize.get(getVariableName(var)) != null;
+	private boolean isVariable(Token arg) {
+		return variableSize.get(arg.name) != null;
 	}
 	
 	/**
@@ -1156,18 +2270,15 @@ public class Parser extends AbstractCompiler {
 	}
 
 	/**
-	 * Get variable name. Needed when we have string like this <code>array[bp+si+1]</code> two get
-	 * only "array" which is name of variable.
+	 * Get decimal string of given number. Strings of 16bit numbers are shared (see
+	 * {@link Scanner#numberToken(int)}), so generated constants are not converted again every
+	 * time.
 	 * 
-	 * @param var
+	 * @param value
 	 * @return
 	 */
-	private String getVariableName(String var) {
-		int index = var.indexOf('[');
-		if (index != -1) {
-			return var.substring(0, index);
-		}
-		return var;
+	private static String number(int value) {
+		return Scanner.numberToken(value).str;
 	}
 
 	/**
@@ -1186,7 +2297,7 @@ public class Parser extends AbstractCompiler {
 	 * @param arg2
 	 */
 	private void inc(Token arg) {
-		arithmeticInstruction(arg, new Token(number, 1, "1", arg.line), Operation.INCREMENTATION);
+		arithmeticInstruction(arg, ONE, Operation.INCREMENTATION);
 	}
 
 	/**
@@ -1205,7 +2316,7 @@ public class Parser extends AbstractCompiler {
 	 * @param arg2
 	 */
 	private void dec(Token arg) {
-		arithmeticInstruction(arg, new Token(number, 1, "1", arg.line), Operation.DECREMENTATION);
+		arithmeticInstruction(arg, ONE, Operation.DECREMENTATION);
 	}
 
 	/**
@@ -1223,7 +2334,7 @@ public class Parser extends AbstractCompiler {
 	 * @param arg2
 	 */
 	private void neg(Token arg) {
-		arithmeticInstruction(new Token(number, 0, "0", arg.line), arg, Operation.NEGATION);
+		arithmeticInstruction(ZERO, arg, Operation.NEGATION);
 	}
 
 	/**
@@ -1236,38 +2347,63 @@ public class Parser extends AbstractCompiler {
 	 */
 	private void OneArgStatement() {
 		Token arg;
+		if (branches.get(curr.code)
+				|| buffer.isInProc() && (curr.code == interr || curr.code == div)) {
+			buffer.endBasicBlock();
+		}
 		switch (curr.code) {
 		case interr:
 			check(interr);
 			arg = Argument();
 			if (arg.code == number && arg.val == 33) { // 33 == 21h
-				buffer.insert("temp := ax DIV 256;");
-				buffer.insert("IF temp = 2 THEN");
-				buffer.insert("PRINT(@ASCII_To_String(dx MOD 256))");
-				buffer.insert("ELSIF temp = 76 THEN"); // 4c == 76
-				buffer.insert("CALL Z");
-				buffer.insert("FI;");
+				int function = registerValue(ah);
+				if (function < 0) {
+					buffer.insert("temp := ax DIV 256;");
+					buffer.insert("IF temp = 2 THEN");
+					buffer.insert("PRINT(@ASCII_To_String(", readRegister(dl), "))");
+					buffer.insert("ELSIF temp = 76 THEN"); // 4c == 76
+					buffer.insert("CALL Z");
+					buffer.insert("FI;");
+				} else if (function == 2) {
+					buffer.insert("PRINT(@ASCII_To_String(", readRegister(dl), "));");
+				} else if (function == 76) {
+					buffer.insert("CALL Z;");
+				}
 			} else {
-				throw new ParsingException(arg.line,
+				throw new ParsingException(line,
 						"Argument must be number and value must be 21h.");
 			}
 			break;
 		case loop:
 			check(loop);
 			arg = Argument();
-			buffer.insert("cx := cx - 1;");
-			buffer.insert("IF cx <> 0 THEN");
-			buffer.insert("CALL ", arg.str);
-			buffer.insert("FI;");
+			int count = registerValue(cx);
+			if (count >= 0) {
+				count = (count + 65535) % 65536;
+				buffer.insert("cx := ", number(count), ";");
+				if (count != 0) {
+					buffer.jump(null, arg.str);
+				}
+			} else {
+				if (minValues[cx] > 0) {
+					buffer.insert("cx := cx - 1;");
+				} else {
+					buffer.insert("cx := (cx + 65535) MOD 65536;");
+				}
+				buffer.jump("cx <> 0", arg.str);
+			}
+			// code after loop is reached only when cx is zero
+			setRegisterValue(cx, 0);
 			break;
 		case push:
 			check(push);
 			arg = Argument();
-			if ((doubleByte.get(arg.code) || variableSize.get(getVariableName(arg.str)).equals(
-					Size.DOUBLE_BYTE))) { // must be 16bit
+			if (doubleByte.get(arg.code)) {
+				buffer.insert("temp := ", readRegister(arg.code), ";");
+			} else if (variableSize.get(arg.name) == Size.DOUBLE_BYTE) { // must be 16bit
 				buffer.insert("temp := ", arg.str, ";");
 			} else {
-				throw new ParsingException(arg.line, arg.str, "16bit register or dw variable");
+				throw new ParsingException(line, arg.str, "16bit register or dw variable");
 			}
 			buffer.insert("PUSH (stack, temp);");
 			break;
@@ -1275,7 +2411,7 @@ public class Parser extends AbstractCompiler {
 			check(pop);
 			arg = Argument();
 			buffer.insert("POP (temp, stack);");
-			setResult(arg);
+			setResult(arg, -1);
 			break;
 		case inc:
 			check(inc);
@@ -1291,6 +2427,7 @@ public class Parser extends AbstractCompiler {
 			check(call);
 			arg = Argument();
 			buffer.insert(arg.str, "();");
+			forgetState();
 			break;
 		case neg:
 			check(neg);
@@ -1310,70 +2447,73 @@ public class Parser extends AbstractCompiler {
 		case jmp:
 			check(jmp);
 			arg = Argument();
-			buffer.insert("CALL ", arg.str, ";");
+			buffer.jump(null, arg.str);
 			break;
 		case ja:
 			check(ja);
 			arg = Argument();
-			buffer.insert("IF flag_c = 0 AND flag_z = 0 THEN");
-			buffer.insert("CALL ", arg.str);
-			buffer.insert("FI;");
+			useFlags(CodeBuffer.FLAG_C | CodeBuffer.FLAG_Z);
+			buffer.jump("flag_c = 0 AND flag_z = 0", arg.str);
+			refineCompared(0, comparedValue, false);
 			break;
 		case jae:
 			check(jae);
 			arg = Argument();
-			buffer.insert("IF flag_c = 0 THEN");
-			buffer.insert("CALL ", arg.str);
-			buffer.insert("FI;");
+			useFlags(CodeBuffer.FLAG_C);
+			buffer.jump("flag_c = 0", arg.str);
+			refineCompared(0, comparedValue - 1, false);
 			break;
 		case jb:
 			check(jb);
 			arg = Argument();
-			buffer.insert("IF flag_c = 1 THEN");
-			buffer.insert("CALL ", arg.str);
-			buffer.insert("FI;");
+			useFlags(CodeBuffer.FLAG_C);
+			buffer.jump("flag_c = 1", arg.str);
+			refineCompared(comparedValue, 65535, false);
 			break;
 		case jbe:
 			check(jbe);
 			arg = Argument();
-			buffer.insert("IF flag_c = 1 AND flag_z = 1 THEN");
-			buffer.insert("CALL ", arg.str);
-			buffer.insert("FI;");
+			useFlags(CodeBuffer.FLAG_C | CodeBuffer.FLAG_Z);
+			buffer.jump("flag_c = 1 AND flag_z = 1", arg.str);
 			break;
 		case jg:
 			check(jg);
 			arg = Argument();
-			buffer.insert("IF flag_z = 0 AND flag_s = flag_o THEN");
-			buffer.insert("CALL ", arg.str);
-			buffer.insert("FI;");
+			useFlags(CodeBuffer.FLAG_Z | CodeBuffer.FLAG_S | CodeBuffer.FLAG_O);
+			buffer.jump("flag_z = 0 AND flag_s = flag_o", arg.str);
+			refineCompared(0, comparedValue, true);
 			break;
 		case jge:
 			check(jge);
 			arg = Argument();
-			buffer.insert("IF flag_s = flag_o THEN");
-			buffer.insert("CALL ", arg.str);
-			buffer.insert("FI;");
+			useFlags(CodeBuffer.FLAG_S | CodeBuffer.FLAG_O);
+			buffer.jump("flag_s = flag_o", arg.str);
+			refineCompared(0, comparedValue - 1, true);
 			break;
 		case jl:
 			check(jl);
 			arg = Argument();
-			buffer.insert("IF flag_s <> flag_o THEN");
-			buffer.insert("CALL ", arg.str);
-			buffer.insert("FI;");
+			useFlags(CodeBuffer.FLAG_S | CodeBuffer.FLAG_O);
+			buffer.jump("flag_s <> flag_o", arg.str);
+			refineCompared(comparedValue, 65535, true);
 			break;
 		case jle:
 			check(jle);
 			arg = Argument();
-			buffer.insert("IF flag_z = 1 OR flag_s <> flag_o THEN");
-			buffer.insert("CALL ", arg.str);
-			buffer.insert("FI;");
+			useFlags(CodeBuffer.FLAG_Z | CodeBuffer.FLAG_S | CodeBuffer.FLAG_O);
+			buffer.jump("flag_z = 1 OR flag_s <> flag_o", arg.str);
+			refineCompared(comparedValue + 1, 65535, true);
 			break;
 		case je:
 			check(je);
 			arg = Argument();
-			buffer.insert("IF flag_z = 1 THEN");
-			buffer.insert("CALL ", arg.str);
-			buffer.insert("FI;");
+			useFlags(CodeBuffer.FLAG_Z);
+			buffer.jump("flag_z = 1", arg.str);
+			if (comparedRegister >= 0 && minValues[comparedRegister] == comparedValue) {
+				refineCompared(comparedValue + 1, 65535, false);
+			} else if (comparedRegister >= 0 && maxValues[comparedRegister] == comparedValue) {
+				refineCompared(0, comparedValue - 1, false);
+			}
 			break;
 		default:
 			throw new IllegalArgumentException("Unsupporeted one argument instruction: " + curr.str);
@@ -1392,29 +2532,46 @@ public class Parser extends AbstractCompiler {
 			check(ident);
 			if (curr.code == lbrack) {
 				check(lbrack);
-				ret.str += "[((";
+				// bounds of index are computed with it, so that it is wrapped only if it can be
+				// out of 16bit range
+				StringBuilder index = new StringBuilder();
+				long min = 0, max = 0;
+				boolean subtract = false;
 				Token arg;
-				String argStr;
+				long low, high;
 				while (true) {
 					if (curr.code == number) {
 						arg = Number();
-						argStr = String.valueOf(toUnsigned(arg.val, Size.DOUBLE_BYTE));
+						low = high = toUnsigned(arg.val, Size.DOUBLE_BYTE);
+						index.append(number(toUnsigned(arg.val, Size.DOUBLE_BYTE)));
 					} else if (doubleByte.get(curr.code)){
 						arg = Register();
-						argStr = arg.str;
+						low = minValues[arg.code];
+						high = maxValues[arg.code];
+						index.append(readRegister(arg.code));
 					} else {
-						throw new ParsingException(curr.line, curr.str, "number or 16bit register");
+						throw new ParsingException(currLine, curr.str, "number or 16bit register");
 					}
-					ret.str += argStr;
+					min += subtract ? -high : low;
+					max += subtract ? -low : high;
 					if (curr.code == plus || curr.code == minus) {
-						ret.str += curr.str;
+						subtract = curr.code == minus;
+						index.append(curr.str);
 						check(plus, minus);
 					} else {
 						break;
 					}
 				}
 				check(rbrack);
-				ret.str += ") MOD 65536) + 1]";
+				StringBuilder indexed = new StringBuilder(ret.str).append("[");
+				if (min < 0 || max >= 65536) {
+					indexed.append("((").append(index).append(") MOD 65536) + 1]");
+				} else if (min == max) {
+					indexed.append(number((int) min + 1)).append("]");
+				} else {
+					indexed.append(index).append(" + 1]");
+				}
+				ret = new Token(ident, ret.val, indexed.toString(), ret.str);
 			}
 		} else if (curr.code == number) {
 			ret = Number();
@@ -1424,7 +2581,7 @@ public class Parser extends AbstractCompiler {
 			ret = curr;
 			check(atdata);
 		} else {
-			throw new ParsingException(curr.line, curr.code, ident, number, atdata);
+			throw new ParsingException(currLine, curr.code, ident, number, atdata);
 		}
 		return ret;
 	}
@@ -1,39 +1,250 @@
 package main;
 
 import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
 /**
- * Scanner component of the translator.
+ * Scanner component of the translator. ASCII input files are loaded (or memory mapped if they are
+ * large) and scanned byte by byte, other files are read through {@link BufferedReader}. Errors
+ * while reading input are thrown as {@link UncheckedIOException}.
  * 
  * @author Igor Let
  * @author Nikola Trkulja
  */
-public class Scanner extends AbstractCompiler {
+public class Scanner extends AbstractCompiler implements TokenSource {
+
+	/**
+	 * Files of this size or larger are memory mapped instead of loaded.
+	 */
+	private static final int MAP_THRESHOLD = 1 << 20;
+
+	/**
+	 * Minimal size of input chunk scanned in parallel.
+	 */
+	private static final int CHUNK_SIZE = 1 << 20;
+
+	/**
+	 * Keywords and registers, and directives (which are preceded by dot).
+	 */
+	private static final NameTable names, directives;
+
+	/**
+	 * Multipliers of name tables found by {@link NameTable} search, so that search is not repeated
+	 * at every startup. Must be updated (from {@link NameTable#getMultiplier()}) when names change,
+	 * otherwise search is done again.
+	 */
+	private static final int NAMES_MULTIPLIER = -1890391265,
+			DIRECTIVES_MULTIPLIER = -723955399;
+
+	/**
+	 * Shared number tokens, filled on first use.
+	 */
+	private static final Token[] numbers = new Token[1 << Size.DOUBLE_BYTE.getSize()];
+
+	static {
+		String[] keywords = new String[str.length];
+		String[] dotted = new String[str.length];
+		for (int code = title; code <= es; code++) {
+			keywords[code] = str[code];
+		}
+		keywords[interr] = "int";
+		for (int code = model; code <= AbstractCompiler.code; code++) {
+			dotted[code] = str[code];
+			keywords[code] = null;
+		}
+		names = new NameTable(keywords, NAMES_MULTIPLIER);
+		directives = new NameTable(dotted, DIRECTIVES_MULTIPLIER);
+	}
 
 	private BufferedReader sc;
+	private boolean closeReader;
+	private ByteBuffer input;
+	private int pos;
 	private char chr;
 	private boolean eof;
 	private int line;
 
-	public Scanner(String file) {
+	/**
+	 * Token text is recorded as position of its first character in input, or in text buffer if
+	 * file is read through reader.
+	 */
+	private boolean recording;
+	private int textStart;
+	private StringBuilder text;
+	private int nameHash;
+
+	/**
+	 * Identifier tokens read so far, kept in open addressing table by hash of their names, so every
+	 * occurrence of the same identifier gives the same token.
+	 */
+	private Token[] symbols;
+	private int[] symbolHashes;
+	private int symbolCount;
+
+	/**
+	 * Line of the last token returned.
+	 */
+	private int tokenLine;
+
+	public Scanner(String file) throws IOException {
+		this(Paths.get(file));
+	}
+
+	public Scanner(Path file) throws IOException {
+		this();
+		input = load(file);
+		if (input == null) {
+			closeReader = true;
+			init(new InputStreamReader(Files.newInputStream(file), Charset.defaultCharset()));
+		} else {
+			read();
+		}
+	}
+
+	/**
+	 * Create scanner reading input from given reader. Reader is not closed by scanner.
+	 * 
+	 * @param reader
+	 */
+	public Scanner(Reader reader) {
+		this();
+		init(reader);
+	}
+
+	/**
+	 * Create scanner reading input from remaining bytes of given buffer. Position of buffer is not
+	 * changed. If input is not ASCII it is decoded using default charset.
+	 * 
+	 * @param buffer
+	 */
+	public Scanner(ByteBuffer buffer) {
+		this();
+		input = buffer.slice();
+		if (!isAscii(input)) {
+			input = null;
+			init(new StringReader(Charset.defaultCharset().decode(buffer.duplicate()).toString()));
+		} else {
+			read();
+		}
+	}
+
+	/**
+	 * Create scanner for chunk of ASCII input.
+	 * 
+	 * @param input
+	 * @return
+	 */
+	private static Scanner chunk(ByteBuffer input) {
+		Scanner ret = new Scanner();
+		ret.input = input;
+		ret.read();
+		return ret;
+	}
+
+	private void init(Reader reader) {
+		sc = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+		text = new StringBuilder();
+		read();
+	}
+
+	private Scanner() {
 		eof = false;
 		line = 1;
+		symbols = new Token[64];
+		symbolHashes = new int[64];
+	}
+
+	/**
+	 * Load or map given file. Returns null if file is not ASCII (or is too large to be mapped) and
+	 * must be read through reader.
+	 * 
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	private static ByteBuffer load(Path file) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
 		try {
-			sc = new BufferedReader(new FileReader(file));
-			read();
-		} catch (FileNotFoundException e) {
-			System.out.println("File " + file + " doesn't exist.");
-			System.exit(0);
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				return null;
+			}
+			ByteBuffer buffer;
+			if (size >= MAP_THRESHOLD) {
+				buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			} else {
+				buffer = ByteBuffer.allocate((int) size);
+				while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+					// read whole file
+				}
+				buffer.flip();
+			}
+			return isAscii(buffer) ? buffer : null;
+		} finally {
+			channel.close();
 		}
 	}
 
+	/**
+	 * Check if all bytes in given buffer are ASCII characters.
+	 * 
+	 * @param buffer
+	 * @return
+	 */
+	private static boolean isAscii(ByteBuffer buffer) {
+		int limit = buffer.limit();
+		if (buffer.hasArray()) {
+			byte[] bytes = buffer.array();
+			int offset = buffer.arrayOffset();
+			for (int i = offset; i < offset + limit; i++) {
+				if (bytes[i] < 0) {
+					return false;
+				}
+			}
+		} else {
+			for (int i = 0; i < limit; i++) {
+				if (buffer.get(i) < 0) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
 	/**
 	 * Read next character.
 	 */
 	private void read() {
+		if (input != null) {
+			if (pos < input.limit()) {
+				chr = (char) input.get(pos++);
+				if (chr == '\n') {
+					line++;
+				}
+			} else {
+				eof = true;
+			}
+			return;
+		}
+		if (recording && !eof) {
+			text.append(chr);
+		}
 		try {
 			int i = sc.read();
 			if (i == -1) {
@@ -45,8 +256,173 @@ public class Scanner extends AbstractCompiler {
 				}
 			}
 		} catch (IOException ioe) {
-			System.out.println("Error occurred while trying to read input file.");
-			System.exit(0);
+			throw new UncheckedIOException("Error occurred while trying to read input file.", ioe);
+		}
+	}
+
+	/**
+	 * Start recording text of token. Current character is the first one recorded.
+	 */
+	private void mark() {
+		recording = true;
+		if (input != null) {
+			textStart = eof ? input.limit() : pos - 1;
+		} else {
+			text.setLength(0);
+		}
+	}
+
+	/**
+	 * Stop recording text of token. Returns length of recorded text, which consists of all
+	 * characters read since the call to {@link #mark()}.
+	 * 
+	 * @return
+	 */
+	private int unmark() {
+		recording = false;
+		if (input != null) {
+			return (eof ? input.limit() : pos - 1) - textStart;
+		}
+		return text.length();
+	}
+
+	/**
+	 * Get character of recorded text at given index.
+	 * 
+	 * @param i
+	 * @return
+	 */
+	private char textAt(int i) {
+		if (input != null) {
+			return (char) input.get(textStart + i);
+		}
+		return text.charAt(i);
+	}
+
+	/**
+	 * Create string from recorded text, converting it to lower case if requested.
+	 * 
+	 * @param length
+	 * @param lowerCase
+	 * @return
+	 */
+	private String text(int length, boolean lowerCase) {
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++) {
+			char c = textAt(i);
+			chars[i] = lowerCase && c >= 'A' && c <= 'Z' ? (char) (c | 0x20) : c;
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Check if recorded name is equal to given (lower case) name, ignoring case.
+	 * 
+	 * @param length
+	 * @param name
+	 * @return
+	 */
+	private boolean textEquals(int length, String name) {
+		if (name == null || name.length() != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			// names contain only letters and digits
+			if ((textAt(i) | 0x20) != name.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Find token code of name read by the last call to {@link #readName()} in given table.
+	 * 
+	 * @param length
+	 * @param table
+	 * @return
+	 */
+	private int lookup(int length, NameTable table) {
+		int code = table.candidate(nameHash);
+		if (code != none && textEquals(length, table.name(code))) {
+			return code;
+		}
+		return none;
+	}
+
+	/**
+	 * Get token for given number.
+	 * 
+	 * @param value
+	 * @return
+	 */
+	static Token numberToken(int value) {
+		if (value < 0 || value >= numbers.length) {
+			return new Token(number, value, Integer.toString(value));
+		}
+		Token ret = numbers[value];
+		if (ret == null) {
+			ret = new Token(number, value, Integer.toString(value));
+			numbers[value] = ret;
+		}
+		return ret;
+	}
+
+	/**
+	 * Get token for identifier read by the last call to {@link #readName()}. Token is created only
+	 * when identifier is found for the first time.
+	 * 
+	 * @param length
+	 * @return
+	 */
+	private Token symbol(int length) {
+		int mask = symbols.length - 1;
+		int i = slot(nameHash, mask);
+		while (symbols[i] != null) {
+			if (symbolHashes[i] == nameHash && textEquals(length, symbols[i].str)) {
+				return symbols[i];
+			}
+			i = (i + 1) & mask;
+		}
+		Token ret = new Token(ident, -1, text(length, true));
+		symbols[i] = ret;
+		symbolHashes[i] = nameHash;
+		if (++symbolCount * 2 > symbols.length) {
+			rehash();
+		}
+		return ret;
+	}
+
+	/**
+	 * Get slot of identifier table for given hash.
+	 * 
+	 * @param hash
+	 * @param mask
+	 * @return
+	 */
+	private static int slot(int hash, int mask) {
+		int h = hash * 0x9E3779B9;
+		return (h ^ h >>> 16) & mask;
+	}
+
+	/**
+	 * Double the size of identifier table.
+	 */
+	private void rehash() {
+		Token[] oldSymbols = symbols;
+		int[] oldHashes = symbolHashes;
+		symbols = new Token[oldSymbols.length * 2];
+		symbolHashes = new int[oldSymbols.length * 2];
+		int mask = symbols.length - 1;
+		for (int j = 0; j < oldSymbols.length; j++) {
+			if (oldSymbols[j] != null) {
+				int i = slot(oldHashes[j], mask);
+				while (symbols[i] != null) {
+					i = (i + 1) & mask;
+				}
+				symbols[i] = oldSymbols[j];
+				symbolHashes[i] = oldHashes[j];
+			}
 		}
 	}
 
@@ -56,50 +432,70 @@ public class Scanner extends AbstractCompiler {
 	 * @return
 	 */
 	private Token readString(char end) {
-		String str = "";
 		read();
-		while (chr != end) {
-			str += chr;
+		mark();
+		while (chr != end && !eof) {
 			read();
 		}
+		String str = text(unmark(), false);
 		read();
-		return new Token(string, 0, str, line);
+		return new Token(string, 0, str);
 	}
 
 	/**
-	 * Read name;
+	 * Read name and return its length. Name can be obtained with {@link #text(int, boolean)},
+	 * compared using {@link #textEquals(int, String)} or looked up with
+	 * {@link #lookup(int, NameTable)} until the next token is read.
 	 * 
 	 * @return
 	 */
-	private String readName() {
-		String ret = "";
+	private int readName() {
+		mark();
+		nameHash = 0;
 		while ((chr >= 'a' && chr <= 'z' || chr >= 'A' && chr <= 'Z' || chr >= '0' && chr <= '9')
 				&& !eof) {
-			ret += chr;
+			nameHash = NameTable.hash(nameHash, chr);
 			read();
 		}
-		return ret.toLowerCase();
+		return unmark();
 	}
 
 	/**
-	 * Read decimal or hexadecimal number.
+	 * Read decimal or hexadecimal number. Both values are computed while reading digits, and
+	 * hexadecimal one is used if number ends with 'h'.
 	 * 
 	 * @return
 	 */
 	private Token readNumber() {
-		String num = "";
-		int radix = 10;
-		while ((chr >= '0' && chr <= '9') || (chr >= 'a' && chr <= 'f')
-				|| (chr >= 'A' && chr <= 'F') && !eof) {
-			num += chr;
+		long dec = 0, hex = 0;
+		boolean decimal = true;
+		mark();
+		while (((chr >= '0' && chr <= '9') || (chr >= 'a' && chr <= 'f') || (chr >= 'A' && chr <= 'F'))
+				&& !eof) {
+			int digit;
+			if (chr <= '9') {
+				digit = chr - '0';
+				dec = dec * 10 + digit;
+			} else {
+				digit = (chr | 0x20) - 'a' + 10;
+				decimal = false;
+			}
+			hex = hex * 16 + digit;
+			if (hex > Integer.MAX_VALUE) {
+				// decimal value is always smaller than hexadecimal
+				throw new ParsingException(line, text(unmark(), false), "number");
+			}
 			read();
 		}
+		int length = unmark();
+		long value = dec;
 		if (chr == 'h' || chr == 'H') {
-			radix = 16;
+			value = hex;
 			read();
+		} else if (!decimal) {
+			throw new ParsingException(line, text(length, false), "decimal number");
 		}
-		Integer value = Integer.parseInt(num, radix);
-		return new Token(number, value.intValue(), value.toString(), line);
+		return numberToken((int) value);
 	}
 
 	/**
@@ -119,193 +515,198 @@ public class Scanner extends AbstractCompiler {
 	 * 
 	 * @return
 	 */
+	@Override
 	public Token next() {
-		while (chr <= ' ' && !eof) {
-			read();
-		}
-		if (chr == ';') {
-			readComment();
+		while ((chr <= ' ' || chr == ';') && !eof) {
+			if (chr == ';') {
+				readComment();
+			} else {
+				read();
+			}
 		}
-		Token ret = new Token(none, -1, "", line);
+		tokenLine = line;
+		int code = none;
 		if (!eof) {
-			String str = "";
 			if (chr >= '0' && chr <= '9') {
 				return readNumber();
 			} else if (chr == ',') {
-				ret.code = comma;
+				code = comma;
 				read();
 			} else if (chr == ':') {
-				ret.code = colon;
+				code = colon;
 				read();
 			} else if (chr == '[') {
-				ret.code = lbrack;
+				code = lbrack;
 				read();
 			} else if (chr == ']') {
-				ret.code = rbrack;
+				code = rbrack;
 				read();
 			} else if (chr == '\'' || chr == '"') {
 				return readString(chr);
 			} else if (chr == '+') {
-				ret.code = plus;
+				code = plus;
 				read();
 			} else if (chr == '-') {
-				ret.code = minus;
+				code = minus;
 				read();
 			} else if (chr == '?') {
-				ret.code = quest;
+				code = quest;
 				read();
 			} else if (chr == '.') {
 				read();
-				str = readName();
-				if (str.equals("model")) {
-					ret.code = model;
-				} else if (str.equals("stack")) {
-					ret.code = stack;
-				}
-				if (str.equals("data")) {
-					ret.code = data;
-				}
-				if (str.equals("code")) {
-					ret.code = code;
-				}
+				code = lookup(readName(), directives);
 			} else if (chr == '@') {
 				read();
-				if (readName().equals("data")) {
-					ret.code = atdata;
+				if (textEquals(readName(), "data")) {
+					code = atdata;
 				}
 			} else if (chr >= 'a' && chr <= 'z' || chr >= 'A' && chr <= 'Z') {
-				str = readName();
-				if (str.equals("title")) {
-					ret.code = title;
-				} else if (str.equals("title")) {
-					ret.code = title;
-				} else if (str.equals("small")) {
-					ret.code = small;
-				} else if (str.equals("compact")) {
-					ret.code = compact;
-				} else if (str.equals("medium")) {
-					ret.code = medium;
-				} else if (str.equals("large")) {
-					ret.code = large;
-				} else if (str.equals("db")) {
-					ret.code = db;
-				} else if (str.equals("dw")) {
-					ret.code = dw;
-				} else if (str.equals("end")) {
-					ret.code = end;
-				} else if (str.equals("proc")) {
-					ret.code = proc;
-				} else if (str.equals("far")) {
-					ret.code = far;
-				} else if (str.equals("ret")) {
-					ret.code = Scanner.ret;
-				} else if (str.equals("endp")) {
-					ret.code = endp;
-				} else if (str.equals("macro")) {
-					ret.code = macro;
-				} else if (str.equals("endm")) {
-					ret.code = endm;
-				} else if (str.equals("int")) {
-					ret.code = interr;
-				} else if (str.equals("loop")) {
-					ret.code = loop;
-				} else if (str.equals("push")) {
-					ret.code = push;
-				} else if (str.equals("pop")) {
-					ret.code = pop;
-				} else if (str.equals("inc")) {
-					ret.code = inc;
-				} else if (str.equals("dec")) {
-					ret.code = dec;
-				} else if (str.equals("call")) {
-					ret.code = call;
-				} else if (str.equals("jmp")) {
-					ret.code = jmp;
-				} else if (str.equals("ja")) {
-					ret.code = ja;
-				} else if (str.equals("jae")) {
-					ret.code = jae;
-				} else if (str.equals("jb")) {
-					ret.code = jb;
-				} else if (str.equals("jbe")) {
-					ret.code = jbe;
-				} else if (str.equals("jg")) {
-					ret.code = jg;
-				} else if (str.equals("jge")) {
-					ret.code = jge;
-				} else if (str.equals("jl")) {
-					ret.code = jl;
-				} else if (str.equals("jle")) {
-					ret.code = jle;
-				} else if (str.equals("je")) {
-					ret.code = je;
-				} else if (str.equals("mov")) {
-					ret.code = mov;
-				} else if (str.equals("xchg")) {
-					ret.code = xchg;
-				} else if (str.equals("cmp")) {
-					ret.code = cmp;
-				} else if (str.equals("add")) {
-					ret.code = add;
-				} else if (str.equals("sub")) {
-					ret.code = sub;
-				} else if (str.equals("mul")) {
-					ret.code = mul;
-				} else if (str.equals("div")) {
-					ret.code = div;
-				} else if (str.equals("neg")) {
-					ret.code = neg;
-				} else if (str.equals("ax")) {
-					ret.code = ax;
-				} else if (str.equals("ah")) {
-					ret.code = ah;
-				} else if (str.equals("al")) {
-					ret.code = al;
-				} else if (str.equals("bx")) {
-					ret.code = bx;
-				} else if (str.equals("bh")) {
-					ret.code = bh;
-				} else if (str.equals("bl")) {
-					ret.code = bl;
-				} else if (str.equals("cx")) {
-					ret.code = cx;
-				} else if (str.equals("ch")) {
-					ret.code = ch;
-				} else if (str.equals("cl")) {
-					ret.code = cl;
-				} else if (str.equals("dx")) {
-					ret.code = dx;
-				} else if (str.equals("dh")) {
-					ret.code = dh;
-				} else if (str.equals("dl")) {
-					ret.code = dl;
-				} else if (str.equals("si")) {
-					ret.code = si;
-				} else if (str.equals("di")) {
-					ret.code = di;
-				} else if (str.equals("bp")) {
-					ret.code = bp;
-				} else if (str.equals("sp")) {
-					ret.code = sp;
-				} else if (str.equals("cs")) {
-					ret.code = cs;
-				} else if (str.equals("ds")) {
-					ret.code = ds;
-				} else if (str.equals("ss")) {
-					ret.code = ss;
-				} else if (str.equals("es")) {
-					ret.code = es;
-				} else {
-					ret.code = ident;
+				int length = readName();
+				code = lookup(length, names);
+				if (code == none) {
+					return symbol(length);
 				}
 			}
-			if (ret.code == ident) {
-				ret.str = str;
-			} else {
-				ret.str = AbstractCompiler.str[ret.code];
+		}
+		return Token.of(code);
+	}
+
+	/**
+	 * Close input file, if it is read through reader opened by scanner.
+	 */
+	@Override
+	public void close() {
+		if (closeReader) {
+			try {
+				sc.close();
+			} catch (IOException e) {
+				// nothing to do, input is not needed any more
 			}
 		}
+	}
+
+	/**
+	 * Read all tokens, up to the end of file or the first token which is not recognized, into
+	 * {@link TokenStream}.
+	 * 
+	 * @return
+	 */
+	public TokenStream tokenize() {
+		TokenStream ret = new TokenStream();
+		Token token;
+		do {
+			token = next();
+			ret.add(token, tokenLine);
+		} while (token.code != none);
 		return ret;
 	}
 
+	/**
+	 * Check if input is ASCII input large enough to be split into chunks by
+	 * {@link #tokenizeParallel()}, and no token was read yet.
+	 * 
+	 * @return
+	 */
+	boolean isLarge() {
+		return input != null && input.limit() >= 2 * CHUNK_SIZE && pos == 1 && tokenLine == 0;
+	}
+
+	/**
+	 * Read all tokens into {@link TokenStream} like {@link #tokenize()} does, but split large ASCII
+	 * input into chunks at line ends and scan them in parallel on the common {@link ForkJoinPool}.
+	 * Token runs of chunks are joined in order, with their lines moved by the number of lines in
+	 * chunks before them. Small input, input read through reader, scanner which already returned
+	 * some tokens or machine with only one processor is scanned sequentially.
+	 * 
+	 * @return
+	 */
+	public TokenStream tokenizeParallel() {
+		if (!isLarge() || ForkJoinPool.getCommonPoolParallelism() < 2) {
+			return tokenize();
+		}
+		return tokenize(Math.min(input.limit() / CHUNK_SIZE,
+				4 * ForkJoinPool.getCommonPoolParallelism()));
+	}
+
+	/**
+	 * Read all tokens of ASCII input split into given number of chunks, whatever the size of input
+	 * and number of processors are, so that chunking can be checked on small programs. Input read
+	 * through reader or scanner which already returned some tokens is scanned sequentially.
+	 * 
+	 * @param chunks
+	 * @return
+	 */
+	TokenStream tokenize(int chunks) {
+		if (input == null || chunks < 2 || pos != 1 || tokenLine != 0) {
+			return tokenize();
+		}
+
+		List<Chunk> tasks = new ArrayList<Chunk>();
+		int start = 0;
+		for (int i = 1; i <= chunks && start < input.limit(); i++) {
+			int end = i == chunks ? input.limit() : Math.max(start + 1, input.limit() / chunks * i);
+			while (end < input.limit() && input.get(end - 1) != '\n') {
+				end++;
+			}
+			ByteBuffer chunk = input.duplicate();
+			chunk.limit(end).position(start);
+			tasks.add(new Chunk(chunk.slice()));
+			start = end;
+		}
+		ForkJoinTask.invokeAll(tasks);
+
+		TokenStream ret = new TokenStream();
+		int lines = 0;
+		for (Chunk task : tasks) {
+			TokenStream run;
+			try {
+				run = task.join();
+			} catch (ParsingException e) {
+				// scan sequentially to report the error with correct line
+				return tokenize();
+			}
+			boolean complete = task.scanner.eof;
+			ret.append(run, lines, complete);
+			if (!complete) {
+				break;
+			}
+			lines += task.scanner.line - 1;
+		}
+		if (ret.size() == 0 || ret.code(ret.size() - 1) != none) {
+			ret.add(Token.of(none), lines + 1);
+		}
+		eof = true;
+		return ret;
+	}
+
+	/**
+	 * Task scanning one chunk of input.
+	 */
+	private static class Chunk extends RecursiveTask<TokenStream> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Scanner scanner;
+
+		public Chunk(ByteBuffer input) {
+			scanner = Scanner.chunk(input);
+		}
+
+		@Override
+		protected TokenStream compute() {
+			return scanner.tokenize();
+		}
+
+	}
+
+	/**
+	 * Get line of the last token returned by {@link #next()}.
+	 * 
+	 * @return
+	 */
+	@Override
+	public int getLine() {
+		return tokenLine;
+	}
+
 }
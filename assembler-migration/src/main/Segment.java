@@ -0,0 +1,133 @@
+package main;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Append only storage for one section of generated code. Text is kept in memory until it grows over
+ * given limit, after that it is spilled to temporary file, so memory needed for section does not
+ * depend on its size. Temporary file is deleted when segment is written or disposed, so segment of
+ * translation which fails must be disposed.
+ *
+ * @author Nikola Trkulja
+ * @author Igor Let
+ */
+class Segment implements Appendable {
+
+	/**
+	 * Default number of characters kept in memory before segment is spilled to disk.
+	 */
+	static final int DEFAULT_LIMIT = 1 << 20;
+
+	private static final String CHARSET = "UTF-8";
+
+	private final int limit;
+	private StringBuilder memory;
+	private FileChannel file;
+	private Writer spill;
+
+	public Segment() {
+		this(DEFAULT_LIMIT);
+	}
+
+	public Segment(int limit) {
+		this.limit = limit;
+		memory = new StringBuilder();
+	}
+
+	@Override
+	public Segment append(CharSequence csq) throws IOException {
+		memory.append(csq);
+		if (memory.length() > limit) {
+			spill();
+		}
+		return this;
+	}
+
+	@Override
+	public Segment append(CharSequence csq, int start, int end) throws IOException {
+		return append(csq.subSequence(start, end));
+	}
+
+	@Override
+	public Segment append(char c) throws IOException {
+		memory.append(c);
+		if (memory.length() > limit) {
+			spill();
+		}
+		return this;
+	}
+
+	/**
+	 * Move text kept in memory to temporary file.
+	 *
+	 * @throws IOException
+	 */
+	private void spill() throws IOException {
+		if (spill == null) {
+			file = FileChannel.open(Files.createTempFile("wsl", ".tmp"), StandardOpenOption.READ,
+					StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+			spill = new BufferedWriter(Channels.newWriter(file, CHARSET));
+		}
+		spill.append(memory);
+		memory.setLength(0);
+	}
+
+	/**
+	 * Write whole content of segment to given writer and release its resources. Segment can not be
+	 * used after this method is called.
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeTo(Writer out) throws IOException {
+		try {
+			if (spill != null) {
+				spill.flush();
+				file.position(0);
+				// closed with the file
+				Reader in = Channels.newReader(file, CHARSET);
+				char[] chunk = new char[8192];
+				int n;
+				while ((n = in.read(chunk)) != -1) {
+					out.write(chunk, 0, n);
+				}
+			}
+			out.append(memory);
+		} finally {
+			dispose();
+		}
+	}
+
+	/**
+	 * Release memory and delete temporary file, if there is one. Segment can not be used after
+	 * this method is called, and calling it again does nothing.
+	 */
+	public void dispose() {
+		memory = null;
+		if (file != null) {
+			try {
+				file.close();
+			} catch (IOException e) {
+				// nothing to do, file is deleted on close anyway
+			}
+			file = null;
+			spill = null;
+		}
+	}
+
+	@Override
+	public String toString() {
+		if (spill != null) {
+			throw new IllegalStateException("Segment is spilled to temporary file.");
+		}
+		return memory.toString();
+	}
+
+}
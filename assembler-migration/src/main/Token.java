@@ -1,31 +1,61 @@
 package main;
 
 /**
- * Class defines token entity used during scanning, parsing and code generation.
- * 
+ * Class defines token entity used during scanning, parsing and code generation. Tokens are
+ * immutable, so tokens with fixed code (everything except identifiers, numbers and strings) are
+ * shared, see {@link #of(int)}. Line of token is not part of it, it is tracked separately by scanner
+ * and parser.
+ *
  * @author Igor Let
  * @author Nikola Trkulja
  */
 public class Token {
 
-	int code;
-	int val;
-	String str;
-	int line;
+	/**
+	 * Shared instances of tokens with fixed code, indexed by code.
+	 */
+	private static final Token[] fixed = new Token[AbstractCompiler.str.length];
 
-	public Token(int line) {
-		this.line = line;
+	static {
+		for (int code = 0; code < fixed.length; code++) {
+			fixed[code] = new Token(code, -1, AbstractCompiler.str[code]);
+		}
 	}
 
-	public Token(int code, int val, String str, int line) {
+	final int code;
+	final int val;
+	final String str;
+
+	/**
+	 * Name of variable, which differs from string only for indexed variable, for example name of
+	 * <code>array[bp+si+1]</code> is "array".
+	 */
+	final String name;
+
+	public Token(int code, int val, String str) {
+		this(code, val, str, str);
+	}
+
+	public Token(int code, int val, String str, String name) {
 		this.code = code;
 		this.val = val;
 		this.str = str;
-		this.line = line;
+		this.name = name;
+	}
+
+	/**
+	 * Get shared token with given code. Must not be used for identifiers, numbers and strings.
+	 *
+	 * @param code
+	 * @return
+	 */
+	public static Token of(int code) {
+		return fixed[code];
 	}
 
 	public boolean sameAs(Token token) {
-		return this.code == token.code && this.val == token.val && this.str.equals(token.str);
+		return this == token || this.code == token.code && this.val == token.val
+				&& this.str.equals(token.str);
 	}
 
 	@Override
@@ -33,7 +63,6 @@ public class Token {
 		String out = "Token: \ncode: " + code;
 		out += "\n val: " + val;
 		out += "\n str: " + str;
-		out += "\n line: " + line;
 		return out;
 	}
 
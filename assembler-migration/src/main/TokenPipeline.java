@@ -0,0 +1,141 @@
+package main;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Source of tokens which runs {@link Scanner} on its own thread, ahead of the parser. Scanner fills
+ * blocks of tokens and hands them over to parser through bounded queue, and parser gives them
+ * back through another queue when it has read them, so the same few blocks are used all the time
+ * and scanner can never get more than that many blocks ahead. Exception thrown by scanner is
+ * thrown to parser when it reaches the token on which scanner failed.
+ * 
+ * @author Igor Let
+ * @author Nikola Trkulja
+ */
+public class TokenPipeline implements TokenSource {
+
+	private static final int BLOCK_SIZE = 1024;
+	private static final int BLOCKS = 16;
+
+	private final Scanner scanner;
+	private final BlockingQueue<Block> full;
+	private final BlockingQueue<Block> free;
+	private final Thread thread;
+
+	private Block block;
+	private int index;
+	private int line;
+	private volatile boolean closed;
+
+	public TokenPipeline(Scanner scanner) {
+		this.scanner = scanner;
+		full = new ArrayBlockingQueue<Block>(BLOCKS);
+		free = new ArrayBlockingQueue<Block>(BLOCKS);
+		for (int i = 0; i < BLOCKS; i++) {
+			free.add(new Block());
+		}
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				scan();
+			}
+		}, "scanner");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Scanner thread. Reads tokens until the end of input, or the first token which is not
+	 * recognized.
+	 */
+	private void scan() {
+		try {
+			Block current = free.take();
+			while (true) {
+				Token token;
+				try {
+					token = scanner.next();
+				} catch (RuntimeException e) {
+					current.error = e;
+					full.put(current);
+					return;
+				}
+				current.tokens[current.size] = token;
+				current.lines[current.size] = scanner.getLine();
+				current.size++;
+				if (token.code == AbstractCompiler.none) {
+					full.put(current);
+					return;
+				}
+				if (current.size == BLOCK_SIZE) {
+					full.put(current);
+					current = free.take();
+				}
+			}
+		} catch (InterruptedException e) {
+			// pipeline is closed
+		}
+	}
+
+	@Override
+	public Token next() {
+		while (block == null || index == block.size) {
+			if (block != null) {
+				if (block.error != null) {
+					throw block.error;
+				}
+				if (block.size > 0 && block.tokens[block.size - 1].code == AbstractCompiler.none) {
+					// end of input, keep returning the last token
+					return block.tokens[block.size - 1];
+				}
+				block.size = 0;
+				free.add(block);
+			}
+			try {
+				block = full.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for scanner.");
+			}
+			index = 0;
+		}
+		line = block.lines[index];
+		return block.tokens[index++];
+	}
+
+	@Override
+	public int getLine() {
+		return line;
+	}
+
+	/**
+	 * Stop scanner thread, if it is still running, and close scanner.
+	 */
+	@Override
+	public void close() {
+		if (!closed) {
+			closed = true;
+			thread.interrupt();
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			scanner.close();
+		}
+	}
+
+	/**
+	 * Block of tokens and their lines.
+	 */
+	private static class Block {
+
+		final Token[] tokens = new Token[BLOCK_SIZE];
+		final int[] lines = new int[BLOCK_SIZE];
+		int size;
+		RuntimeException error;
+
+	}
+
+}
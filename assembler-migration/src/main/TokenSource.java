@@ -0,0 +1,31 @@
+package main;
+
+/**
+ * Source of tokens read by {@link Parser}.
+ * 
+ * @author Igor Let
+ * @author Nikola Trkulja
+ */
+public interface TokenSource {
+
+	/**
+	 * Return next token. After the end of input, token with code {@link AbstractCompiler#none} is
+	 * returned.
+	 * 
+	 * @return
+	 */
+	Token next();
+
+	/**
+	 * Get line of the last token returned by {@link #next()}.
+	 * 
+	 * @return
+	 */
+	int getLine();
+
+	/**
+	 * Release resources used for reading input. Tokens can not be read after source is closed.
+	 */
+	void close();
+
+}
@@ -0,0 +1,174 @@
+package main;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * All tokens of one input file, kept in parallel arrays of token codes, values (of numbers), lines
+ * and indexes of text (of identifiers and strings) instead of one {@link Token} object per token.
+ * Stream is created by {@link Scanner#tokenize()} and is not changed after that, so it can be kept
+ * and parsed any number of times.
+ *
+ * @author Igor Let
+ * @author Nikola Trkulja
+ */
+public class TokenStream extends AbstractCompiler {
+
+	private int[] codes;
+	private int[] values;
+	private int[] lines;
+	private int[] texts;
+	private int size;
+
+	/**
+	 * Identifier and string tokens, referenced by texts.
+	 */
+	private Token[] symbols;
+	private int symbolCount;
+	private Map<String, Integer> identifiers;
+
+	TokenStream() {
+		codes = new int[1024];
+		values = new int[1024];
+		lines = new int[1024];
+		texts = new int[1024];
+		symbols = new Token[64];
+		identifiers = new HashMap<String, Integer>();
+	}
+
+	/**
+	 * Append token. Every identifier is stored only once.
+	 *
+	 * @param token
+	 * @param line
+	 */
+	void add(Token token, int line) {
+		if (size == codes.length) {
+			codes = grow(codes);
+			values = grow(values);
+			lines = grow(lines);
+			texts = grow(texts);
+		}
+		codes[size] = token.code;
+		values[size] = token.val;
+		lines[size] = line;
+		texts[size] = -1;
+		if (token.code == ident || token.code == string) {
+			texts[size] = symbolIndex(token);
+		}
+		size++;
+	}
+
+	private int symbolIndex(Token token) {
+		if (token.code == ident) {
+			Integer index = identifiers.get(token.str);
+			if (index != null) {
+				return index;
+			}
+			identifiers.put(token.str, symbolCount);
+		}
+		if (symbolCount == symbols.length) {
+			Token[] grown = new Token[symbols.length * 2];
+			System.arraycopy(symbols, 0, grown, 0, symbolCount);
+			symbols = grown;
+		}
+		symbols[symbolCount] = token;
+		return symbolCount++;
+	}
+
+	/**
+	 * Append tokens of another stream, moving their lines by given offset. If stream is complete
+	 * (it was scanned to the end of its input) its last token, which marks the end, is not
+	 * appended.
+	 *
+	 * @param run
+	 * @param lineOffset
+	 * @param complete
+	 */
+	void append(TokenStream run, int lineOffset, boolean complete) {
+		int count = complete ? run.size - 1 : run.size;
+		int[] symbolIndexes = new int[run.symbolCount];
+		for (int i = 0; i < run.symbolCount; i++) {
+			symbolIndexes[i] = symbolIndex(run.symbols[i]);
+		}
+		while (size + count > codes.length) {
+			codes = grow(codes);
+			values = grow(values);
+			lines = grow(lines);
+			texts = grow(texts);
+		}
+		System.arraycopy(run.codes, 0, codes, size, count);
+		System.arraycopy(run.values, 0, values, size, count);
+		for (int i = 0; i < count; i++) {
+			lines[size + i] = run.lines[i] + lineOffset;
+			texts[size + i] = run.texts[i] < 0 ? -1 : symbolIndexes[run.texts[i]];
+		}
+		size += count;
+	}
+
+	private static int[] grow(int[] array) {
+		int[] grown = new int[array.length * 2];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+
+	/**
+	 * Get number of tokens, including the last one (which has {@link AbstractCompiler#none} code).
+	 *
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Get code of token at given index. Index after the end of stream gives code
+	 * {@link AbstractCompiler#none}.
+	 *
+	 * @param i
+	 * @return
+	 */
+	public int code(int i) {
+		return i < size ? codes[i] : none;
+	}
+
+	/**
+	 * Get value of token at given index.
+	 *
+	 * @param i
+	 * @return
+	 */
+	public int value(int i) {
+		return i < size ? values[i] : -1;
+	}
+
+	/**
+	 * Get line of token at given index.
+	 *
+	 * @param i
+	 * @return
+	 */
+	public int line(int i) {
+		return lines[i < size ? i : size - 1];
+	}
+
+	/**
+	 * Get token at given index. Tokens are shared, so no token is created.
+	 *
+	 * @param i
+	 * @return
+	 */
+	public Token token(int i) {
+		if (i >= size) {
+			return Token.of(none);
+		}
+		if (texts[i] >= 0) {
+			return symbols[texts[i]];
+		}
+		if (codes[i] == number) {
+			return Scanner.numberToken(values[i]);
+		}
+		return Token.of(codes[i]);
+	}
+
+}
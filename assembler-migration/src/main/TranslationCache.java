@@ -0,0 +1,208 @@
+package main;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache of generated code on disk. Every entry is a file named by SHA-256 hash of the input program
+ * together with version and options of translator, so unchanged programs are not translated again,
+ * even by another run. Total size of entries is bounded, least recently used entries are removed
+ * first (last modification time of entry file is its last use, so order survives between runs).
+ * Cache can be used by many threads at once.
+ *
+ * @author Nikola Trkulja
+ * @author Igor Let
+ */
+public class TranslationCache {
+
+	static final Charset CHARSET = Charset.forName("UTF-8");
+
+	private static final String EXTENSION = ".wsl";
+
+	private final Path dir;
+	private final long maxBytes;
+
+	/**
+	 * Entries and their sizes in order of use.
+	 */
+	private final LinkedHashMap<String, Long> entries;
+	private long bytes;
+
+	/**
+	 * Open cache in given directory, creating directory if needed.
+	 *
+	 * @param dir
+	 * @param maxBytes
+	 * @throws IOException
+	 */
+	public TranslationCache(Path dir, long maxBytes) throws IOException {
+		this.dir = dir;
+		this.maxBytes = maxBytes;
+		entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+		Files.createDirectories(dir);
+
+		final Map<Path, FileTime> times = new LinkedHashMap<Path, FileTime>();
+		DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + EXTENSION);
+		try {
+			for (Path file : stream) {
+				times.put(file, Files.getLastModifiedTime(file));
+			}
+		} finally {
+			stream.close();
+		}
+		List<Path> files = new ArrayList<Path>(times.keySet());
+		Collections.sort(files, new Comparator<Path>() {
+			@Override
+			public int compare(Path file1, Path file2) {
+				return times.get(file1).compareTo(times.get(file2));
+			}
+		});
+		for (Path file : files) {
+			String name = file.getFileName().toString();
+			long size = Files.size(file);
+			entries.put(name.substring(0, name.length() - EXTENSION.length()), size);
+			bytes += size;
+		}
+		evict();
+	}
+
+	/**
+	 * Compute key of entry for given program. Options must contain version of translator and
+	 * every option which affects generated code.
+	 *
+	 * @param options
+	 * @param program
+	 * @return
+	 */
+	public static String key(String options, ByteBuffer program) {
+		MessageDigest digest = newDigest();
+		digest.update(options.getBytes(CHARSET));
+		digest.update((byte) 0);
+		digest.update(program.duplicate());
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * Create SHA-256 digest.
+	 *
+	 * @return
+	 */
+	static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Write digest as hexadecimal string.
+	 *
+	 * @param digest
+	 * @return
+	 */
+	static String toHex(byte[] digest) {
+		StringBuilder sb = new StringBuilder(digest.length * 2);
+		for (byte b : digest) {
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Get file of entry with given key, or null if there is no such entry. Entry can be removed by
+	 * another thread at any time, so file must be opened before it is used.
+	 *
+	 * @param key
+	 * @return
+	 */
+	public Path get(String key) {
+		synchronized (this) {
+			if (entries.get(key) == null) {
+				return null;
+			}
+		}
+		Path file = file(key);
+		try {
+			Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+		} catch (IOException e) {
+			// removed in the meantime
+			return null;
+		}
+		return file;
+	}
+
+	/**
+	 * Create temporary file in cache directory. Generated code is written to it and then it is
+	 * added to cache with {@link #put(String, Path)}.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public Path createTempFile() throws IOException {
+		return Files.createTempFile(dir, "entry", ".tmp");
+	}
+
+	/**
+	 * Add entry with given key, moving given file into cache.
+	 *
+	 * @param key
+	 * @param temp
+	 * @throws IOException
+	 */
+	public void put(String key, Path temp) throws IOException {
+		long size = Files.size(temp);
+		Files.move(temp, file(key), StandardCopyOption.REPLACE_EXISTING);
+		synchronized (this) {
+			Long old = entries.put(key, size);
+			bytes += size - (old == null ? 0 : old);
+			evict();
+		}
+	}
+
+	/**
+	 * Remove least recently used entries until cache is small enough. The last used entry is
+	 * always kept.
+	 */
+	private synchronized void evict() {
+		Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+		while (bytes > maxBytes && entries.size() > 1) {
+			Map.Entry<String, Long> eldest = iterator.next();
+			try {
+				Files.deleteIfExists(file(eldest.getKey()));
+			} catch (IOException e) {
+				// entry is forgotten anyway
+			}
+			bytes -= eldest.getValue();
+			iterator.remove();
+		}
+	}
+
+	private Path file(String key) {
+		return dir.resolve(key + EXTENSION);
+	}
+
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+}
@@ -0,0 +1,165 @@
+package main;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Thin client of {@link TranslationServer}. It uses no classes of translator itself, so it starts
+ * much faster than {@link App}. One client keeps one connection, and can send any number of
+ * requests, one at a time.
+ *
+ * <pre>
+ * java main.TranslationClient [-u socket] [-o output.wsl] (file.asm | -stop)
+ * </pre>
+ *
+ * Generated code is written to output file, or to standard output. Error of translation is written
+ * to standard error and client exits with status 1. Without socket, client connects to
+ * {@link TranslationServer#defaultSocket()}.
+ *
+ * @author Nikola Trkulja
+ * @author Igor Let
+ */
+public class TranslationClient implements Closeable {
+
+	private final SocketChannel socket;
+	private final InputStream in;
+	private final OutputStream out;
+
+	/**
+	 * Connect to daemon on given socket.
+	 *
+	 * @param path
+	 * @throws IOException
+	 */
+	public TranslationClient(Path path) throws IOException {
+		socket = SocketChannel.open(UnixDomainSocketAddress.of(path));
+		in = new BufferedInputStream(Channels.newInputStream(socket));
+		out = new BufferedOutputStream(Channels.newOutputStream(socket));
+	}
+
+	/**
+	 * Translate given file. File is read by daemon, so both must run on the same machine.
+	 *
+	 * @param file
+	 * @return generated code, UTF-8
+	 * @throws IOException if program has errors or daemon can not be reached
+	 */
+	public byte[] translate(Path file) throws IOException {
+		out.write(("FILE " + file.toAbsolutePath() + '\n').getBytes(TranslationCache.CHARSET));
+		out.flush();
+		return response();
+	}
+
+	/**
+	 * Translate given program.
+	 *
+	 * @param program
+	 * @return generated code, UTF-8
+	 * @throws IOException if program has errors or daemon can not be reached
+	 */
+	public byte[] translate(byte[] program) throws IOException {
+		out.write(("SOURCE " + program.length + '\n').getBytes(TranslationCache.CHARSET));
+		out.write(program);
+		out.flush();
+		return response();
+	}
+
+	/**
+	 * Stop daemon.
+	 *
+	 * @throws IOException
+	 */
+	public void stop() throws IOException {
+		out.write("STOP\n".getBytes(TranslationCache.CHARSET));
+		out.flush();
+		response();
+	}
+
+	private byte[] response() throws IOException {
+		String line = TranslationServer.readLine(in);
+		if (line == null) {
+			throw new EOFException("Connection closed by daemon");
+		}
+		if (line.startsWith("ERROR ")) {
+			throw new IOException(line.substring(6));
+		}
+		if (!line.startsWith("OK ")) {
+			throw new IOException("Invalid response: " + line);
+		}
+		byte[] code = new byte[Integer.parseInt(line.substring(3))];
+		for (int n = 0; n < code.length;) {
+			int read = in.read(code, n, code.length - n);
+			if (read < 0) {
+				throw new EOFException("Code ended after " + n + " of " + code.length + " bytes");
+			}
+			n += read;
+		}
+		return code;
+	}
+
+	@Override
+	public void close() throws IOException {
+		socket.close();
+	}
+
+	public static void main(String[] args) throws Exception {
+		Path socket = TranslationServer.defaultSocket();
+		Path output = null;
+		Path input = null;
+		boolean stop = false;
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-u") && i + 1 < args.length) {
+				socket = Paths.get(args[++i]);
+			} else if (args[i].equals("-o") && i + 1 < args.length) {
+				output = Paths.get(args[++i]);
+			} else if (args[i].equals("-stop")) {
+				stop = true;
+			} else {
+				input = Paths.get(args[i]);
+			}
+		}
+
+		if (input == null && !stop) {
+			System.out.println("No input file specified.");
+			System.out.println("Usage: java main.TranslationClient [-u socket] [-o output.wsl] (file.asm | -stop)");
+			return;
+		}
+
+		TranslationClient client = new TranslationClient(socket);
+		try {
+			if (stop) {
+				client.stop();
+				return;
+			}
+			byte[] code;
+			try {
+				code = client.translate(input);
+			} catch (IOException e) {
+				System.err.println(input + ": " + e.getMessage());
+				System.exit(1);
+				return;
+			}
+			if (output == null) {
+				System.out.write(code);
+				System.out.flush();
+			} else {
+				Files.write(output, code);
+			}
+		} finally {
+			client.close();
+		}
+	}
+
+}
@@ -0,0 +1,51 @@
+package main;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event of translation of one program, emitted by {@link Translator}. Like all
+ * events it is recorded only while JFR recording which enables it is running, for example:
+ *
+ * <pre>
+ * java -XX:StartFlightRecording=filename=translator.jfr main.App ...
+ * </pre>
+ *
+ * @author Nikola Trkulja
+ * @author Igor Let
+ */
+@Name("main.Translation")
+@Label("Translation")
+@Category("Translator")
+@Description("Translation of one assembler program")
+class TranslationEvent extends Event {
+
+	@Label("Source")
+	@Description("Translated file, or null if program was not read from file")
+	String source;
+
+	@Label("Cached")
+	@Description("Generated code was copied from cache")
+	boolean cached;
+
+	@Label("Tokens")
+	long tokens;
+
+	@Label("Macro Expansions")
+	long macroExpansions;
+
+	@Label("Procedures")
+	long procedures;
+
+	@Label("Flag Blocks")
+	long flagBlocks;
+
+	@Label("Output Size")
+	@DataAmount
+	long outputBytes;
+
+}
@@ -0,0 +1,417 @@
+package main;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters of all translations in this JVM. Metrics are off until {@link #enable()} is called,
+ * and while they are off translation does not measure anything but a few plain counters of
+ * {@link Parser}. When they are enabled, {@link Translator} times scanner and code buffer of every
+ * translation (see {@link TimedSource} and {@link TimedBuffer}), counts generated code, and adds
+ * the results here. Counters are published as MBean {@value #OBJECT_NAME}, and can be written in
+ * Prometheus text format with {@link #dump(Path)}.
+ *
+ * @author Nikola Trkulja
+ * @author Igor Let
+ */
+public final class TranslationMetrics implements TranslationMetricsMBean {
+
+	public static final String OBJECT_NAME = "main:type=TranslationMetrics";
+
+	private static final TranslationMetrics INSTANCE = new TranslationMetrics();
+
+	private static volatile boolean enabled;
+
+	private final AtomicLong files = new AtomicLong();
+	private final AtomicLong cacheHits = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+	private final AtomicLong tokens = new AtomicLong();
+	private final AtomicLong macroExpansions = new AtomicLong();
+	private final AtomicLong procedures = new AtomicLong();
+	private final AtomicLong flagBlocks = new AtomicLong();
+	private final AtomicLong outputBytes = new AtomicLong();
+	private final AtomicLong scannerNanos = new AtomicLong();
+	private final AtomicLong parserNanos = new AtomicLong();
+	private final AtomicLong codeBufferNanos = new AtomicLong();
+
+	private TranslationMetrics() {
+	}
+
+	public static TranslationMetrics getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Turn metrics on and register MBean with platform MBean server. Translations which are
+	 * already running are not counted.
+	 */
+	public static synchronized void enable() {
+		if (enabled) {
+			return;
+		}
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (!server.isRegistered(name)) {
+				server.registerMBean(INSTANCE, name);
+			}
+		} catch (JMException e) {
+			throw new IllegalStateException("Can not register " + OBJECT_NAME, e);
+		}
+		enabled = true;
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Add translation done by given parser.
+	 *
+	 * @param parser
+	 * @param scannerNanos time spent in scanner (see {@link TimedSource})
+	 * @param nanos time from the start of scanning until the end of parsing
+	 * @param output number of characters of generated code
+	 */
+	void addTranslation(Parser parser, long scannerNanos, long nanos, long output) {
+		files.incrementAndGet();
+		tokens.addAndGet(parser.getTokenCount());
+		macroExpansions.addAndGet(parser.getMacroExpansions());
+		procedures.addAndGet(parser.getProcedures());
+		flagBlocks.addAndGet(parser.getFlagBlocks());
+		outputBytes.addAndGet(output);
+		this.scannerNanos.addAndGet(scannerNanos);
+		codeBufferNanos.addAndGet(parser.getCodeBufferNanos());
+		parserNanos.addAndGet(nanos - scannerNanos - parser.getCodeBufferNanos());
+	}
+
+	/**
+	 * Add program whose code was copied from cache.
+	 *
+	 * @param output number of characters of generated code
+	 */
+	void addCacheHit(long output) {
+		files.incrementAndGet();
+		cacheHits.incrementAndGet();
+		outputBytes.addAndGet(output);
+	}
+
+	void addFailure() {
+		failures.incrementAndGet();
+	}
+
+	@Override
+	public long getFiles() {
+		return files.get();
+	}
+
+	@Override
+	public long getCacheHits() {
+		return cacheHits.get();
+	}
+
+	@Override
+	public long getFailures() {
+		return failures.get();
+	}
+
+	@Override
+	public long getTokens() {
+		return tokens.get();
+	}
+
+	@Override
+	public long getMacroExpansions() {
+		return macroExpansions.get();
+	}
+
+	@Override
+	public long getProcedures() {
+		return procedures.get();
+	}
+
+	@Override
+	public long getFlagBlocks() {
+		return flagBlocks.get();
+	}
+
+	@Override
+	public long getOutputBytes() {
+		return outputBytes.get();
+	}
+
+	@Override
+	public long getScannerNanos() {
+		return scannerNanos.get();
+	}
+
+	@Override
+	public long getParserNanos() {
+		return parserNanos.get();
+	}
+
+	@Override
+	public long getCodeBufferNanos() {
+		return codeBufferNanos.get();
+	}
+
+	@Override
+	public void reset() {
+		for (AtomicLong counter : new AtomicLong[] { files, cacheHits, failures, tokens,
+				macroExpansions, procedures, flagBlocks, outputBytes, scannerNanos, parserNanos,
+				codeBufferNanos }) {
+			counter.set(0);
+		}
+	}
+
+	/**
+	 * Write counters in Prometheus text format.
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	public void write(Writer out) throws IOException {
+		counter(out, "files", "Programs translated, including ones copied from cache.", getFiles());
+		counter(out, "cache_hits", "Programs copied from cache.", getCacheHits());
+		counter(out, "failures", "Programs not translated because of errors.", getFailures());
+		counter(out, "tokens", "Tokens read from programs.", getTokens());
+		counter(out, "macro_expansions", "Macro calls expanded.", getMacroExpansions());
+		counter(out, "procedures", "Procedures translated.", getProcedures());
+		counter(out, "flag_blocks", "Generated blocks which compute a flag.", getFlagBlocks());
+		counter(out, "output_bytes", "Bytes of generated code.", getOutputBytes());
+		seconds(out, "scanner", "Time spent in scanner.", getScannerNanos());
+		seconds(out, "parser", "Time spent in parser, without scanner and code buffer.",
+				getParserNanos());
+		seconds(out, "code_buffer", "Time spent in code buffer.", getCodeBufferNanos());
+		out.flush();
+	}
+
+	/**
+	 * Write counters in Prometheus text format to given file. File is replaced at once, so that
+	 * collector which reads it never sees partly written file.
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public void dump(Path file) throws IOException {
+		Path dir = file.toAbsolutePath().getParent();
+		Files.createDirectories(dir);
+		Path temp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+		try {
+			Writer out = Files.newBufferedWriter(temp, TranslationCache.CHARSET);
+			try {
+				write(out);
+			} finally {
+				out.close();
+			}
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private static void counter(Writer out, String name, String help, long value)
+			throws IOException {
+		name = "translator_" + name + "_total";
+		out.write("# HELP " + name + " " + help + "\n# TYPE " + name + " counter\n" + name + " "
+				+ value + "\n");
+	}
+
+	private static void seconds(Writer out, String name, String help, long nanos)
+			throws IOException {
+		name = "translator_" + name + "_seconds_total";
+		out.write("# HELP " + name + " " + help + "\n# TYPE " + name + " counter\n" + name + " "
+				+ nanos / 1e9 + "\n");
+	}
+
+	/**
+	 * Source of tokens which measures time spent in the source it wraps.
+	 */
+	static final class TimedSource implements TokenSource {
+
+		private final TokenSource source;
+		private long nanos;
+
+		TimedSource(TokenSource source) {
+			this.source = source;
+		}
+
+		@Override
+		public Token next() {
+			long start = System.nanoTime();
+			try {
+				return source.next();
+			} finally {
+				nanos += System.nanoTime() - start;
+			}
+		}
+
+		@Override
+		public int getLine() {
+			return source.getLine();
+		}
+
+		@Override
+		public void close() {
+			source.close();
+		}
+
+		long getNanos() {
+			return nanos;
+		}
+
+	}
+
+	/**
+	 * Code buffer which measures time spent in inserting and writing code. Methods of buffer call
+	 * each other, so time is measured only in the outermost call.
+	 */
+	static final class TimedBuffer extends CodeBuffer {
+
+		private long nanos;
+		private int depth;
+
+		TimedBuffer() {
+			super();
+		}
+
+		TimedBuffer(Writer out) {
+			super(out);
+		}
+
+		@Override
+		public void insertIntoDeclaration(String... s) {
+			long start = enter();
+			try {
+				super.insertIntoDeclaration(s);
+			} finally {
+				exit(start);
+			}
+		}
+
+		@Override
+		public void insertIntoBody(String... s) {
+			long start = enter();
+			try {
+				super.insertIntoBody(s);
+			} finally {
+				exit(start);
+			}
+		}
+
+		@Override
+		public void insertIntoProcedure(String... s) {
+			long start = enter();
+			try {
+				super.insertIntoProcedure(s);
+			} finally {
+				exit(start);
+			}
+		}
+
+		@Override
+		public CodeBuffer append(String s) {
+			long start = enter();
+			try {
+				return super.append(s);
+			} finally {
+				exit(start);
+			}
+		}
+
+		@Override
+		public void newLine() {
+			long start = enter();
+			try {
+				super.newLine();
+			} finally {
+				exit(start);
+			}
+		}
+
+		@Override
+		public void endBasicBlock() {
+			long start = enter();
+			try {
+				super.endBasicBlock();
+			} finally {
+				exit(start);
+			}
+		}
+
+		@Override
+		public void label(String name) {
+			long start = enter();
+			try {
+				super.label(name);
+			} finally {
+				exit(start);
+			}
+		}
+
+		@Override
+		public void jump(String condition, String label) {
+			long start = enter();
+			try {
+				super.jump(condition, label);
+			} finally {
+				exit(start);
+			}
+		}
+
+		@Override
+		public void endActions() {
+			long start = enter();
+			try {
+				super.endActions();
+			} finally {
+				exit(start);
+			}
+		}
+
+		@Override
+		public void addBegin() {
+			long start = enter();
+			try {
+				super.addBegin();
+			} finally {
+				exit(start);
+			}
+		}
+
+		@Override
+		public void close() {
+			long start = enter();
+			try {
+				super.close();
+			} finally {
+				exit(start);
+			}
+		}
+
+		private long enter() {
+			return depth++ == 0 ? System.nanoTime() : 0;
+		}
+
+		private void exit(long start) {
+			if (--depth == 0) {
+				nanos += System.nanoTime() - start;
+			}
+		}
+
+		long getNanos() {
+			return nanos;
+		}
+
+	}
+
+}
@@ -0,0 +1,75 @@
+package main;
+
+/**
+ * Management interface of {@link TranslationMetrics}. All values are totals since metrics were
+ * enabled or last reset.
+ *
+ * @author Nikola Trkulja
+ * @author Igor Let
+ */
+public interface TranslationMetricsMBean {
+
+	/**
+	 * Get number of programs translated, including ones copied from cache.
+	 *
+	 * @return
+	 */
+	long getFiles();
+
+	/**
+	 * Get number of programs copied from cache instead of translated.
+	 *
+	 * @return
+	 */
+	long getCacheHits();
+
+	/**
+	 * Get number of programs which were not translated because of errors.
+	 *
+	 * @return
+	 */
+	long getFailures();
+
+	/**
+	 * Get number of tokens read from programs, not counting tokens of expanded macros.
+	 *
+	 * @return
+	 */
+	long getTokens();
+
+	long getMacroExpansions();
+
+	long getProcedures();
+
+	/**
+	 * Get number of generated blocks which compute value of a flag.
+	 *
+	 * @return
+	 */
+	long getFlagBlocks();
+
+	/**
+	 * Get number of characters of generated code. Generated code is ASCII, so it is the same as
+	 * number of bytes.
+	 *
+	 * @return
+	 */
+	long getOutputBytes();
+
+	long getScannerNanos();
+
+	/**
+	 * Get time spent in parser itself, without time spent in scanner and code buffer.
+	 *
+	 * @return
+	 */
+	long getParserNanos();
+
+	long getCodeBufferNanos();
+
+	/**
+	 * Set all values to zero.
+	 */
+	void reset();
+
+}
@@ -0,0 +1,409 @@
+package main;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Long-lived translation daemon, so that build steps which translate one file each do not pay for
+ * JVM startup, class loading and compilation of parser every time. Daemon listens on Unix domain
+ * socket in a directory which only its owner can access (see {@link #defaultSocket()}), so no
+ * other user can stop it or make it read files. Every connection is served on its own thread. Any
+ * number of connections can be open at once, but at most given number of programs is translated
+ * at the same time.
+ * <p>
+ * Protocol is line based. Every request is one line, optionally followed by program, and every
+ * response is one line, optionally followed by generated code. Lengths are in bytes, programs and
+ * code are UTF-8. Connection can be used for any number of requests.
+ *
+ * <pre>
+ * FILE absolutePath          translate file on the same machine
+ * SOURCE length\n program     translate given program, of at most {@link #MAX_SOURCE} bytes
+ * STOP                       stop daemon
+ *
+ * OK length\n code            translated
+ * ERROR message              not translated, with message of error
+ * </pre>
+ *
+ * <pre>
+ * java main.TranslationServer [-u socket] [-j threads] [-s seed] [-c cacheDir [-m cacheMegabytes]] [--lazy-flags] [--pipeline] [--metrics]
+ * </pre>
+ *
+ * Directory of given socket must be accessible only to its owner, and is created like that if it
+ * does not exist.
+ * <p>
+ * With <code>--metrics</code>, {@link TranslationMetrics} of daemon are enabled and can be read over
+ * JMX.
+ *
+ * @author Nikola Trkulja
+ * @author Igor Let
+ */
+public class TranslationServer implements Closeable {
+
+	/**
+	 * Longest accepted request line.
+	 */
+	private static final int MAX_LINE = 4096;
+
+	/**
+	 * Longest accepted program of <code>SOURCE</code> request, so that one request can not take
+	 * all memory of daemon.
+	 */
+	public static final int MAX_SOURCE = 64 << 20;
+
+	private static final Set<PosixFilePermission> OWNER_ONLY = EnumSet.of(
+			PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE,
+			PosixFilePermission.OWNER_EXECUTE);
+
+	private final Translator translator;
+	private final Path path;
+	private final ServerSocketChannel socket;
+	private final ExecutorService connections;
+	private final Semaphore translations;
+	private volatile boolean closed;
+
+	/**
+	 * Open daemon on given socket. Socket left by daemon which did not stop cleanly is replaced,
+	 * but not socket on which another daemon is listening.
+	 *
+	 * @param translator
+	 * @param path socket, in directory accessible only to its owner
+	 * @param threads number of programs read and translated at the same time, which also bounds
+	 *            memory of programs sent to daemon
+	 * @throws IOException if socket can not be opened, or its directory is accessible to others
+	 */
+	public TranslationServer(Translator translator, Path path, int threads) throws IOException {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Number of threads must be positive: " + threads);
+		}
+		this.translator = translator;
+		this.path = path;
+		translations = new Semaphore(threads);
+		createPrivateDirectory(path.toAbsolutePath().getParent());
+		if (Files.exists(path)) {
+			if (isListening(path)) {
+				throw new IOException("Another daemon is listening on " + path);
+			}
+			Files.delete(path);
+		}
+		socket = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		socket.bind(UnixDomainSocketAddress.of(path), 256);
+		connections = Executors.newCachedThreadPool(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "translation-connection");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	public Path getSocket() {
+		return path;
+	}
+
+	/**
+	 * Get default socket of daemon of current user, in private directory under temporary
+	 * directory.
+	 *
+	 * @return
+	 */
+	public static Path defaultSocket() {
+		return Paths.get(System.getProperty("java.io.tmpdir"),
+				"translator-" + System.getProperty("user.name"), "daemon.sock");
+	}
+
+	private static boolean isListening(Path path) {
+		try {
+			SocketChannel.open(UnixDomainSocketAddress.of(path)).close();
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Create directory accessible only to its owner, or check that existing directory is like
+	 * that and is owned by current user. File systems without POSIX permissions are not checked.
+	 *
+	 * @param dir
+	 * @throws IOException
+	 */
+	static void createPrivateDirectory(Path dir) throws IOException {
+		if (!dir.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+			Files.createDirectories(dir);
+			return;
+		}
+		try {
+			Files.createDirectory(dir, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+		} catch (FileAlreadyExistsException e) {
+			// checked below
+		}
+		UserPrincipal user = dir.getFileSystem().getUserPrincipalLookupService()
+				.lookupPrincipalByName(System.getProperty("user.name"));
+		if (!Files.getOwner(dir).equals(user)
+				|| !Files.getPosixFilePermissions(dir).equals(OWNER_ONLY)) {
+			throw new IOException("Directory " + dir
+					+ " must be owned by current user and accessible only to its owner");
+		}
+	}
+
+	/**
+	 * Accept connections until daemon is closed.
+	 *
+	 * @throws IOException
+	 */
+	public void run() throws IOException {
+		try {
+			while (!closed) {
+				final SocketChannel connection;
+				try {
+					connection = socket.accept();
+				} catch (IOException e) {
+					if (closed) {
+						break;
+					}
+					throw e;
+				}
+				connections.execute(new Runnable() {
+					@Override
+					public void run() {
+						serve(connection);
+					}
+				});
+			}
+		} finally {
+			close();
+		}
+	}
+
+	/**
+	 * Stop accepting connections and remove socket. Connections which are already open are served
+	 * by daemon threads, until they are closed or JVM exits.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		connections.shutdown();
+		try {
+			socket.close();
+		} finally {
+			Files.deleteIfExists(path);
+		}
+	}
+
+	/**
+	 * Serve requests of one connection until client closes it.
+	 *
+	 * @param connection
+	 */
+	private void serve(SocketChannel connection) {
+		try {
+			try {
+				InputStream in = new BufferedInputStream(Channels.newInputStream(connection));
+				OutputStream out = new BufferedOutputStream(Channels.newOutputStream(connection));
+				String request;
+				while ((request = readLine(in)) != null) {
+					if (request.equals("STOP")) {
+						respond(out, "OK 0", null);
+						close();
+						return;
+					}
+					byte[] code;
+					try {
+						code = translate(request, in);
+					} catch (ParsingException e) {
+						respond(out, "ERROR " + e.getMessage(), null);
+						continue;
+					} catch (IllegalArgumentException e) {
+						// malformed request, rest of the stream can not be trusted
+						respond(out, "ERROR " + e.getMessage(), null);
+						return;
+					} catch (IOException e) {
+						respond(out, "ERROR " + e, null);
+						continue;
+					} catch (RuntimeException e) {
+						respond(out, "ERROR " + e, null);
+						continue;
+					}
+					respond(out, "OK " + code.length, code);
+				}
+			} finally {
+				connection.close();
+			}
+		} catch (IOException e) {
+			// client went away, nothing to answer
+		}
+	}
+
+	/**
+	 * Translate program of given request.
+	 *
+	 * @param request
+	 * @param in
+	 * @return generated code
+	 * @throws IOException
+	 */
+	private byte[] translate(String request, InputStream in) throws IOException {
+		if (request.startsWith("FILE ")) {
+			Path file = Paths.get(request.substring(5));
+			if (!file.isAbsolute()) {
+				throw new IllegalArgumentException("Path must be absolute: " + file);
+			}
+			StringWriter code = new StringWriter();
+			acquire();
+			try {
+				translator.translate(file, code);
+			} finally {
+				translations.release();
+			}
+			return code.toString().getBytes(TranslationCache.CHARSET);
+		}
+		if (request.startsWith("SOURCE ")) {
+			int length = Integer.parseInt(request.substring(7));
+			if (length < 0) {
+				throw new IllegalArgumentException("Invalid length: " + length);
+			}
+			if (length > MAX_SOURCE) {
+				throw new IllegalArgumentException("Program of " + length
+						+ " bytes is longer than " + MAX_SOURCE + " bytes");
+			}
+			StringWriter code = new StringWriter();
+			// program is read only with permit, so that threads limit also memory of programs
+			acquire();
+			try {
+				byte[] program = new byte[length];
+				for (int n = 0; n < length;) {
+					int read = in.read(program, n, length - n);
+					if (read < 0) {
+						throw new EOFException("Program ended after " + n + " of " + length
+								+ " bytes");
+					}
+					n += read;
+				}
+				translator.translate(ByteBuffer.wrap(program), code);
+			} finally {
+				translations.release();
+			}
+			return code.toString().getBytes(TranslationCache.CHARSET);
+		}
+		throw new IllegalArgumentException("Unknown request: " + request);
+	}
+
+	private void acquire() throws IOException {
+		try {
+			translations.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for translation");
+		}
+	}
+
+	private static void respond(OutputStream out, String line, byte[] code) throws IOException {
+		out.write(line.replace('\n', ' ').getBytes(TranslationCache.CHARSET));
+		out.write('\n');
+		if (code != null) {
+			out.write(code);
+		}
+		out.flush();
+	}
+
+	/**
+	 * Read one line, without line end. Returns null at the end of stream.
+	 *
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	static String readLine(InputStream in) throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int b;
+		while ((b = in.read()) != '\n') {
+			if (b < 0) {
+				if (line.size() == 0) {
+					return null;
+				}
+				break;
+			}
+			if (line.size() == MAX_LINE) {
+				throw new IOException("Line too long");
+			}
+			line.write(b);
+		}
+		return new String(line.toByteArray(), TranslationCache.CHARSET);
+	}
+
+	public static void main(String[] args) throws Exception {
+		Path path = defaultSocket();
+		int threads = Runtime.getRuntime().availableProcessors();
+		long seed = Parser.DEFAULT_SEED;
+		boolean lazyFlags = false;
+		boolean pipeline = false;
+		Path cacheDir = null;
+		long cacheMegabytes = App.DEFAULT_CACHE_MEGABYTES;
+		boolean metrics = false;
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-u") && i + 1 < args.length) {
+				path = Paths.get(args[++i]);
+			} else if (args[i].equals("-j") && i + 1 < args.length) {
+				threads = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-s") && i + 1 < args.length) {
+				seed = Long.parseLong(args[++i]);
+			} else if (args[i].equals("-c") && i + 1 < args.length) {
+				cacheDir = Paths.get(args[++i]);
+			} else if (args[i].equals("-m") && i + 1 < args.length) {
+				cacheMegabytes = Long.parseLong(args[++i]);
+			} else if (args[i].equals("--lazy-flags")) {
+				lazyFlags = true;
+			} else if (args[i].equals("--pipeline")) {
+				pipeline = true;
+			} else if (args[i].equals("--metrics")) {
+				metrics = true;
+			} else {
+				System.out.println("Usage: java main.TranslationServer [-u socket] [-j threads] [-s seed] [-c cacheDir [-m cacheMegabytes]] [--lazy-flags] [--pipeline] [--metrics]");
+				return;
+			}
+		}
+
+		if (metrics) {
+			TranslationMetrics.enable();
+		}
+		TranslationCache cache = null;
+		if (cacheDir != null) {
+			cache = new TranslationCache(cacheDir, cacheMegabytes << 20);
+		}
+		TranslationServer server = new TranslationServer(new Translator(seed, lazyFlags, pipeline, cache), path, threads);
+		System.out.println("Listening on " + server.getSocket());
+		server.run();
+	}
+
+}
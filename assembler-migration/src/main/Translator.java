@@ -0,0 +1,397 @@
+package main;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Translator of assembler programs to WSL, for use as library. Translator can not be changed after
+ * it is created (grammar tables are shared by all parsers), so one instance can be used for any
+ * number of translations, concurrently from many threads. Every translation uses its own
+ * {@link Scanner} and {@link Parser}. Errors in program are thrown as {@link ParsingException} and
+ * errors while reading or writing as {@link IOException}.
+ * <p>
+ * Translation is deterministic, the same program translated with the same seed always gives the
+ * same code. If translator has {@link TranslationCache}, programs from files and buffers are
+ * looked up in cache before they are translated, and added to it after.
+ * <p>
+ * Large ASCII programs are tokenized in parallel chunks (see {@link Scanner#tokenizeParallel()})
+ * before they are parsed, when there is more than one processor. Tokens of the whole program are
+ * kept in memory then, instead of being scanned while program is parsed. With pipeline option,
+ * large programs are scanned by {@link TokenPipeline} instead, on its own thread while they are
+ * parsed, which keeps only a few blocks of tokens in memory.
+ * <p>
+ * Every translation is recorded as {@link TranslationEvent} when flight recorder is on, and added
+ * to {@link TranslationMetrics} when metrics are enabled.
+ *
+ * @author Nikola Trkulja
+ * @author Igor Let
+ */
+public final class Translator {
+
+	/**
+	 * Version of generated code. Must be changed whenever code generated for some program changes,
+	 * because it is part of cache key.
+	 */
+	public static final String VERSION = "10";
+
+	private final long seed;
+	private final boolean lazyFlags;
+	private final boolean pipeline;
+	private final TranslationCache cache;
+
+	public Translator() {
+		this(Parser.DEFAULT_SEED, null);
+	}
+
+	/**
+	 * @param seed seed of random value used for <strong>@data</strong>
+	 * @param cache cache of translations, or null
+	 */
+	public Translator(long seed, TranslationCache cache) {
+		this(seed, false, cache);
+	}
+
+	/**
+	 * @param seed seed of random value used for <strong>@data</strong>
+	 * @param lazyFlags whether flags are computed lazily, see {@link Parser#setLazyFlags(boolean)}
+	 * @param cache cache of translations, or null
+	 */
+	public Translator(long seed, boolean lazyFlags, TranslationCache cache) {
+		this(seed, lazyFlags, false, cache);
+	}
+
+	/**
+	 * @param seed seed of random value used for <strong>@data</strong>
+	 * @param lazyFlags whether flags are computed lazily, see {@link Parser#setLazyFlags(boolean)}
+	 * @param pipeline whether large programs are scanned on their own thread by
+	 *            {@link TokenPipeline} instead of being tokenized in parallel
+	 * @param cache cache of translations, or null
+	 */
+	public Translator(long seed, boolean lazyFlags, boolean pipeline, TranslationCache cache) {
+		this.seed = seed;
+		this.lazyFlags = lazyFlags;
+		this.pipeline = pipeline;
+		this.cache = cache;
+	}
+
+	/**
+	 * Get version and options of translator in the form used for cache key.
+	 *
+	 * @return
+	 */
+	public String getOptions() {
+		return "version=" + VERSION + ";seed=" + seed + (lazyFlags ? ";flags=lazy" : "");
+	}
+
+	/**
+	 * Translate program read from given reader and write generated action system to given writer.
+	 * Writer is flushed, but neither reader nor writer are closed.
+	 *
+	 * @param in
+	 * @param out
+	 * @throws IOException
+	 */
+	public void translate(Reader in, Writer out) throws IOException {
+		Scanner scanner;
+		try {
+			scanner = new Scanner(in);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		translate(scanner, null, out, null);
+	}
+
+	/**
+	 * Translate program contained in remaining bytes of given buffer.
+	 *
+	 * @param in
+	 * @param out
+	 * @throws IOException
+	 */
+	public void translate(ByteBuffer in, Writer out) throws IOException {
+		if (cache == null) {
+			translate(new Scanner(in), null, out, null);
+		} else {
+			translateCached(in, out, null);
+		}
+	}
+
+	/**
+	 * Translate program from given file.
+	 *
+	 * @param in
+	 * @param out
+	 * @throws IOException
+	 */
+	public void translate(Path in, Writer out) throws IOException {
+		if (cache == null || Files.size(in) > Integer.MAX_VALUE) {
+			translate(new Scanner(in), null, out, in);
+			return;
+		}
+		ByteBuffer program;
+		FileChannel channel = FileChannel.open(in, StandardOpenOption.READ);
+		try {
+			program = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			channel.close();
+		}
+		translateCached(program, out, in);
+	}
+
+	/**
+	 * Translate program tokenized before by {@link Scanner#tokenize()}. Stream is not changed, so
+	 * the same stream can be translated any number of times, for example by translators with
+	 * different options. Program is not looked up in cache, because its text is not known.
+	 *
+	 * @param in
+	 * @param out
+	 * @throws IOException
+	 */
+	public void translate(TokenStream in, Writer out) throws IOException {
+		translate(null, in, out, null);
+	}
+
+	/**
+	 * Translate program from given file and return generated action system.
+	 *
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	public String translate(Path in) throws IOException {
+		StringWriter out = new StringWriter();
+		translate(in, out);
+		return out.toString();
+	}
+
+	/**
+	 * Copy generated code from cache if program is there, otherwise translate it and write code to
+	 * both writer and cache.
+	 *
+	 * @param program
+	 * @param out
+	 * @param file file of program, or null
+	 * @throws IOException
+	 */
+	private void translateCached(ByteBuffer program, Writer out, Path file) throws IOException {
+		String key = TranslationCache.key(getOptions(), program);
+		Path entry = cache.get(key);
+		if (entry != null) {
+			Reader in;
+			try {
+				in = Files.newBufferedReader(entry, TranslationCache.CHARSET);
+			} catch (NoSuchFileException e) {
+				// removed from cache in the meantime
+				in = null;
+			}
+			if (in != null) {
+				TranslationEvent event = new TranslationEvent();
+				event.begin();
+				long length = 0;
+				try {
+					char[] chunk = new char[8192];
+					int n;
+					while ((n = in.read(chunk)) != -1) {
+						out.write(chunk, 0, n);
+						length += n;
+					}
+					out.flush();
+				} finally {
+					in.close();
+				}
+				if (TranslationMetrics.isEnabled()) {
+					TranslationMetrics.getInstance().addCacheHit(length);
+				}
+				if (event.shouldCommit()) {
+					event.source = file == null ? null : file.toString();
+					event.cached = true;
+					event.outputBytes = length;
+					event.commit();
+				}
+				return;
+			}
+		}
+
+		Path temp = cache.createTempFile();
+		try {
+			Writer copy = Files.newBufferedWriter(temp, TranslationCache.CHARSET);
+			try {
+				translate(new Scanner(program), null, new TeeWriter(out, copy), file);
+			} finally {
+				copy.close();
+			}
+			cache.put(key, temp);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * Translate program read by given scanner, or given token stream if there is no scanner. Large
+	 * ASCII input (see {@link Scanner#isLarge()}) is scanned by pipeline if translator has that
+	 * option, otherwise it is tokenized in parallel first when there is more than one processor.
+	 * Scanner and code are measured only if metrics or flight recorder need them.
+	 *
+	 * @param scanner scanner, or null
+	 * @param tokens token stream, used if there is no scanner
+	 * @param out
+	 * @param file file of program, or null
+	 * @throws IOException
+	 */
+	private void translate(Scanner scanner, TokenStream tokens, Writer out, Path file)
+			throws IOException {
+		TranslationEvent event = new TranslationEvent();
+		boolean metrics = TranslationMetrics.isEnabled();
+		CountingWriter counter = null;
+		if (metrics || event.isEnabled()) {
+			counter = new CountingWriter(out);
+			out = counter;
+		}
+		TokenSource input = scanner;
+		TranslationMetrics.TimedSource source = null;
+		long tokenizeNanos = 0;
+		boolean done = false;
+		event.begin();
+		long start = System.nanoTime();
+		try {
+			if (scanner != null && scanner.isLarge() && pipeline) {
+				input = new TokenPipeline(scanner);
+			} else if (scanner != null && scanner.isLarge()
+					&& ForkJoinPool.getCommonPoolParallelism() > 1) {
+				try {
+					tokens = scanner.tokenizeParallel();
+				} finally {
+					scanner.close();
+				}
+				input = null;
+				tokenizeNanos = System.nanoTime() - start;
+			}
+			Parser parser;
+			if (input == null) {
+				parser = new Parser(tokens);
+			} else if (metrics) {
+				source = new TranslationMetrics.TimedSource(input);
+				parser = new Parser(source);
+			} else {
+				parser = new Parser(input);
+			}
+			parser.setSeed(seed);
+			parser.setLazyFlags(lazyFlags);
+			try {
+				parser.parse(out);
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+			done = true;
+			if (metrics) {
+				TranslationMetrics.getInstance().addTranslation(parser,
+						tokenizeNanos + (source == null ? 0 : source.getNanos()),
+						System.nanoTime() - start, counter.getCount());
+			}
+			if (event.shouldCommit()) {
+				event.source = file == null ? null : file.toString();
+				event.tokens = parser.getTokenCount();
+				event.macroExpansions = parser.getMacroExpansions();
+				event.procedures = parser.getProcedures();
+				event.flagBlocks = parser.getFlagBlocks();
+				event.outputBytes = counter.getCount();
+				event.commit();
+			}
+		} finally {
+			if (!done) {
+				if (input != null) {
+					// parser may have failed before it could close it
+					input.close();
+				}
+				if (metrics) {
+					TranslationMetrics.getInstance().addFailure();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writer which counts characters written to another writer.
+	 */
+	private static class CountingWriter extends FilterWriter {
+
+		private long count;
+
+		public CountingWriter(Writer out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int c) throws IOException {
+			out.write(c);
+			count++;
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			out.write(cbuf, off, len);
+			count += len;
+		}
+
+		@Override
+		public void write(String str, int off, int len) throws IOException {
+			out.write(str, off, len);
+			count += len;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+	}
+
+	/**
+	 * Writer which writes everything to two writers.
+	 */
+	private static class TeeWriter extends Writer {
+
+		private final Writer first;
+		private final Writer second;
+
+		public TeeWriter(Writer first, Writer second) {
+			this.first = first;
+			this.second = second;
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			first.write(cbuf, off, len);
+			second.write(cbuf, off, len);
+		}
+
+		@Override
+		public void write(String str, int off, int len) throws IOException {
+			first.write(str, off, len);
+			second.write(str, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			first.flush();
+			second.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+
+	}
+
+}
@@ -0,0 +1,148 @@
+package main;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Writer used for streaming generated WSL code. Removes every semicolon after which there is word
+ * "END" in the same way as {@link CodeBuffer#close()} does for code kept in memory, holding back
+ * only characters which could still turn out to be such semicolon.
+ *
+ * @author Nikola Trkulja
+ * @author Igor Let
+ */
+class WslWriter extends FilterWriter {
+
+	private static final String NEW_LINE = System.getProperty("line.separator");
+	private static final String PATTERN = ";" + NEW_LINE + "END";
+	private static final String REPLACEMENT = NEW_LINE + "END";
+	private static final int PART = 1 << 13;
+
+	private final StringBuilder pending;
+
+	/**
+	 * Characters ready to be written, kept in array so that they are written without creating
+	 * string.
+	 */
+	private char[] chunk;
+	private int length;
+
+	public WslWriter(Writer out) {
+		super(out);
+		pending = new StringBuilder(PATTERN.length());
+		chunk = new char[256];
+	}
+
+	@Override
+	public void write(int c) throws IOException {
+		reserve(1 + PATTERN.length());
+		process((char) c);
+		writeChunk();
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len) throws IOException {
+		reserve(len + PATTERN.length());
+		for (int i = off; i < off + len; i++) {
+			process(cbuf[i]);
+		}
+		writeChunk();
+	}
+
+	@Override
+	public void write(String str, int off, int len) throws IOException {
+		reserve(len + PATTERN.length());
+		for (int i = off; i < off + len; i++) {
+			process(str.charAt(i));
+		}
+		writeChunk();
+	}
+
+	/**
+	 * Append characters without making string of them, as {@link Writer#append(CharSequence)}
+	 * would. Long sequence is processed in parts, so that chunk stays small.
+	 */
+	@Override
+	public WslWriter append(CharSequence csq) throws IOException {
+		for (int start = 0; start < csq.length(); start += PART) {
+			int end = Math.min(csq.length(), start + PART);
+			reserve(end - start + PATTERN.length());
+			for (int i = start; i < end; i++) {
+				process(csq.charAt(i));
+			}
+			writeChunk();
+		}
+		return this;
+	}
+
+	/**
+	 * Process one character. Semicolon starts pending match, and pending characters are released
+	 * as soon as they can not be part of pattern any more.
+	 *
+	 * @param c
+	 */
+	private void process(char c) {
+		if (pending.length() == 0) {
+			if (c == ';') {
+				pending.append(c);
+			} else {
+				chunk[length++] = c;
+			}
+			return;
+		}
+		if (PATTERN.charAt(pending.length()) == c) {
+			pending.append(c);
+			if (pending.length() == PATTERN.length()) {
+				REPLACEMENT.getChars(0, REPLACEMENT.length(), chunk, length);
+				length += REPLACEMENT.length();
+				pending.setLength(0);
+			}
+		} else {
+			// semicolon can appear only at the beginning of pattern
+			releasePending();
+			process(c);
+		}
+	}
+
+	/**
+	 * Move pending characters to chunk.
+	 */
+	private void releasePending() {
+		pending.getChars(0, pending.length(), chunk, length);
+		length += pending.length();
+		pending.setLength(0);
+	}
+
+	/**
+	 * Make sure that chunk has room for given number of characters.
+	 *
+	 * @param n
+	 */
+	private void reserve(int n) {
+		if (length + n > chunk.length) {
+			chunk = Arrays.copyOf(chunk, Math.max(chunk.length * 2, length + n));
+		}
+	}
+
+	private void writeChunk() throws IOException {
+		if (length > 0) {
+			out.write(chunk, 0, length);
+			length = 0;
+		}
+	}
+
+	/**
+	 * Write held back characters. Must be called after the last piece of code is written.
+	 *
+	 * @throws IOException
+	 */
+	public void finish() throws IOException {
+		reserve(pending.length());
+		releasePending();
+		writeChunk();
+		out.flush();
+	}
+
+}